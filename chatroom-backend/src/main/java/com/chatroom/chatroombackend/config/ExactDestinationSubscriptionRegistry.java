@@ -0,0 +1,139 @@
+package com.chatroom.chatroombackend.config;
+
+import org.springframework.messaging.Message;
+import org.springframework.messaging.simp.broker.AbstractSubscriptionRegistry;
+import org.springframework.util.AntPathMatcher;
+import org.springframework.util.CollectionUtils;
+import org.springframework.util.LinkedMultiValueMap;
+import org.springframework.util.MultiValueMap;
+import org.springframework.util.PathMatcher;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 按目的地精确索引的订阅表，替换 SimpleBroker 默认的 DefaultSubscriptionRegistry。
+ *
+ * <p>本项目的订阅几乎都是精确目的地（/topic/conversations/{id}、/user/queue/... 解析后的会话目的地），
+ * 广播时直接按目的地取出订阅者，耗时只与该目的地的订阅数有关，与全局订阅总数无关。
+ * 所有结构都是 ConcurrentHashMap，订阅、退订和查找之间不需要全局锁。每个精确目的地在变化时重建一份只读的查找结果，
+ * 广播查找直接返回它，不随每条消息复制；这与 DefaultSubscriptionRegistry 的目的地缓存做法相同，但没有缓存上限，
+ * 会话数超过缓存容量时也不会退化为扫描全部订阅。
+ *
+ * <p>带通配符（* / ** / {}）的订阅单独保存，查找时逐个匹配；不支持 selector 订阅头。
+ */
+public class ExactDestinationSubscriptionRegistry extends AbstractSubscriptionRegistry {
+
+    private static final MultiValueMap<String, String> EMPTY =
+            CollectionUtils.unmodifiableMultiValueMap(new LinkedMultiValueMap<>());
+
+    private final PathMatcher pathMatcher = new AntPathMatcher();
+
+    // destination -> 订阅者及其只读查找结果
+    private final Map<String, Subscribers> exact = new ConcurrentHashMap<>();
+
+    // pattern -> sessionId -> subscriptionIds
+    private final Map<String, Map<String, Set<String>>> patterns = new ConcurrentHashMap<>();
+
+    // sessionId -> subscriptionId -> destination，用于退订与断线清理
+    private final Map<String, Map<String, String>> sessions = new ConcurrentHashMap<>();
+
+    @Override
+    protected void addSubscriptionInternal(
+            String sessionId, String subscriptionId, String destination, Message<?> message) {
+        sessions.computeIfAbsent(sessionId, id -> new ConcurrentHashMap<>()).put(subscriptionId, destination);
+        // 与 unindex 一样在目的地 key 上用 compute 完成，避免与并发的退订交错后丢失订阅
+        if (pathMatcher.isPattern(destination)) {
+            patterns.compute(destination, (d, bySession) -> {
+                Map<String, Set<String>> target = bySession != null ? bySession : new ConcurrentHashMap<>();
+                target.computeIfAbsent(sessionId, id -> ConcurrentHashMap.newKeySet()).add(subscriptionId);
+                return target;
+            });
+        } else {
+            exact.compute(destination, (d, subscribers) -> {
+                Subscribers target = subscribers != null ? subscribers : new Subscribers();
+                target.bySession.computeIfAbsent(sessionId, id -> ConcurrentHashMap.newKeySet()).add(subscriptionId);
+                target.rebuild();
+                return target;
+            });
+        }
+    }
+
+    @Override
+    protected void removeSubscriptionInternal(String sessionId, String subscriptionId, Message<?> message) {
+        Map<String, String> subscriptions = sessions.get(sessionId);
+        if (subscriptions == null) {
+            return;
+        }
+        String destination = subscriptions.remove(subscriptionId);
+        if (destination != null) {
+            unindex(sessionId, subscriptionId, destination);
+        }
+    }
+
+    @Override
+    public void unregisterAllSubscriptions(String sessionId) {
+        Map<String, String> subscriptions = sessions.remove(sessionId);
+        if (subscriptions != null) {
+            subscriptions.forEach((subscriptionId, destination) -> unindex(sessionId, subscriptionId, destination));
+        }
+    }
+
+    @Override
+    protected MultiValueMap<String, String> findSubscriptionsInternal(String destination, Message<?> message) {
+        Subscribers subscribers = exact.get(destination);
+        MultiValueMap<String, String> exactMatches = subscribers != null ? subscribers.resolved : EMPTY;
+        if (patterns.isEmpty()) {
+            return exactMatches;
+        }
+        MultiValueMap<String, String> result = new LinkedMultiValueMap<>();
+        result.addAll(exactMatches);
+        patterns.forEach((pattern, bySession) -> {
+            if (pathMatcher.match(pattern, destination)) {
+                bySession.forEach((sessionId, ids) -> ids.forEach(id -> result.add(sessionId, id)));
+            }
+        });
+        return result;
+    }
+
+    private void unindex(String sessionId, String subscriptionId, String destination) {
+        // computeIfPresent 在同一个 key 上是原子的，空集合顺带移除，避免目的地条目无限增长
+        if (pathMatcher.isPattern(destination)) {
+            patterns.computeIfPresent(destination, (d, bySession) -> {
+                removeFrom(bySession, sessionId, subscriptionId);
+                return bySession.isEmpty() ? null : bySession;
+            });
+        } else {
+            exact.computeIfPresent(destination, (d, subscribers) -> {
+                removeFrom(subscribers.bySession, sessionId, subscriptionId);
+                if (subscribers.bySession.isEmpty()) {
+                    return null;
+                }
+                subscribers.rebuild();
+                return subscribers;
+            });
+        }
+    }
+
+    private static void removeFrom(Map<String, Set<String>> bySession, String sessionId, String subscriptionId) {
+        bySession.computeIfPresent(sessionId, (id, ids) -> {
+            ids.remove(subscriptionId);
+            return ids.isEmpty() ? null : ids;
+        });
+    }
+
+    /** 一个精确目的地的订阅者；只在该目的地的 compute 内修改。 */
+    private static final class Subscribers {
+        // sessionId -> subscriptionIds
+        private final Map<String, Set<String>> bySession = new ConcurrentHashMap<>();
+        // 广播查找直接返回的只读结果，每次变化后整体替换
+        private volatile MultiValueMap<String, String> resolved = EMPTY;
+
+        private void rebuild() {
+            MultiValueMap<String, String> result = new LinkedMultiValueMap<>(bySession.size());
+            bySession.forEach((sessionId, ids) -> ids.forEach(id -> result.add(sessionId, id)));
+            resolved = CollectionUtils.unmodifiableMultiValueMap(result);
+        }
+    }
+}
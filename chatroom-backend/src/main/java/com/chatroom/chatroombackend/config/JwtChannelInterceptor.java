@@ -1,5 +1,6 @@
 package com.chatroom.chatroombackend.config; // 建议放在 config 包下
 
+import com.chatroom.chatroombackend.repository.UserRepository;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.messaging.Message;
@@ -14,13 +15,22 @@ import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.security.core.userdetails.UserDetailsService;
 import org.springframework.stereotype.Component;
 
+import java.util.Map;
+
 @Component
 @RequiredArgsConstructor
 @Slf4j
 public class JwtChannelInterceptor implements ChannelInterceptor {
 
+    /**
+     * CONNECT 时放入 STOMP 会话属性的用户 id，后续帧不必再按用户名查库。
+     * 只缓存 id：昵称、头像等资料可能在会话期间修改，需要时按 id 重新读取。
+     */
+    public static final String SESSION_USER_ID_ATTRIBUTE = "chatroom.userId";
+
     private final JwtTokenProvider jwtService;
     private final UserDetailsService userDetailsService;
+    private final UserRepository userRepository;
 
     @Override
     public Message<?> preSend(Message<?> message, MessageChannel channel) {
@@ -45,6 +55,12 @@ public class JwtChannelInterceptor implements ChannelInterceptor {
                         );
                         // 注意：这里我们将认证信息设置到 STOMP 的头中，以便后续的处理器可以获取
                         accessor.setUser(authToken);
+                        // (核心新增) 连接时解析一次用户 id，整个会话期间复用
+                        Map<String, Object> sessionAttributes = accessor.getSessionAttributes();
+                        if (sessionAttributes != null) {
+                            userRepository.findByUsername(username)
+                                    .ifPresent(user -> sessionAttributes.put(SESSION_USER_ID_ATTRIBUTE, user.getId()));
+                        }
                         log.info("Authenticated user {} for WebSocket session.", username);
                     }
                 }
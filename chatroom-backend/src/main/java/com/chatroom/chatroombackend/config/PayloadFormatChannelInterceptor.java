@@ -0,0 +1,84 @@
+package com.chatroom.chatroombackend.config;
+
+import com.chatroom.chatroombackend.service.CborPayloadEncoder;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.support.ChannelInterceptor;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.stereotype.Component;
+import org.springframework.util.MimeType;
+import org.springframework.util.MimeTypeUtils;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 按会话选择推送负载的编码。
+ *
+ * <p>通过原生端点 /ws-native 连接的客户端在 CONNECT 帧上带 payload-format: cbor，即可让该会话收到 CBOR 编码的
+ * MESSAGE 帧（二进制帧，content-type 为 application/octet-stream;format=cbor，时间字段为 epoch 毫秒）；
+ * 不带、带其他值或经由 SockJS（只能传文本）连接时保持 JSON。同时注册在入站和出站通道上：
+ * 入站记录 CONNECT/DISCONNECT，出站替换发给 CBOR 会话的负载。
+ */
+@Component
+public class PayloadFormatChannelInterceptor implements ChannelInterceptor {
+
+    public static final String PAYLOAD_FORMAT_HEADER = "payload-format";
+
+    /** /ws-native 握手时放入会话属性，标记连接可以传输二进制帧 */
+    public static final String BINARY_CAPABLE_ATTRIBUTE = "chatroom.binaryCapable";
+
+    private final ObjectProvider<CborPayloadEncoder> cborPayloadEncoder;
+
+    private final Set<String> cborSessions = ConcurrentHashMap.newKeySet();
+
+    public PayloadFormatChannelInterceptor(ObjectProvider<CborPayloadEncoder> cborPayloadEncoder) {
+        this.cborPayloadEncoder = cborPayloadEncoder;
+    }
+
+    @Override
+    public Message<?> preSend(Message<?> message, MessageChannel channel) {
+        SimpMessageType type = SimpMessageHeaderAccessor.getMessageType(message.getHeaders());
+        String sessionId = SimpMessageHeaderAccessor.getSessionId(message.getHeaders());
+        if (type == null || sessionId == null) {
+            return message;
+        }
+        switch (type) {
+            case CONNECT -> {
+                SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.wrap(message);
+                Map<String, Object> attributes = accessor.getSessionAttributes();
+                if ("cbor".equalsIgnoreCase(accessor.getFirstNativeHeader(PAYLOAD_FORMAT_HEADER))
+                        && attributes != null && Boolean.TRUE.equals(attributes.get(BINARY_CAPABLE_ATTRIBUTE))) {
+                    cborSessions.add(sessionId);
+                }
+            }
+            case DISCONNECT -> cborSessions.remove(sessionId);
+            case MESSAGE -> {
+                if (cborSessions.contains(sessionId) && message.getPayload() instanceof byte[] json) {
+                    return toCbor(message, json);
+                }
+            }
+            default -> {
+            }
+        }
+        return message;
+    }
+
+    private Message<?> toCbor(Message<?> message, byte[] json) {
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.wrap(message);
+        MimeType contentType = accessor.getContentType();
+        if (contentType == null || !MimeTypeUtils.APPLICATION_JSON.isCompatibleWith(contentType)) {
+            return message;
+        }
+        // 经 BroadcastDispatcher 发出的消息从原对象编码（所有会话共用一份），其他消息从 JSON 转码
+        byte[] cbor = accessor.getHeader(CborPayloadEncoder.CBOR_SOURCE_HEADER) instanceof CborPayloadEncoder.CborSource source
+                ? source.cbor()
+                : cborPayloadEncoder.getObject().transcode(json);
+        accessor.setContentType(CborPayloadEncoder.CBOR_FRAME_CONTENT_TYPE);
+        return MessageBuilder.createMessage(cbor, accessor.getMessageHeaders());
+    }
+}
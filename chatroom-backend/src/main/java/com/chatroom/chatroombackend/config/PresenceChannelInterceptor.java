@@ -0,0 +1,34 @@
+package com.chatroom.chatroombackend.config;
+
+import com.chatroom.chatroombackend.service.PresenceService;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.support.ChannelInterceptor;
+import org.springframework.stereotype.Component;
+
+/**
+ * 客户端发来的每一帧（包括 STOMP 心跳）都刷新该会话用户的最后活跃时间。
+ *
+ * <p>PresenceService 依赖 BroadcastDispatcher，后者又依赖 WebSocket 配置创建的 SimpMessagingTemplate，
+ * 这里通过 ObjectProvider 延迟获取，避免循环依赖。
+ */
+@Component
+public class PresenceChannelInterceptor implements ChannelInterceptor {
+
+    private final ObjectProvider<PresenceService> presenceService;
+
+    public PresenceChannelInterceptor(ObjectProvider<PresenceService> presenceService) {
+        this.presenceService = presenceService;
+    }
+
+    @Override
+    public Message<?> preSend(Message<?> message, MessageChannel channel) {
+        String sessionId = SimpMessageHeaderAccessor.getSessionId(message.getHeaders());
+        if (sessionId != null) {
+            presenceService.getObject().touch(sessionId);
+        }
+        return message;
+    }
+}
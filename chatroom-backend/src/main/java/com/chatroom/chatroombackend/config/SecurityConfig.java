@@ -43,6 +43,7 @@ public class SecurityConfig {
                 .authorizeHttpRequests(req -> req
                         .requestMatchers("/api/auth/**").permitAll() // 允许访问认证相关端点
                         .requestMatchers("/ws/**").permitAll()
+                        .requestMatchers("/ws-native").permitAll()
                         .requestMatchers(HttpMethod.GET, "/uploads/**").permitAll()
                         .requestMatchers("/api/user/**").permitAll()
                         .requestMatchers("/api/conversations/**").permitAll()
@@ -71,6 +72,8 @@ public class SecurityConfig {
         configuration.setAllowCredentials(true);
         // 允许所有请求头
         configuration.setAllowedHeaders(List.of("*"));
+        // 允许前端读取会话列表增量同步的游标
+        configuration.setExposedHeaders(List.of("X-Inbox-Version"));
 
         UrlBasedCorsConfigurationSource source = new UrlBasedCorsConfigurationSource();
         // 对所有路径应用这个CORS配置
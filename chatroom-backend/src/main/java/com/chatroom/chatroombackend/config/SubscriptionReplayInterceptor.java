@@ -0,0 +1,297 @@
+package com.chatroom.chatroombackend.config;
+
+import com.chatroom.chatroombackend.dto.MessageDto;
+import com.chatroom.chatroombackend.dto.MessagePageDto;
+import com.chatroom.chatroombackend.service.CborPayloadEncoder;
+import com.chatroom.chatroombackend.service.ConversationService;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.MessageHandler;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.simp.broker.AbstractBrokerMessageHandler;
+import org.springframework.messaging.simp.broker.OrderedMessageChannelDecorator;
+import org.springframework.messaging.support.ExecutorChannelInterceptor;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.messaging.support.MessageHeaderAccessor;
+import org.springframework.stereotype.Component;
+import org.springframework.util.MimeTypeUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 断线重连后补发订阅期间错过的消息。
+ *
+ * <p>客户端订阅 /topic/conversations/{id} 时在 SUBSCRIBE 帧上带 last-seen-seq（已收到的最大消息序号），
+ * broker 登记订阅之后，服务端把 seq 更大的消息直接发给这个订阅（先读最近消息缓存，覆盖不到时查数据库），
+ * 每帧带 replay:true；缺口超过 app.replay.maxMessages 时只补最早的一段，并在最后一帧带 replay-truncated:true，
+ * 客户端再用 /messages/history?after= 继续拉取。补发帧按 seq 升序列出 last-seen-seq 之后全部已提交的消息，
+ * 客户端收到 seq 为 n 的补发帧时，可以把 n 之前仍没收到的序号当作空洞越过，下次订阅不必从同一个空洞重新补发。
+ *
+ * <p>从 SUBSCRIBE 进入到补发完成之间，发给该订阅的实时消息先暂存。补发帧按 seq 升序、经由该会话自己的有序通道逐条发出，
+ * 最后一帧被出站处理器处理完（OrderedMessageChannelDecorator 的回调）之后，再经同一通道按原顺序放行暂存的消息；
+ * 放行期间新到的实时消息继续暂存，直到某一批放行完时没有新暂存的消息才停止暂存，实时消息不会越过还在排队的补发帧。
+ * 订阅登记后、读取补发内容前到达的消息可能补发与实时各收到一次，客户端按 seq 去重即可。
+ *
+ * <p>relay 模式下 SUBSCRIBE 异步转发给外部 broker，补发可能早于订阅在 broker 上生效，其间的消息靠客户端用 after 补拉。
+ */
+@Component
+@Slf4j
+public class SubscriptionReplayInterceptor implements ExecutorChannelInterceptor {
+
+    public static final String LAST_SEEN_SEQ_HEADER = "last-seen-seq";
+    public static final String REPLAY_HEADER = "replay";
+    public static final String REPLAY_TRUNCATED_HEADER = "replay-truncated";
+
+    // 补发帧和放行的暂存消息上的非原生标记，出站拦截时直接放行
+    private static final String REPLAYED_MARKER = "chatroom.replayed";
+    // 每批经有序通道发出的最后一帧带上对应的 Replay，处理完后据此放行下一批或结束暂存
+    private static final String DRAIN_MARKER = "chatroom.replayDrain";
+    private static final Pattern CONVERSATION_TOPIC = Pattern.compile("^/topic/conversations/(\\d+)$");
+
+    @Value("${app.replay.maxMessages:200}")
+    private int maxMessages;
+
+    // 补发期间每个订阅最多暂存的实时消息数，超出后不再暂存、直接放行
+    @Value("${app.replay.maxBufferedLive:1000}")
+    private int maxBufferedLive;
+
+    private final ObjectProvider<ConversationService> conversationService;
+    private final ObjectProvider<CborPayloadEncoder> cborPayloadEncoder;
+    private final ObjectProvider<MessageChannel> clientOutboundChannel;
+    private final ObjectMapper objectMapper;
+    private final Counter replayed;
+
+    // sessionId + subscriptionId -> 补发状态
+    private final Map<String, Replay> replaying = new ConcurrentHashMap<>();
+
+    // 出站通道是线程池，直接发送时同一会话的帧可能乱序；补发帧和暂存的实时消息经由各会话自己的有序通道逐条发送，
+    // 会话断开（DISCONNECT）时移除
+    private final Map<String, MessageChannel> orderedOutbound = new ConcurrentHashMap<>();
+
+    public SubscriptionReplayInterceptor(ObjectProvider<ConversationService> conversationService,
+                                         ObjectProvider<CborPayloadEncoder> cborPayloadEncoder,
+                                         @Qualifier("clientOutboundChannel") ObjectProvider<MessageChannel> clientOutboundChannel,
+                                         ObjectMapper objectMapper,
+                                         MeterRegistry meterRegistry) {
+        this.conversationService = conversationService;
+        this.cborPayloadEncoder = cborPayloadEncoder;
+        this.clientOutboundChannel = clientOutboundChannel;
+        this.objectMapper = objectMapper;
+        this.replayed = meterRegistry.counter("chat.websocket.replayed_messages");
+    }
+
+    @Override
+    public Message<?> preSend(Message<?> message, MessageChannel channel) {
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.wrap(message);
+        SimpMessageType type = accessor.getMessageType();
+        if (type == SimpMessageType.SUBSCRIBE) {
+            // 入站：在 broker 登记订阅之前开始暂存，登记后到达的实时消息不会抢在补发前面
+            Long conversationId = conversationId(accessor.getDestination());
+            Long lastSeenSeq = lastSeenSeq(accessor.getFirstNativeHeader(LAST_SEEN_SEQ_HEADER));
+            if (conversationId != null && lastSeenSeq != null && accessor.getSubscriptionId() != null) {
+                String key = key(accessor.getSessionId(), accessor.getSubscriptionId());
+                replaying.put(key, new Replay(key, conversationId, lastSeenSeq));
+            }
+        } else if (type == SimpMessageType.MESSAGE && !replaying.isEmpty()
+                && accessor.getHeader(REPLAYED_MARKER) == null) {
+            // 出站：补发尚未完成的订阅，实时消息先暂存
+            Replay replay = replaying.get(key(accessor.getSessionId(), accessor.getSubscriptionId()));
+            if (replay != null) {
+                synchronized (replay) {
+                    if (!replay.done && replay.buffered.size() < maxBufferedLive) {
+                        replay.buffered.add(message);
+                        return null;
+                    }
+                }
+            }
+        } else if (type == SimpMessageType.UNSUBSCRIBE) {
+            replaying.remove(key(accessor.getSessionId(), accessor.getSubscriptionId()));
+        } else if (type == SimpMessageType.DISCONNECT) {
+            orderedOutbound.remove(accessor.getSessionId());
+            if (!replaying.isEmpty()) {
+                String prefix = accessor.getSessionId() + "/";
+                replaying.keySet().removeIf(key -> key.startsWith(prefix));
+            }
+        }
+        return message;
+    }
+
+    @Override
+    public void afterMessageHandled(Message<?> message, MessageChannel channel, MessageHandler handler, Exception ex) {
+        // 出站：一批补发或放行的最后一帧已处理完
+        if (message.getHeaders().get(DRAIN_MARKER) instanceof Replay replay) {
+            drained(replay, SimpMessageHeaderAccessor.getSessionId(message.getHeaders()));
+            return;
+        }
+        // 入站：只在 broker 处理完 SUBSCRIBE（订阅已登记）之后补发
+        if (!(handler instanceof AbstractBrokerMessageHandler)
+                || SimpMessageHeaderAccessor.getMessageType(message.getHeaders()) != SimpMessageType.SUBSCRIBE) {
+            return;
+        }
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.wrap(message);
+        String key = key(accessor.getSessionId(), accessor.getSubscriptionId());
+        Replay replay = replaying.get(key);
+        if (replay == null) {
+            return;
+        }
+        List<Message<?>> frames = List.of();
+        if (ex == null) {
+            try {
+                frames = replayFrames(accessor, replay);
+            } catch (RuntimeException e) {
+                log.warn("Failed to replay conversation {} for session {}", replay.conversationId,
+                        accessor.getSessionId(), e);
+            }
+        }
+        replayed.increment(frames.size());
+        if (frames.isEmpty()) {
+            drained(replay, accessor.getSessionId());
+        } else {
+            sendOrdered(accessor.getSessionId(), frames, replay);
+        }
+    }
+
+    // 上一批已处理完：没有新暂存的消息就结束补发，否则把暂存的消息作为下一批放行
+    private void drained(Replay replay, String sessionId) {
+        synchronized (replay) {
+            if (replaying.get(replay.key) != replay) {
+                // 补发期间已取消订阅或断开
+                replay.buffered.clear();
+                return;
+            }
+            if (replay.buffered.isEmpty()) {
+                replay.done = true;
+                replaying.remove(replay.key, replay);
+                return;
+            }
+            List<Message<?>> batch = new ArrayList<>(replay.buffered.size());
+            replay.buffered.forEach(buffered -> batch.add(mutable(buffered)));
+            replay.buffered.clear();
+            sendOrdered(sessionId, batch, replay);
+        }
+    }
+
+    // 经会话的有序通道发送一批帧，最后一帧带上 DRAIN_MARKER
+    private void sendOrdered(String sessionId, List<Message<?>> batch, Replay replay) {
+        MessageChannel outbound = orderedOutbound.computeIfAbsent(sessionId, id -> {
+            MessageChannel channel = clientOutboundChannel.getObject();
+            OrderedMessageChannelDecorator.configureInterceptor(channel, true);
+            return new OrderedMessageChannelDecorator(channel, LogFactory.getLog(SubscriptionReplayInterceptor.class));
+        });
+        for (int i = 0; i < batch.size(); i++) {
+            Message<?> frame = batch.get(i);
+            SimpMessageHeaderAccessor accessor =
+                    MessageHeaderAccessor.getAccessor(frame, SimpMessageHeaderAccessor.class);
+            accessor.setHeader(REPLAYED_MARKER, Boolean.TRUE);
+            if (i == batch.size() - 1) {
+                accessor.setHeader(DRAIN_MARKER, replay);
+            }
+            outbound.send(frame);
+        }
+    }
+
+    private List<Message<?>> replayFrames(SimpMessageHeaderAccessor subscribe, Replay replay) {
+        Map<String, Object> attributes = subscribe.getSessionAttributes();
+        if (attributes == null || !(attributes.get(JwtChannelInterceptor.SESSION_USER_ID_ATTRIBUTE) instanceof Long userId)) {
+            return List.of();
+        }
+        // 与历史消息接口相同：校验成员身份、尊重清空记录时间点，优先读最近消息缓存
+        MessagePageDto page = conversationService.getObject()
+                .getMessageHistory(userId, replay.conversationId, null, replay.lastSeenSeq, maxMessages);
+        List<MessageDto> messages = page.getMessages();
+        List<Message<?>> frames = new ArrayList<>(messages.size());
+        for (int i = 0; i < messages.size(); i++) {
+            boolean truncated = page.isHasMore() && i == messages.size() - 1;
+            frames.add(toFrame(subscribe, messages.get(i), truncated));
+        }
+        return frames;
+    }
+
+    private Message<byte[]> toFrame(SimpMessageHeaderAccessor subscribe, MessageDto dto, boolean truncated) {
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.create(SimpMessageType.MESSAGE);
+        accessor.setSessionId(subscribe.getSessionId());
+        accessor.setSubscriptionId(subscribe.getSubscriptionId());
+        accessor.setDestination(subscribe.getDestination());
+        accessor.setContentType(MimeTypeUtils.APPLICATION_JSON);
+        accessor.setNativeHeader(REPLAY_HEADER, "true");
+        if (truncated) {
+            accessor.setNativeHeader(REPLAY_TRUNCATED_HEADER, "true");
+        }
+        accessor.setHeader(REPLAYED_MARKER, Boolean.TRUE);
+        accessor.setLeaveMutable(true);
+        // CBOR 会话直接从对象编码，时间字段与实时消息一致
+        accessor.setHeader(CborPayloadEncoder.CBOR_SOURCE_HEADER,
+                (CborPayloadEncoder.CborSource) () -> cborPayloadEncoder.getObject().encode(dto));
+        try {
+            return MessageBuilder.createMessage(objectMapper.writeValueAsBytes(dto), accessor.getMessageHeaders());
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Failed to encode replayed message", e);
+        }
+    }
+
+    // 有序发送需要在消息头上挂回调，要求头可修改；broker 生成的消息本身可修改，其他来源的复制一份
+    private static Message<?> mutable(Message<?> message) {
+        SimpMessageHeaderAccessor accessor =
+                MessageHeaderAccessor.getAccessor(message, SimpMessageHeaderAccessor.class);
+        if (accessor != null && accessor.isMutable()) {
+            return message;
+        }
+        SimpMessageHeaderAccessor copy = SimpMessageHeaderAccessor.wrap(message);
+        copy.setLeaveMutable(true);
+        return MessageBuilder.createMessage(message.getPayload(), copy.getMessageHeaders());
+    }
+
+    private static String key(String sessionId, String subscriptionId) {
+        return sessionId + "/" + subscriptionId;
+    }
+
+    private static Long conversationId(String destination) {
+        if (destination == null) {
+            return null;
+        }
+        Matcher matcher = CONVERSATION_TOPIC.matcher(destination);
+        return matcher.matches() ? Long.valueOf(matcher.group(1)) : null;
+    }
+
+    private static Long lastSeenSeq(String header) {
+        if (header == null) {
+            return null;
+        }
+        try {
+            long seq = Long.parseLong(header.trim());
+            return seq >= 0 ? seq : null;
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static final class Replay {
+        private final String key;
+        private final Long conversationId;
+        private final Long lastSeenSeq;
+        // 以下字段只在 synchronized (this) 内访问
+        private final List<Message<?>> buffered = new ArrayList<>();
+        private boolean done;
+
+        private Replay(String key, Long conversationId, Long lastSeenSeq) {
+            this.key = key;
+            this.conversationId = conversationId;
+            this.lastSeenSeq = lastSeenSeq;
+        }
+    }
+}
@@ -1,25 +1,155 @@
 package com.chatroom.chatroombackend.config; // 确保包名正确
 
+import com.chatroom.chatroombackend.service.CborPayloadEncoder;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
 import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.scheduling.TaskScheduler;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.http.server.ServerHttpRequest;
+import org.springframework.http.server.ServerHttpResponse;
+import org.springframework.messaging.MessageHeaders;
+import org.springframework.messaging.converter.MappingJackson2MessageConverter;
+import org.springframework.messaging.converter.MessageConverter;
 import org.springframework.messaging.simp.config.ChannelRegistration;
+import org.springframework.messaging.simp.broker.SimpleBrokerMessageHandler;
 import org.springframework.messaging.simp.config.MessageBrokerRegistry;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.util.MimeType;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.WebSocketHandler;
+import org.springframework.web.socket.WebSocketSession;
 import org.springframework.web.socket.config.annotation.EnableWebSocketMessageBroker;
 import org.springframework.web.socket.config.annotation.StompEndpointRegistry;
 import org.springframework.web.socket.config.annotation.WebSocketMessageBrokerConfigurer;
+import org.springframework.web.socket.config.annotation.WebSocketTransportRegistration;
+import org.springframework.web.socket.handler.WebSocketHandlerDecorator;
+import org.springframework.web.socket.server.HandshakeInterceptor;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
 
 @Configuration
 @EnableWebSocketMessageBroker // 启用 WebSocket 消息代理
 @RequiredArgsConstructor
 public class WebSocketConfig implements WebSocketMessageBrokerConfigurer {
 
+    private static final int CPUS = Runtime.getRuntime().availableProcessors();
+
     private final JwtChannelInterceptor jwtChannelInterceptor;
+    private final PresenceChannelInterceptor presenceChannelInterceptor;
+    private final PayloadFormatChannelInterceptor payloadFormatChannelInterceptor;
+    private final SubscriptionReplayInterceptor subscriptionReplayInterceptor;
+    private final ObjectProvider<CborPayloadEncoder> cborPayloadEncoder;
+    private final MeterRegistry meterRegistry;
+
+    // 入站（客户端发来的帧）与出站（推给客户端的帧）线程池，队列有界，满了之后拒绝并计数
+    @Value("${app.websocket.inbound.corePoolSize:0}")
+    private int inboundCorePoolSize;
+
+    @Value("${app.websocket.inbound.maxPoolSize:0}")
+    private int inboundMaxPoolSize;
+
+    @Value("${app.websocket.inbound.queueCapacity:10000}")
+    private int inboundQueueCapacity;
+
+    @Value("${app.websocket.outbound.corePoolSize:0}")
+    private int outboundCorePoolSize;
+
+    @Value("${app.websocket.outbound.maxPoolSize:0}")
+    private int outboundMaxPoolSize;
+
+    @Value("${app.websocket.outbound.queueCapacity:10000}")
+    private int outboundQueueCapacity;
+
+    // 单个会话的限制：超过发送耗时或待发送缓冲上限的慢连接会被断开，避免拖慢其他会话
+    @Value("${app.websocket.messageSizeLimit:65536}")
+    private int messageSizeLimit;
+
+    @Value("${app.websocket.sendTimeLimitMs:10000}")
+    private int sendTimeLimitMs;
+
+    @Value("${app.websocket.sendBufferSizeLimit:524288}")
+    private int sendBufferSizeLimit;
+
+    // SimpleBroker 与客户端之间的心跳间隔；长时间收不到心跳的连接会被关闭并触发下线
+    @Value("${app.websocket.heartbeatMs:10000}")
+    private long heartbeatMs;
+
+    private TaskScheduler messageBrokerTaskScheduler;
+
+    // 复用框架创建的 messageBrokerTaskScheduler 发送心跳；它本身依赖本配置类，所以延迟注入
+    @Autowired
+    public void setMessageBrokerTaskScheduler(@Lazy @Qualifier("messageBrokerTaskScheduler") TaskScheduler taskScheduler) {
+        this.messageBrokerTaskScheduler = taskScheduler;
+    }
+
+    // simple：进程内 SimpleBroker，只能单实例部署；relay：转发到外部 STOMP broker（如 ActiveMQ Artemis），可多实例部署
+    @Value("${app.broker.mode:simple}")
+    private String brokerMode;
+
+    @Value("${app.broker.relay.host:localhost}")
+    private String relayHost;
+
+    @Value("${app.broker.relay.port:61613}")
+    private int relayPort;
+
+    @Value("${app.broker.relay.login:guest}")
+    private String relayLogin;
+
+    @Value("${app.broker.relay.passcode:guest}")
+    private String relayPasscode;
+
+    /**
+     * (核心新增) 把 SimpleBroker 的订阅表换成按目的地精确索引的实现。
+     * 设置 app.websocket.subscriptionRegistry=default 可退回 Spring 自带的实现。
+     */
+    @Bean
+    @ConditionalOnProperty(name = "app.websocket.subscriptionRegistry", havingValue = "exact", matchIfMissing = true)
+    public static BeanPostProcessor exactSubscriptionRegistryPostProcessor() {
+        return new BeanPostProcessor() {
+            @Override
+            public Object postProcessBeforeInitialization(Object bean, String beanName) {
+                if (bean instanceof SimpleBrokerMessageHandler handler) {
+                    handler.setSubscriptionRegistry(new ExactDestinationSubscriptionRegistry());
+                }
+                return bean;
+            }
+        };
+    }
 
     @Override
     public void configureMessageBroker(MessageBrokerRegistry registry) {
         // 1. 设置消息代理的前缀，所有发往这些前缀的都会被路由到消息代理（broker）
         //    客户端将订阅这些前缀的目的地
-        registry.enableSimpleBroker("/topic", "/queue");
+        if ("relay".equalsIgnoreCase(brokerMode)) {
+            // (核心新增) 集群模式：/topic 与 /queue 交给外部 broker，任意节点发布的消息都能送达其他节点上的连接
+            registry.enableStompBrokerRelay("/topic", "/queue")
+                    .setRelayHost(relayHost)
+                    .setRelayPort(relayPort)
+                    .setClientLogin(relayLogin)
+                    .setClientPasscode(relayPasscode)
+                    .setSystemLogin(relayLogin)
+                    .setSystemPasscode(relayPasscode)
+                    // 本节点找不到目标用户的会话时，广播给其他节点解析 /user 目的地
+                    .setUserDestinationBroadcast("/topic/unresolved-user-destination")
+                    // 各节点互相同步在线用户表，SimpUserRegistry 能看到整个集群的用户
+                    .setUserRegistryBroadcast("/topic/simp-user-registry");
+        } else {
+            registry.enableSimpleBroker("/topic", "/queue")
+                    .setHeartbeatValue(new long[] {heartbeatMs, heartbeatMs})
+                    .setTaskScheduler(messageBrokerTaskScheduler);
+        }
 
         // 2. 设置应用的前缀，所有发往这些前缀的都会被路由到 @MessageMapping 注解的方法
         //    客户端发送消息时，目的地会带上这个前缀
@@ -37,10 +167,106 @@ public class WebSocketConfig implements WebSocketMessageBrokerConfigurer {
                 .setAllowedOrigins("http://localhost:5173")
                 // 3. 启用 SockJS 作为备用选项，以防浏览器不支持原生 WebSocket
                 .withSockJS();
+
+        // (核心新增) 不经过 SockJS 的原生 WebSocket 端点，省掉 SockJS 的分帧开销，也不会退化到占用 servlet 线程的
+        //    xhr-streaming 等传输。客户端请求 permessage-deflate 时由 Tomcat 在握手中协商压缩，不请求则不压缩
+        registry.addEndpoint("/ws-native")
+                .setAllowedOrigins("http://localhost:5173")
+                // 原生连接可以传输二进制帧，允许协商 CBOR 负载
+                .addInterceptors(new HandshakeInterceptor() {
+                    @Override
+                    public boolean beforeHandshake(ServerHttpRequest request, ServerHttpResponse response,
+                            WebSocketHandler wsHandler, Map<String, Object> attributes) {
+                        attributes.put(PayloadFormatChannelInterceptor.BINARY_CAPABLE_ATTRIBUTE, Boolean.TRUE);
+                        return true;
+                    }
+
+                    @Override
+                    public void afterHandshake(ServerHttpRequest request, ServerHttpResponse response,
+                            WebSocketHandler wsHandler, Exception exception) {
+                    }
+                });
+    }
+
+    /**
+     * 在默认转换器之外接受 CBOR 编码的 SEND 帧：content-type 为 application/cbor，或者与推送帧相同的
+     * application/octet-stream;format=cbor（客户端要以二进制帧发送时使用）。未声明内容类型的消息仍由默认的 JSON 转换器处理。
+     */
+    @Override
+    public boolean configureMessageConverters(List<MessageConverter> messageConverters) {
+        MappingJackson2MessageConverter cbor = new MappingJackson2MessageConverter(
+                CborPayloadEncoder.APPLICATION_CBOR, CborPayloadEncoder.CBOR_FRAME_CONTENT_TYPE) {
+            @Override
+            protected boolean supportsMimeType(MessageHeaders headers) {
+                MimeType mimeType = getMimeType(headers);
+                return mimeType != null && (CborPayloadEncoder.APPLICATION_CBOR.equalsTypeAndSubtype(mimeType)
+                        || CborPayloadEncoder.CBOR_FRAME_CONTENT_TYPE.equals(mimeType));
+            }
+        };
+        cbor.setObjectMapper(cborPayloadEncoder.getObject().getCborMapper());
+        cbor.setStrictContentTypeMatch(true);
+        messageConverters.add(cbor);
+        return true;
     }
 
     @Override
     public void configureClientInboundChannel(ChannelRegistration registration) {
-        registration.interceptors(jwtChannelInterceptor); // 2. 将拦截器添加到处理链中
+        registration.interceptors(jwtChannelInterceptor, presenceChannelInterceptor,
+                payloadFormatChannelInterceptor, subscriptionReplayInterceptor); // 2. 将拦截器添加到处理链中
+        registration.executor(channelExecutor(
+                "inbound", inboundCorePoolSize, inboundMaxPoolSize, inboundQueueCapacity));
+    }
+
+    @Override
+    public void configureClientOutboundChannel(ChannelRegistration registration) {
+        // 发给声明了 payload-format: cbor 的会话时把 JSON 负载换成 CBOR
+        // 补发拦截器在前：暂存的实时消息放行时再经过一次出站链，保持未转码的原始负载
+        registration.interceptors(subscriptionReplayInterceptor, payloadFormatChannelInterceptor);
+        registration.executor(channelExecutor(
+                "outbound", outboundCorePoolSize, outboundMaxPoolSize, outboundQueueCapacity));
+    }
+
+    @Override
+    public void configureWebSocketTransport(WebSocketTransportRegistration registration) {
+        registration.setMessageSizeLimit(messageSizeLimit)
+                .setSendTimeLimit(sendTimeLimitMs)
+                .setSendBufferSizeLimit(sendBufferSizeLimit);
+
+        // 超过发送限制的会话由 Spring 以 SESSION_NOT_RELIABLE 关闭，这里统计被断开的慢连接
+        Counter slowSessions = meterRegistry.counter("chat.websocket.slow_session_disconnects");
+        registration.addDecoratorFactory(handler -> new WebSocketHandlerDecorator(handler) {
+            @Override
+            public void afterConnectionClosed(WebSocketSession session, CloseStatus closeStatus) throws Exception {
+                if (CloseStatus.SESSION_NOT_RELIABLE.equalsCode(closeStatus)) {
+                    slowSessions.increment();
+                }
+                super.afterConnectionClosed(session, closeStatus);
+            }
+        });
+    }
+
+    /**
+     * 创建 clientInbound/OutboundChannel 的线程池。线程数为 0 时按 CPU 核数取默认值；
+     * 线程池由框架注册为 Bean 并负责初始化和关闭。
+     */
+    private ThreadPoolTaskExecutor channelExecutor(String name, int corePoolSize, int maxPoolSize, int queueCapacity) {
+        int core = corePoolSize > 0 ? corePoolSize : CPUS * 2;
+        Counter rejected = meterRegistry.counter("chat.websocket.channel.rejected", "channel", name);
+
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setThreadNamePrefix("ws-" + name + "-");
+        executor.setCorePoolSize(core);
+        executor.setMaxPoolSize(Math.max(core, maxPoolSize > 0 ? maxPoolSize : CPUS * 4));
+        executor.setQueueCapacity(queueCapacity);
+        executor.setAllowCoreThreadTimeOut(true);
+        executor.setRejectedExecutionHandler((task, pool) -> {
+            rejected.increment();
+            throw new RejectedExecutionException("WebSocket " + name + " channel is saturated");
+        });
+        meterRegistry.gauge("chat.websocket.channel.queued", Tags.of("channel", name), executor,
+                ThreadPoolTaskExecutor::getQueueSize);
+        meterRegistry.gauge("chat.websocket.channel.active", Tags.of("channel", name), executor,
+                ThreadPoolTaskExecutor::getActiveCount);
+        return executor;
     }
 }
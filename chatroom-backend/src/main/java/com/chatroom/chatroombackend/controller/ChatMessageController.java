@@ -0,0 +1,206 @@
+package com.chatroom.chatroombackend.controller;
+
+import com.chatroom.chatroombackend.config.JwtChannelInterceptor;
+import com.chatroom.chatroombackend.dto.MessageDto;
+import com.chatroom.chatroombackend.dto.MessageReceiptDto;
+import com.chatroom.chatroombackend.dto.MessageRequest;
+import com.chatroom.chatroombackend.dto.ReadReceiptRequest;
+import com.chatroom.chatroombackend.dto.TypingRequest;
+import com.chatroom.chatroombackend.entity.User;
+import com.chatroom.chatroombackend.enums.ParticipantRole;
+import com.chatroom.chatroombackend.repository.ConversationParticipantRepository;
+import com.chatroom.chatroombackend.repository.UserRepository;
+import com.chatroom.chatroombackend.service.ConversationService;
+import com.chatroom.chatroombackend.service.MessageIngestPipeline;
+import com.chatroom.chatroombackend.service.ReadReceiptService;
+import com.chatroom.chatroombackend.service.TypingIndicatorService;
+import jakarta.persistence.EntityNotFoundException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.messaging.handler.annotation.DestinationVariable;
+import org.springframework.messaging.handler.annotation.MessageExceptionHandler;
+import org.springframework.messaging.handler.annotation.MessageMapping;
+import org.springframework.messaging.handler.annotation.Payload;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.annotation.SendToUser;
+import org.springframework.security.access.AccessDeniedException;
+import org.springframework.stereotype.Controller;
+
+import java.security.Principal;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 通过已认证的 STOMP 会话发送聊天消息。
+ *
+ * <p>客户端向 /app/conversations/{id}/send 发送 MessageRequest，可在 SEND 帧上带 client-msg-id 头；
+ * 处理结果（成功或失败）只回给发送方当前会话的 /user/queue/receipts。发送者 id 来自 CONNECT 时认证的用户，
+ * 不再经过 HTTP 解析、JWT 校验和按用户名查询；每次发送按主键读取一次用户，广播里的昵称和头像总是最新的。
+ * REST 接口 POST /api/conversations/{id}/messages 保持不变。
+ * 批量落库模式下入站线程只做校验和入队，回执在消息提交（或失败、超时）后由 future 的完成回调发出。
+ *
+ * <p>"正在输入"事件发往 /app/conversations/{id}/typing，由 {@link TypingIndicatorService} 合并后广播；
+ * 已读回执发往 /app/conversations/{id}/read，由 {@link ReadReceiptService} 合并后批量写入。
+ */
+@Controller
+public class ChatMessageController {
+
+  private static final Logger logger = LoggerFactory.getLogger(ChatMessageController.class);
+
+  public static final String CLIENT_MESSAGE_ID_HEADER = "client-msg-id";
+
+  // 本会话已确认是成员的会话 id -> 确认结果的过期时间，过期前的输入/已读事件不再查库
+  private static final String VERIFIED_MEMBERSHIPS_ATTRIBUTE = "chatroom.verifiedMemberships";
+
+  // 成员身份确认的有效期：被踢出或退出的成员最多在这段时间内还能发出输入/已读事件
+  @Value("${app.stomp.membershipTtlMs:5000}")
+  private long membershipTtlMs;
+
+  @Autowired private ConversationService conversationService;
+  @Autowired private MessageIngestPipeline messageIngestPipeline;
+  @Autowired private UserRepository userRepository;
+  @Autowired private ConversationParticipantRepository participantRepo;
+  @Autowired private TypingIndicatorService typingIndicatorService;
+  @Autowired private ReadReceiptService readReceiptService;
+
+  @MessageMapping("/conversations/{conversationId}/send")
+  @SendToUser(destinations = "/queue/receipts", broadcast = false)
+  public CompletableFuture<MessageReceiptDto> sendMessage(
+      @DestinationVariable Long conversationId,
+      @Payload MessageRequest request,
+      SimpMessageHeaderAccessor accessor) {
+    User sender = loadUser(getSessionUserId(accessor));
+    String clientMessageId = clientMessageId(accessor);
+    CompletableFuture<MessageDto> saved =
+        messageIngestPipeline.isEnabled()
+            ? messageIngestPipeline.submitAsync(sender, conversationId, request)
+            : CompletableFuture.completedFuture(
+                conversationService.sendMessage(sender, conversationId, request));
+    return saved.thenApply(
+        dto -> {
+          // 消息发出即视为停止输入
+          typingIndicatorService.stop(conversationId, sender.getId());
+          return MessageReceiptDto.accepted(clientMessageId, dto);
+        });
+  }
+
+  // (核心新增) 输入状态只进内存，不回执；非成员的事件直接丢弃
+  @MessageMapping("/conversations/{conversationId}/typing")
+  public void typing(
+      @DestinationVariable Long conversationId,
+      @Payload(required = false) TypingRequest request,
+      SimpMessageHeaderAccessor accessor) {
+    Long userId = getSessionUserId(accessor);
+    if (!isVerifiedMember(accessor, conversationId, userId)) {
+      return;
+    }
+    if (request == null || request.isTyping()) {
+      // 广播里带昵称，按主键读取最新资料
+      typingIndicatorService.start(conversationId, loadUser(userId));
+    } else {
+      typingIndicatorService.stop(conversationId, userId);
+    }
+  }
+
+  // (核心新增) 已读回执只进内存，由 ReadReceiptService 定时批量写入；非成员的回执直接丢弃
+  @MessageMapping("/conversations/{conversationId}/read")
+  public void markRead(
+      @DestinationVariable Long conversationId,
+      @Payload(required = false) ReadReceiptRequest request,
+      SimpMessageHeaderAccessor accessor) {
+    Long userId = getSessionUserId(accessor);
+    if (isVerifiedMember(accessor, conversationId, userId)) {
+      readReceiptService.record(userId, conversationId, request != null ? request.getSeq() : null);
+    }
+  }
+
+  // 同步抛出的和异步完成失败的异常都在这里变成失败回执，发送方不会收不到回执
+  @MessageExceptionHandler
+  @SendToUser(destinations = "/queue/receipts", broadcast = false)
+  public MessageReceiptDto handleRejected(Exception e, SimpMessageHeaderAccessor accessor) {
+    Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+    return MessageReceiptDto.rejected(clientMessageId(accessor), rejectionReason(cause));
+  }
+
+  // 预期内的业务异常原样回传原因，其余异常只回通用提示，细节记日志
+  private String rejectionReason(Throwable cause) {
+    if (cause instanceof IllegalArgumentException
+        || cause instanceof IllegalStateException
+        || cause instanceof SecurityException
+        || cause instanceof AccessDeniedException
+        || cause instanceof EntityNotFoundException) {
+      return cause.getMessage();
+    }
+    logger.error("Failed to send message over STOMP", cause);
+    return "Failed to send message.";
+  }
+
+  private Long getSessionUserId(SimpMessageHeaderAccessor accessor) {
+    Map<String, Object> attributes = accessor.getSessionAttributes();
+    Object cached =
+        attributes != null ? attributes.get(JwtChannelInterceptor.SESSION_USER_ID_ATTRIBUTE) : null;
+    if (cached instanceof Long userId) {
+      return userId;
+    }
+
+    // CONNECT 时没能放入会话属性（例如旧会话），退回按用户名查一次并补上
+    Principal principal = accessor.getUser();
+    if (principal == null) {
+      throw new SecurityException("WebSocket session is not authenticated.");
+    }
+    Long userId =
+        userRepository
+            .findByUsername(principal.getName())
+            .map(User::getId)
+            .orElseThrow(
+                () -> new IllegalStateException("Authenticated user not found in database"));
+    if (attributes != null) {
+      attributes.put(JwtChannelInterceptor.SESSION_USER_ID_ATTRIBUTE, userId);
+    }
+    return userId;
+  }
+
+  private User loadUser(Long userId) {
+    return userRepository
+        .findById(userId)
+        .orElseThrow(() -> new IllegalStateException("Authenticated user not found in database"));
+  }
+
+  @SuppressWarnings("unchecked")
+  private boolean isVerifiedMember(
+      SimpMessageHeaderAccessor accessor, Long conversationId, Long userId) {
+    Map<String, Object> attributes = accessor.getSessionAttributes();
+    Map<Long, Long> verified =
+        attributes != null
+            ? (Map<Long, Long>)
+                attributes.computeIfAbsent(
+                    VERIFIED_MEMBERSHIPS_ATTRIBUTE, key -> new ConcurrentHashMap<Long, Long>())
+            : null;
+    long now = System.currentTimeMillis();
+    Long expiresAt = verified != null ? verified.get(conversationId) : null;
+    if (expiresAt != null && expiresAt > now) {
+      return true;
+    }
+    boolean member =
+        participantRepo
+            .findRoleByConversationIdAndUserId(conversationId, userId)
+            .filter(role -> role != ParticipantRole.waiting)
+            .isPresent();
+    if (verified != null) {
+      if (member) {
+        verified.put(conversationId, now + membershipTtlMs);
+      } else {
+        verified.remove(conversationId);
+      }
+    }
+    return member;
+  }
+
+  private String clientMessageId(SimpMessageHeaderAccessor accessor) {
+    return accessor.getFirstNativeHeader(CLIENT_MESSAGE_ID_HEADER);
+  }
+}
@@ -1,12 +1,15 @@
 package com.chatroom.chatroombackend.controller;
 
 import com.chatroom.chatroombackend.dto.*;
+import com.chatroom.chatroombackend.entity.Conversation;
 import com.chatroom.chatroombackend.entity.ConversationBlock;
 import com.chatroom.chatroombackend.entity.User;
 import com.chatroom.chatroombackend.enums.ConversationStatus;
+import com.chatroom.chatroombackend.enums.ParticipantRole;
 import com.chatroom.chatroombackend.repository.ConversationRepository;
 import com.chatroom.chatroombackend.repository.UserRepository;
 import com.chatroom.chatroombackend.service.ConversationService;
+import com.chatroom.chatroombackend.service.MessageIngestPipeline;
 import jakarta.persistence.EntityNotFoundException;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpStatus;
@@ -18,6 +21,7 @@ import org.springframework.web.bind.annotation.*;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 
 @CrossOrigin(origins = "http://localhost:5173", allowCredentials = "true")
 @RestController
@@ -27,6 +31,7 @@ public class ConversationController {
   @Autowired private ConversationService conversationService;
   @Autowired private UserRepository userRepository;
   @Autowired private ConversationRepository conversationRepo;
+  @Autowired private MessageIngestPipeline messageIngestPipeline;
 
   private User getCurrentUser(UserDetails userDetails) {
     return userRepository
@@ -66,14 +71,32 @@ public class ConversationController {
     return ResponseEntity.ok(messages);
   }
 
+  /** (核心新增) 按 seq 游标分页获取历史消息，before/after 二选一，都不传时返回最新一页 */
+  @GetMapping("/{conversationId}/messages/history")
+  public ResponseEntity<MessagePageDto> getMessageHistory(
+      @AuthenticationPrincipal UserDetails userDetails,
+      @PathVariable Long conversationId,
+      @RequestParam(required = false) Long before,
+      @RequestParam(required = false) Long after,
+      @RequestParam(required = false) Integer limit) {
+    User currentUser = getCurrentUser(userDetails);
+    return ResponseEntity.ok(
+        conversationService.getMessageHistory(
+            currentUser.getId(), conversationId, before, after, limit));
+  }
+
   // Send a message (handles both normal and reply)
   @PostMapping("/{conversationId}/messages")
   public ResponseEntity<?> sendMessage(
       @AuthenticationPrincipal UserDetails userDetails,
       @PathVariable Long conversationId,
       @RequestBody MessageRequest request) {
-    return ResponseEntity.ok(
-        conversationService.sendMessage(getCurrentUser(userDetails), conversationId, request));
+    User currentUser = getCurrentUser(userDetails);
+    // 开启批量落库时走 group commit 管道，否则每条消息单独提交
+    if (messageIngestPipeline.isEnabled()) {
+      return ResponseEntity.ok(messageIngestPipeline.submit(currentUser, conversationId, request));
+    }
+    return ResponseEntity.ok(conversationService.sendMessage(currentUser, conversationId, request));
   }
 
   // Withdraw a message
@@ -252,8 +275,7 @@ public class ConversationController {
       @AuthenticationPrincipal UserDetails userDetails, @PathVariable String uuid) {
     try {
       GroupDetailsDto groupDetails =
-          conversationService.findGroupDetailsByUuid(
-              uuid, getCurrentUser(userDetails).getUsername());
+          conversationService.findGroupDetailsByUuid(uuid, getCurrentUser(userDetails));
       return ResponseEntity.ok(groupDetails);
     } catch (IllegalArgumentException e) {
       // 如果找不到群聊或ID不是群聊类型，返回404 Not Found
@@ -261,14 +283,30 @@ public class ConversationController {
     }
   }
 
+  /**
+   * (核心修改) 分页获取群成员，群主、管理员在前。
+   *
+   * @param cursor 上一页返回的 nextCursor，不传时从第一页开始
+   * @param role 只返回指定角色的成员
+   * @param q 昵称前缀
+   */
   @GetMapping("/{uuid}/members")
-  public ResponseEntity<?> getGroupMembersByUuid(@PathVariable String uuid) {
+  public ResponseEntity<?> getGroupMembersByUuid(
+      @PathVariable String uuid,
+      @RequestParam(required = false) String cursor,
+      @RequestParam(required = false) Integer limit,
+      @RequestParam(required = false) ParticipantRole role,
+      @RequestParam(required = false) String q) {
+    Optional<Conversation> conversation = conversationRepo.findByUuid(uuid);
+    if (conversation.isEmpty()) {
+      return ResponseEntity.status(404).body("Group with UUID " + uuid + " not found.");
+    }
     try {
-      List<GroupMemberDto> groupMembers =
-          conversationService.findMembersByUuid(conversationRepo.findByUuid(uuid).get().getId());
-      return ResponseEntity.ok(groupMembers);
+      GroupMemberPageDto page =
+          conversationService.findMemberPage(conversation.get().getId(), cursor, limit, role, q);
+      return ResponseEntity.ok(page);
     } catch (IllegalArgumentException e) {
-      return ResponseEntity.status(404).body(e.getMessage());
+      return ResponseEntity.badRequest().body(e.getMessage());
     }
   }
 
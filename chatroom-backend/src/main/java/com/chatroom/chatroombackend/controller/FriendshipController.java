@@ -1,16 +1,18 @@
 package com.chatroom.chatroombackend.controller;
 
 import com.chatroom.chatroombackend.dto.GroupDetailsDto;
+import com.chatroom.chatroombackend.dto.PresenceDto;
 import com.chatroom.chatroombackend.dto.UserSearchResultDto;
 import com.chatroom.chatroombackend.entity.User;
 import com.chatroom.chatroombackend.repository.ConversationRepository;
 import com.chatroom.chatroombackend.repository.UserRepository;
+import com.chatroom.chatroombackend.service.BroadcastDispatcher;
 import com.chatroom.chatroombackend.service.ConversationService;
 import com.chatroom.chatroombackend.service.FriendshipService;
+import com.chatroom.chatroombackend.service.PresenceService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
-import org.springframework.messaging.simp.SimpMessagingTemplate;
 import org.springframework.security.core.annotation.AuthenticationPrincipal;
 import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.web.bind.annotation.*;
@@ -26,8 +28,9 @@ public class FriendshipController {
   @Autowired private FriendshipService friendshipService;
   @Autowired private UserRepository userRepository;
   @Autowired private ConversationService conversationService;
-  @Autowired private SimpMessagingTemplate messagingTemplate;
+  @Autowired private BroadcastDispatcher broadcastDispatcher;
   @Autowired private ConversationRepository conversationRepo;
+  @Autowired private PresenceService presenceService;
 
   private User getCurrentUser(UserDetails userDetails) {
     return userRepository
@@ -87,6 +90,19 @@ public class FriendshipController {
     return ResponseEntity.ok(friends);
   }
 
+  /**
+   * (核心新增) 一次返回当前用户所有好友的在线状态与最后活跃时间。
+   *
+   * @param userDetails 由Spring Security提供的当前用户信息
+   * @return 好友在线状态列表
+   */
+  @GetMapping("/presence")
+  public ResponseEntity<List<PresenceDto>> getFriendPresence(
+      @AuthenticationPrincipal UserDetails userDetails) {
+    User currentUser = getCurrentUser(userDetails);
+    return ResponseEntity.ok(presenceService.getFriendPresence(currentUser));
+  }
+
   @GetMapping("/groups")
   public ResponseEntity<List<GroupDetailsDto>> getJoinedGroups(
       @AuthenticationPrincipal UserDetails userDetails) {
@@ -113,7 +129,7 @@ public class FriendshipController {
       conversationService.deletePrivateConversation(currentUser, friendId);
 
       // 3. 通过WebSocket通知对方
-      messagingTemplate.convertAndSendToUser(
+      broadcastDispatcher.publishToUser(
           friendId.toString(),
           "/queue/friend-removed",
           Map.of("removerId", currentUser.getId(), "removerName", currentUser.getUsername()));
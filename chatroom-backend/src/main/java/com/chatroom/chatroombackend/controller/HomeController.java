@@ -22,6 +22,8 @@ import java.util.List;
 @RequestMapping("/api/home")
 public class HomeController {
 
+    private static final String INBOX_VERSION_HEADER = "X-Inbox-Version";
+
     @Autowired private ConversationService conversationService;
     @Autowired private UserRepository userRepository; // 用于从 UserDetails 获取 User 实体
 
@@ -80,11 +82,24 @@ public class HomeController {
         }
     }
 
+    /**
+     * 不带 since 时返回完整的会话列表，并在响应头 X-Inbox-Version 中给出同步游标；
+     * 带 since 时只返回之后有变化或被移除的会话（InboxDeltaDto）。
+     */
     @GetMapping("/conversations")
-    public ResponseEntity<List<ConversationSummaryDto>> getAllConversations(@AuthenticationPrincipal UserDetails userDetails) {
+    public ResponseEntity<?> getAllConversations(
+            @AuthenticationPrincipal UserDetails userDetails,
+            @RequestParam(required = false) Long since) {
         User currentUser = getCurrentUser(userDetails);
+        if (since != null) {
+            return ResponseEntity.ok(conversationService.getInboxDelta(currentUser, since));
+        }
+        // 游标要在查询之前取，查询期间发生的变化会在下一次增量同步中返回
+        long cursor = conversationService.currentInboxCursor();
         List<ConversationSummaryDto> conversations = conversationService.getAllConversations(currentUser);
-        return ResponseEntity.ok(conversations);
+        return ResponseEntity.ok()
+                .header(INBOX_VERSION_HEADER, String.valueOf(cursor))
+                .body(conversations);
     }
 
     @DeleteMapping("/conversations/{conversationId}")
@@ -13,7 +13,9 @@ public class GroupDetailsDto {
     private String avatarUrl;
     private String description;
     private int memberCount;
+    // 只包含第一页成员（群主、管理员在前），其余成员通过 /members 分页接口获取
     private List<GroupMemberDto> members;
+    private String membersNextCursor;
     private ParticipantRole currentUserRole;
 
     // 一个方便的静态工厂方法，用于从实体转换
@@ -29,4 +31,11 @@ public class GroupDetailsDto {
         dto.setCurrentUserRole(currentUserRole);
         return dto;
     }
+
+    public static GroupDetailsDto fromEntity(Conversation conversation, GroupMemberPageDto firstPage, long memberCount, ParticipantRole currentUserRole) {
+        GroupDetailsDto dto = fromEntity(conversation, firstPage.getMembers(), currentUserRole);
+        dto.setMemberCount((int) memberCount);
+        dto.setMembersNextCursor(firstPage.getNextCursor());
+        return dto;
+    }
 }
\ No newline at end of file
@@ -1,9 +1,13 @@
 package com.chatroom.chatroombackend.dto;
 
 import com.chatroom.chatroombackend.enums.ParticipantRole;
+import lombok.AllArgsConstructor;
 import lombok.Data;
+import lombok.NoArgsConstructor;
 
 @Data
+@NoArgsConstructor
+@AllArgsConstructor
 public class GroupMemberDto {
     private Long id;
 
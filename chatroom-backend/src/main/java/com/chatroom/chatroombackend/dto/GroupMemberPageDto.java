@@ -0,0 +1,20 @@
+package com.chatroom.chatroombackend.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/**
+ * 群成员分页结果。成员按 群主 -> 管理员 -> 普通成员 -> 待审核 排序，同一角色内按用户 id 升序。
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class GroupMemberPageDto {
+    private List<GroupMemberDto> members;
+
+    // 下一页的游标，原样作为 cursor 参数传回；为 null 表示已经是最后一页
+    private String nextCursor;
+}
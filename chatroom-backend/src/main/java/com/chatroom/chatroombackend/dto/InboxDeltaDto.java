@@ -0,0 +1,26 @@
+package com.chatroom.chatroombackend.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/**
+ * 会话列表的增量同步结果（GET /api/home/conversations?since=...）。
+ * 客户端先按 removed 删除，再用 changed 按 conversationId 覆盖本地概要，最后保存 version 作为下一次的 since。
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class InboxDeltaDto {
+
+    // 下一次同步使用的游标
+    private long version;
+
+    // since 之后概要有变化的会话（新消息、已读、置顶、免打扰、加入等）
+    private List<ConversationSummaryDto> changed;
+
+    // since 之后从列表中移除的会话 id
+    private List<Long> removed;
+}
@@ -0,0 +1,24 @@
+package com.chatroom.chatroombackend.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+/**
+ * 推送到 /user/queue/inbox 的单个会话变化，客户端据此更新会话列表中对应的一行，无需重新拉取整个列表。
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class InboxUpdateDto {
+    private Long conversationId;
+
+    // 最后一条消息的序号，客户端可用它丢弃乱序到达的旧推送
+    private Long lastMessageSeq;
+
+    private String lastMessageContent;
+    private LocalDateTime lastMessageTimestamp;
+    private int unreadCount;
+}
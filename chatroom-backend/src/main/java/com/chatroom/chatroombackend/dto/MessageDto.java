@@ -19,6 +19,8 @@ public class MessageDto {
 
     private Long id;
     private Long conversationId;
+    // 会话内消息序号，可用作历史分页游标、缺口检测与已读水位
+    private Long seq;
     private String content;
     private LocalDateTime timestamp;
     private SenderDto sender;
@@ -47,6 +49,7 @@ public class MessageDto {
         return new MessageDto(
                 message.getId(),
                 message.getConversation().getId(),
+                message.getSeq(),
                 content, // 使用处理过的内容
                 message.getCreatedAt(),
                 SenderDto.fromUser(message.getSender()),
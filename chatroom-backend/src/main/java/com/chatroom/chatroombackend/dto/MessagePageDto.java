@@ -0,0 +1,27 @@
+package com.chatroom.chatroombackend.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/**
+ * 按消息序号分页的历史消息。messages 始终按 seq 升序排列。
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class MessagePageDto {
+
+    private List<MessageDto> messages;
+
+    // 继续向前翻页时作为 before 传回（本页最早一条的 seq）
+    private Long nextBefore;
+
+    // 继续向后翻页时作为 after 传回（本页最新一条的 seq）
+    private Long nextAfter;
+
+    // 当前翻页方向上是否还有更多消息
+    private boolean hasMore;
+}
@@ -0,0 +1,45 @@
+package com.chatroom.chatroombackend.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+/**
+ * 通过 STOMP 发送消息后回给发送方会话的回执（/user/queue/receipts）。
+ * clientMessageId 原样回传客户端在 SEND 帧里带的 client-msg-id 头，用于匹配请求。
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class MessageReceiptDto {
+
+    private String clientMessageId;
+
+    private boolean success;
+
+    // 以下字段仅在 success 为 true 时有值
+    private Long conversationId;
+    private Long messageId;
+    private Long seq;
+    private LocalDateTime timestamp;
+
+    // 失败原因，仅在 success 为 false 时有值
+    private String error;
+
+    public static MessageReceiptDto accepted(String clientMessageId, MessageDto message) {
+        return new MessageReceiptDto(
+                clientMessageId,
+                true,
+                message.getConversationId(),
+                message.getId(),
+                message.getSeq(),
+                message.getTimestamp(),
+                null);
+    }
+
+    public static MessageReceiptDto rejected(String clientMessageId, String error) {
+        return new MessageReceiptDto(clientMessageId, false, null, null, null, null, error);
+    }
+}
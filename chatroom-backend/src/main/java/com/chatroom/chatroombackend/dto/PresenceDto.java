@@ -0,0 +1,21 @@
+package com.chatroom.chatroombackend.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+/**
+ * 用户在线状态。推送到 /user/queue/presence，也用于批量查询好友在线状态的接口。
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class PresenceDto {
+    private Long userId;
+    private boolean online;
+
+    // 离线用户的最后活跃时间；在线时为最近一次收到该用户消息或心跳的时间
+    private LocalDateTime lastActiveAt;
+}
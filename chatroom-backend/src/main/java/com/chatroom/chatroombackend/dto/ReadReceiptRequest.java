@@ -0,0 +1,11 @@
+package com.chatroom.chatroombackend.dto;
+
+import lombok.Data;
+
+/**
+ * 客户端发往 /app/conversations/{id}/read 的已读回执。seq 为已读到的最大消息序号，为空表示读到最新。
+ */
+@Data
+public class ReadReceiptRequest {
+    private Long seq;
+}
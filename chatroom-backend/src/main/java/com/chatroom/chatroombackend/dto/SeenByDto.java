@@ -0,0 +1,31 @@
+package com.chatroom.chatroombackend.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/**
+ * 广播到 /topic/conversations/{id}/seen 的"已读人数"，只覆盖最近一段消息。
+ *
+ * <p>entries 按 seq 升序；某条消息的已读人数取第一个 seq 不小于该消息序号的条目的 readers，
+ * 找不到则为 0。人数包含发送者本人（发送时已读水位会推进到自己的消息）。
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class SeenByDto {
+    private Long conversationId;
+    private List<Entry> entries;
+
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class Entry {
+        private Long seq;
+
+        // 已读水位不低于 seq 的成员数
+        private long readers;
+    }
+}
@@ -0,0 +1,12 @@
+package com.chatroom.chatroombackend.dto;
+
+import lombok.Data;
+
+/**
+ * 客户端发往 /app/conversations/{id}/typing 的输入状态。输入过程中每隔几秒重发一次 typing=true，
+ * 停止输入或清空输入框时发送 typing=false；超过服务端 TTL 没有重发的会自动移除。
+ */
+@Data
+public class TypingRequest {
+    private boolean typing = true;
+}
@@ -0,0 +1,31 @@
+package com.chatroom.chatroombackend.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/**
+ * 广播到 /topic/conversations/{id}/typing 的"正在输入"快照，每次都是完整状态，客户端直接替换即可。
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class TypingSnapshotDto {
+    private Long conversationId;
+
+    // 最多列出前几位正在输入的成员，大群里只显示"某某等 N 人正在输入"
+    private List<Typist> typists;
+
+    // 正在输入的总人数
+    private int count;
+
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class Typist {
+        private Long userId;
+        private String nickname;
+    }
+}
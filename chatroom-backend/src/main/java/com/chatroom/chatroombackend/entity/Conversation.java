@@ -76,6 +76,24 @@ public class Conversation {
     @Column(name = "is_public")
     private boolean isPublic = true;
 
+    // (核心新增) 最后一条消息的冗余信息，由发送路径通过 ConversationJdbcRepository 维护，会话列表直接读取，无需再查 messages。
+    // 设为只读映射，避免修改群名等操作保存实体时把旧值写回去
+    @Column(name = "last_message_id", insertable = false, updatable = false)
+    private Long lastMessageId;
+
+    @Column(name = "last_message_seq", insertable = false, updatable = false)
+    private Long lastMessageSeq;
+
+    @Column(name = "last_message_preview", length = 255, insertable = false, updatable = false)
+    private String lastMessagePreview;
+
+    @Column(name = "last_message_at", insertable = false, updatable = false)
+    private LocalDateTime lastMessageAt;
+
+    // (核心新增) 会话级变化（新消息、撤回）的增量同步版本号，与上面的字段一起由 ConversationJdbcRepository 更新
+    @Column(name = "inbox_version", insertable = false, updatable = false)
+    private Long inboxVersion;
+
     // 添加一个生命周期回调方法，在实体被持久化之前自动生成UUID
     @PrePersist
     public void prePersist() {
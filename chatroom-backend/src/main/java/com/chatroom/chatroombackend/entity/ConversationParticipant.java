@@ -2,6 +2,7 @@ package com.chatroom.chatroombackend.entity;
 
 import com.chatroom.chatroombackend.enums.ParticipantRole;
 import com.chatroom.chatroombackend.enums.ParticipantStatus;
+import com.chatroom.chatroombackend.service.InboxClock;
 import jakarta.persistence.*;
 import lombok.Data;
 import lombok.NoArgsConstructor;
@@ -11,7 +12,13 @@ import java.time.LocalDateTime;
 @Data
 @NoArgsConstructor
 @Entity
-@Table(name = "conversation_participants")
+@Table(
+        name = "conversation_participants",
+        indexes = {
+                @Index(name = "idx_participants_user_pinned", columnList = "user_id, is_pinned"),
+                // 成员分页按 角色 -> 用户 id 的键集顺序读取
+                @Index(name = "idx_participants_conversation_role", columnList = "conversation_id, role, user_id")
+        })
 public class ConversationParticipant {
 
     /**
@@ -61,6 +68,7 @@ public class ConversationParticipant {
         this.isPinned = false;
         this.areNotificationsMuted = false;
         this.unreadCount = 0;
+        this.lastReadSeq = 0L;
     }
 
     // --- 以下是您提供的所有字段 ---
@@ -93,10 +101,28 @@ public class ConversationParticipant {
     @Column(name = "last_read_message_id")
     private Long lastReadMessageId;
 
+    /**
+     * 旧的未读计数列，已不再随消息写入更新，只在启动迁移时用于换算 lastReadSeq。
+     * 未读数改为由会话最新序号减去 lastReadSeq 得出。
+     */
     @Column(name = "unread_count")
     private Integer unreadCount;
 
+    // 已读水位：当前用户已读到的最大消息序号
+    @Column(name = "last_read_seq")
+    private Long lastReadSeq;
+
     @Enumerated(EnumType.STRING)
     @Column(length = 20)
     private ParticipantStatus status;
+
+    // (核心新增) 会话列表增量同步的版本号，成员记录每次保存（已读、置顶、免打扰、加入等）都会刷新
+    @Column(name = "inbox_version")
+    private Long inboxVersion;
+
+    @PrePersist
+    @PreUpdate
+    void touchInboxVersion() {
+        this.inboxVersion = InboxClock.next();
+    }
 }
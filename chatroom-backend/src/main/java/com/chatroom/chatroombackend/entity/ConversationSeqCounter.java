@@ -0,0 +1,24 @@
+package com.chatroom.chatroombackend.entity;
+
+import jakarta.persistence.*;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * 多节点（relay 模式）下各会话已分配的最大消息序号，由 MessageSequenceAllocator 通过 JDBC 原子递增。
+ *
+ * <p>单独成表、不加外键：分配在独立的短事务里进行，不会和发送事务对 conversations 行持有的锁互相等待。
+ */
+@Data
+@NoArgsConstructor
+@Entity
+@Table(name = "conversation_seq_counters")
+public class ConversationSeqCounter {
+
+    @Id
+    @Column(name = "conversation_id")
+    private Long conversationId;
+
+    @Column(name = "seq", nullable = false)
+    private Long seq;
+}
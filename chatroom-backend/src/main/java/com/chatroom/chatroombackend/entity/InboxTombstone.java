@@ -0,0 +1,36 @@
+package com.chatroom.chatroombackend.entity;
+
+import jakarta.persistence.*;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * 会话从某个用户的会话列表中移除的记录（退群、被踢、申请被拒、私聊被删除），供增量同步返回给客户端。
+ */
+@Data
+@NoArgsConstructor
+@Entity
+@Table(
+        name = "inbox_tombstones",
+        indexes = @Index(name = "idx_inbox_tombstones_user_version", columnList = "user_id, version"))
+public class InboxTombstone {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(name = "user_id", nullable = false)
+    private Long userId;
+
+    @Column(name = "conversation_id", nullable = false)
+    private Long conversationId;
+
+    @Column(name = "version", nullable = false)
+    private Long version;
+
+    public InboxTombstone(Long userId, Long conversationId, Long version) {
+        this.userId = userId;
+        this.conversationId = conversationId;
+        this.version = version;
+    }
+}
@@ -1,5 +1,6 @@
 package com.chatroom.chatroombackend.entity;
 
+import com.chatroom.chatroombackend.enums.MediaKind;
 import com.chatroom.chatroombackend.enums.MessageType;
 import jakarta.persistence.*;
 import lombok.Data;
@@ -8,7 +9,10 @@ import java.time.LocalDateTime;
 
 @Data
 @Entity
-@Table(name = "messages")
+@Table(
+        name = "messages",
+        uniqueConstraints = @UniqueConstraint(
+                name = "uk_messages_conversation_seq", columnNames = {"conversation_id", "seq"}))
 public class Message {
 
     @Id
@@ -19,6 +23,10 @@ public class Message {
     @JoinColumn(name = "conversation_id", nullable = false)
     private Conversation conversation;
 
+    // 会话内单调递增的消息序号，用于排序、分页游标与缺口检测
+    @Column(name = "seq")
+    private Long seq;
+
     @ManyToOne(fetch = FetchType.LAZY)
     @JoinColumn(name = "sender_id", nullable = false)
     private User sender;
@@ -46,4 +54,19 @@ public class Message {
 
     @Column(name = "is_recalled", columnDefinition = "TINYINT(1) DEFAULT 0")
     private boolean isRecalled = false;
+
+    // (核心新增) 写入时生成的会话列表预览，例如 "[图片]"、"[文件] a.pdf" 或截断后的文本
+    @Column(name = "preview", length = 255)
+    private String preview;
+
+    // (核心新增) 文件消息的结构化元数据，写入时从前端提交的 JSON 内容中解析一次，之后不再解析 content
+    @Enumerated(EnumType.STRING)
+    @Column(name = "media_kind", length = 10)
+    private MediaKind mediaKind;
+
+    @Column(name = "file_name", length = 255)
+    private String fileName;
+
+    @Column(name = "file_size")
+    private Long fileSize;
 }
\ No newline at end of file
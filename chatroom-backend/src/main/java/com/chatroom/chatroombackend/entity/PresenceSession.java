@@ -0,0 +1,30 @@
+package com.chatroom.chatroombackend.entity;
+
+import jakarta.persistence.*;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+/**
+ * 多节点（relay 模式）下每个节点上每个用户的 STOMP 连接数，由 PresenceService 通过 JDBC 维护。
+ *
+ * <p>节点定期刷新自己所有行的 refreshed_at；节点异常退出后，它的行在超过刷新周期数倍后不再计为在线并被清理。
+ */
+@Data
+@NoArgsConstructor
+@Entity
+@Table(
+        name = "presence_sessions",
+        indexes = @Index(name = "idx_presence_sessions_user", columnList = "user_id"))
+public class PresenceSession {
+
+    @EmbeddedId
+    private PresenceSessionId id;
+
+    @Column(name = "sessions", nullable = false)
+    private Integer sessions;
+
+    @Column(name = "refreshed_at", nullable = false)
+    private LocalDateTime refreshedAt;
+}
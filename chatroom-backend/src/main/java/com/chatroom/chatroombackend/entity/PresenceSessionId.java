@@ -0,0 +1,20 @@
+package com.chatroom.chatroombackend.entity;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Embeddable;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import java.io.Serializable;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Embeddable
+public class PresenceSessionId implements Serializable {
+    @Column(name = "node_id", length = 36)
+    private String nodeId;
+
+    @Column(name = "user_id")
+    private Long userId;
+}
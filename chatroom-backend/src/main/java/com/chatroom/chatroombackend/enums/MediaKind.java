@@ -0,0 +1,6 @@
+package com.chatroom.chatroombackend.enums;
+
+public enum MediaKind {
+    image, // 图片文件，会话列表显示为 [图片]
+    file   // 其他文件
+}
@@ -0,0 +1,68 @@
+package com.chatroom.chatroombackend.repository;
+
+import com.chatroom.chatroombackend.entity.Message;
+import com.chatroom.chatroombackend.service.InboxClock;
+import com.chatroom.chatroombackend.service.MessagePreviews;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/** 基于 JDBC 的会话冗余字段维护（conversations.last_message_*）。 */
+@Repository
+public class ConversationJdbcRepository {
+
+  // 只允许向更大的序号推进，并发写入或乱序提交时不会被旧消息覆盖
+  private static final String ADVANCE_HEAD_SQL =
+      "UPDATE conversations SET last_message_id = ?, last_message_seq = ?,"
+          + " last_message_preview = ?, last_message_at = ?, inbox_version = ?"
+          + " WHERE id = ? AND (last_message_seq IS NULL OR last_message_seq < ?)";
+
+  private static final String RECALL_HEAD_SQL =
+      "UPDATE conversations SET last_message_preview = ?, inbox_version = ?"
+          + " WHERE id = ? AND last_message_id = ?";
+
+  @Autowired private JdbcTemplate jdbcTemplate;
+
+  /**
+   * 用刚写入的消息推进各会话的最后一条消息信息，每个会话只更新一次。
+   *
+   * @param messages 已持久化（id 与 seq 已设置）的消息，可以跨多个会话
+   */
+  public void advanceHeads(Collection<Message> messages) {
+    Map<Long, Message> latest = new LinkedHashMap<>();
+    for (Message m : messages) {
+      latest.merge(
+          m.getConversation().getId(), m, (a, b) -> a.getSeq() >= b.getSeq() ? a : b);
+    }
+    if (latest.isEmpty()) {
+      return;
+    }
+    List<Object[]> args = new ArrayList<>(latest.size());
+    latest.forEach(
+        (conversationId, m) ->
+            args.add(
+                new Object[] {
+                  m.getId(),
+                  m.getSeq(),
+                  MessagePreviews.of(m),
+                  Timestamp.valueOf(m.getCreatedAt()),
+                  InboxClock.next(),
+                  conversationId,
+                  m.getSeq()
+                }));
+    jdbcTemplate.batchUpdate(ADVANCE_HEAD_SQL, args);
+  }
+
+  /** 被撤回的消息如果正是会话的最后一条，同步更新预览。 */
+  public void markHeadRecalled(Long conversationId, Long messageId) {
+    jdbcTemplate.update(
+        RECALL_HEAD_SQL, MessagePreviews.RECALLED, InboxClock.next(), conversationId, messageId);
+  }
+}
@@ -0,0 +1,69 @@
+package com.chatroom.chatroombackend.repository;
+
+import com.chatroom.chatroombackend.entity.ConversationParticipantId;
+import com.chatroom.chatroombackend.service.InboxClock;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/** 基于 JDBC 的会话成员批量更新，用于一次推进多个成员已读水位的场景。 */
+@Repository
+public class ConversationParticipantJdbcRepository {
+
+  // 发送者水位：会话已提交的最新序号紧接在自己的消息之前（或已超过它）时推进到自己的序号，
+  // 中间还有未提交的序号时只推进到已提交的最新序号，之后提交的更小序号对发送者仍是未读。
+  // 必须在 advanceHeads 之前执行，读到的是本事务写入之前的会话头；只会前进不会后退
+  private static final String ADVANCE_SENDER_SQL =
+      "UPDATE conversation_participants SET last_read_seq = GREATEST(COALESCE(last_read_seq, 0),"
+          + " (SELECT CASE WHEN c.last_message_seq IS NULL OR c.last_message_seq >= ? - 1"
+          + " THEN ? ELSE c.last_message_seq END FROM conversations c WHERE c.id = ?))"
+          + " WHERE conversation_id = ? AND user_id = ?";
+
+  // 已读回执：同样只前进；JDBC 不经过 @PreUpdate，所以在这里一并刷新 inbox_version
+  private static final String MARK_READ_SQL =
+      "UPDATE conversation_participants SET last_read_seq = ?, inbox_version = ?"
+          + " WHERE conversation_id = ? AND user_id = ?"
+          + " AND (last_read_seq IS NULL OR last_read_seq < ?)";
+
+  @Autowired private JdbcTemplate jdbcTemplate;
+
+  /**
+   * 在当前事务中批量推进发送者的已读水位，须在推进会话头（advanceHeads）之前调用。
+   *
+   * @param ownSeqs 发送者 -> 本次写入的自己在该会话中的最大序号
+   */
+  public void batchAdvanceSenderWatermarks(Map<ConversationParticipantId, Long> ownSeqs) {
+    if (ownSeqs.isEmpty()) {
+      return;
+    }
+    List<Object[]> args = new ArrayList<>(ownSeqs.size());
+    ownSeqs.forEach(
+        (id, seq) ->
+            args.add(
+                new Object[] {
+                  seq, seq, id.getConversationId(), id.getConversationId(), id.getUserId()
+                }));
+    jdbcTemplate.batchUpdate(ADVANCE_SENDER_SQL, args);
+  }
+
+  /**
+   * 批量写入已读回执，一次 batch 完成；不存在的成员记录不会被更新。
+   *
+   * @param watermarks 成员 -> 已读到的序号
+   */
+  public void batchMarkRead(Map<ConversationParticipantId, Long> watermarks) {
+    if (watermarks.isEmpty()) {
+      return;
+    }
+    List<Object[]> args = new ArrayList<>(watermarks.size());
+    watermarks.forEach(
+        (id, seq) ->
+            args.add(
+                new Object[] {seq, InboxClock.next(), id.getConversationId(), id.getUserId(), seq}));
+    jdbcTemplate.batchUpdate(MARK_READ_SQL, args);
+  }
+}
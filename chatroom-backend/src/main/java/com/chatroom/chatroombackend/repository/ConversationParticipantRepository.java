@@ -1,13 +1,17 @@
 package com.chatroom.chatroombackend.repository;
 
+import com.chatroom.chatroombackend.dto.GroupMemberDto;
 import com.chatroom.chatroombackend.entity.*;
+import com.chatroom.chatroombackend.enums.ConversationType;
 import com.chatroom.chatroombackend.enums.ParticipantRole;
 import com.chatroom.chatroombackend.enums.ParticipantStatus;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 import java.util.stream.Stream;
@@ -54,6 +58,140 @@ public interface ConversationParticipantRepository
 
   List<ConversationParticipant> findByConversationIdAndUserIdNot(Long conversationId, Long id);
 
+  // 一次查出用户在多个会话中的成员记录，连同会话本身一起加载
+  @Query(
+      "SELECT p FROM ConversationParticipant p JOIN FETCH p.conversation "
+          + "WHERE p.user.id = :userId AND p.conversation.id IN :conversationIds")
+  List<ConversationParticipant> findAllByUserIdAndConversationIdIn(
+      @Param("userId") Long userId, @Param("conversationIds") Collection<Long> conversationIds);
+
+  // 同上，但只返回指定状态的成员记录（例如只认已通过审核的成员）
+  @Query(
+      "SELECT p FROM ConversationParticipant p JOIN FETCH p.conversation "
+          + "WHERE p.user.id = :userId AND p.conversation.id IN :conversationIds "
+          + "AND p.status = :status")
+  List<ConversationParticipant> findAllByUserIdAndConversationIdInAndStatus(
+      @Param("userId") Long userId,
+      @Param("conversationIds") Collection<Long> conversationIds,
+      @Param("status") ParticipantStatus status);
+
+  // 首页会话列表：用户的全部成员记录连同会话一起取出，置顶优先，其余按最后一条消息时间倒序
+  @Query(
+      "SELECT p FROM ConversationParticipant p JOIN FETCH p.conversation c "
+          + "WHERE p.user.id = :userId "
+          + "ORDER BY p.isPinned DESC, c.lastMessageAt DESC, c.id DESC")
+  List<ConversationParticipant> findInboxByUserId(@Param("userId") Long userId);
+
+  // 增量同步：成员记录或会话本身在 since 之后有变化的会话
+  @Query(
+      "SELECT p FROM ConversationParticipant p JOIN FETCH p.conversation c "
+          + "WHERE p.user.id = :userId "
+          + "AND (p.inboxVersion > :since OR c.inboxVersion > :since) "
+          + "ORDER BY p.isPinned DESC, c.lastMessageAt DESC, c.id DESC")
+  List<ConversationParticipant> findInboxChangedSince(
+      @Param("userId") Long userId, @Param("since") Long since);
+
+  // 会话列表推送：多个会话的已批准成员（会话 id、用户名、已读水位、清空记录时间、用户 id）
+  @Query(
+      "SELECT p.conversation.id, u.username, p.lastReadSeq, p.deletedHistoryAt, u.id "
+          + "FROM ConversationParticipant p JOIN p.user u "
+          + "WHERE p.conversation.id IN :conversationIds AND p.status = :status")
+  List<Object[]> findRecipientsInConversations(
+      @Param("conversationIds") Collection<Long> conversationIds,
+      @Param("status") ParticipantStatus status);
+
+  // 已读回执推送：指定会话中指定用户的成员记录（列同上，最后多一列用户 id），调用方再按 (会话, 用户) 精确过滤
+  @Query(
+      "SELECT p.conversation.id, u.username, p.lastReadSeq, p.deletedHistoryAt, u.id "
+          + "FROM ConversationParticipant p JOIN p.user u "
+          + "WHERE p.conversation.id IN :conversationIds AND u.id IN :userIds "
+          + "AND p.status = :status")
+  List<Object[]> findRecipientsByConversationsAndUsers(
+      @Param("conversationIds") Collection<Long> conversationIds,
+      @Param("userIds") Collection<Long> userIds,
+      @Param("status") ParticipantStatus status);
+
+  // "已读人数"：会话中已读水位不低于 fromSeq 的成员，按水位分组计数
+  @Query(
+      "SELECT p.lastReadSeq, COUNT(p) FROM ConversationParticipant p "
+          + "WHERE p.conversation.id = :conversationId AND p.status = :status "
+          + "AND p.lastReadSeq >= :fromSeq GROUP BY p.lastReadSeq")
+  List<Object[]> countReadersBySeq(
+      @Param("conversationId") Long conversationId,
+      @Param("status") ParticipantStatus status,
+      @Param("fromSeq") Long fromSeq);
+
+  // 成员分页：某个角色内按用户 id 做键集分页，可选按昵称前缀过滤（pattern 以 ! 作为转义符）
+  @Query(
+      "SELECT new com.chatroom.chatroombackend.dto.GroupMemberDto("
+          + "u.id, u.username, u.nickname, u.avatarUrl, p.role) "
+          + "FROM ConversationParticipant p JOIN p.user u "
+          + "WHERE p.conversation.id = :conversationId AND p.role = :role "
+          + "AND p.user.id > :afterUserId "
+          + "AND (:pattern IS NULL OR u.nickname LIKE :pattern ESCAPE '!') "
+          + "ORDER BY p.user.id")
+  List<GroupMemberDto> findMemberPage(
+      @Param("conversationId") Long conversationId,
+      @Param("role") ParticipantRole role,
+      @Param("afterUserId") Long afterUserId,
+      @Param("pattern") String pattern,
+      Pageable pageable);
+
+  // 多个群各自的第一页成员（群主、管理员在前）以及成员总数，一次查询完成
+  @Query(
+      value =
+          "SELECT t.conversation_id, t.user_id, t.username, t.nickname, t.avatar_url, t.role,"
+              + " t.member_count FROM ("
+              + " SELECT p.conversation_id, u.id AS user_id, u.username, u.nickname,"
+              + " u.avatar_url, p.role,"
+              + " ROW_NUMBER() OVER (PARTITION BY p.conversation_id ORDER BY"
+              + " CASE p.role WHEN 'owner' THEN 0 WHEN 'admin' THEN 1 WHEN 'member' THEN 2"
+              + " ELSE 3 END, u.id) AS rn,"
+              + " COUNT(*) OVER (PARTITION BY p.conversation_id) AS member_count"
+              + " FROM conversation_participants p JOIN users u ON u.id = p.user_id"
+              + " WHERE p.conversation_id IN (:conversationIds)) t"
+              + " WHERE t.rn <= :perConversation ORDER BY t.conversation_id, t.rn",
+      nativeQuery = true)
+  List<Object[]> findMemberPreviewsInConversations(
+      @Param("conversationIds") Collection<Long> conversationIds,
+      @Param("perConversation") int perConversation);
+
+  long countByConversationId(Long conversationId);
+
+  @Query(
+      "SELECT p.role FROM ConversationParticipant p "
+          + "WHERE p.conversation.id = :conversationId AND p.user.id = :userId")
+  Optional<ParticipantRole> findRoleByConversationIdAndUserId(
+      @Param("conversationId") Long conversationId, @Param("userId") Long userId);
+
+  // 当前用户加入的某类会话，连同会话一起加载，角色直接从成员记录读取
+  @Query(
+      "SELECT p FROM ConversationParticipant p JOIN FETCH p.conversation c "
+          + "WHERE p.user.id = :userId AND c.type = :type")
+  List<ConversationParticipant> findMembershipsByUserIdAndType(
+      @Param("userId") Long userId, @Param("type") ConversationType type);
+
+  // 在线状态推送：与该用户有私聊的其他用户名
+  @Query(
+      "SELECT DISTINCT u.username FROM ConversationParticipant p JOIN p.user u "
+          + "WHERE p.conversation.type = com.chatroom.chatroombackend.enums.ConversationType.PRIVATE "
+          + "AND u.id <> :userId AND p.conversation.id IN "
+          + "(SELECT mine.conversation.id FROM ConversationParticipant mine WHERE mine.user.id = :userId)")
+  List<String> findPrivatePartnerUsernames(@Param("userId") Long userId);
+
+  @Query("SELECT p.conversation.id FROM ConversationParticipant p WHERE p.user.id = :userId")
+  List<Long> findConversationIdsByUserId(@Param("userId") Long userId);
+
+  @Query("SELECT p.user.id FROM ConversationParticipant p WHERE p.conversation.id = :conversationId")
+  List<Long> findUserIdsByConversationId(@Param("conversationId") Long conversationId);
+
+  // 批量查出多个私聊中"对方"的成员记录，连同用户一起加载
+  @Query(
+      "SELECT p FROM ConversationParticipant p JOIN FETCH p.user "
+          + "WHERE p.conversation.id IN :conversationIds AND p.user.id <> :userId")
+  List<ConversationParticipant> findPartnersInConversations(
+      @Param("conversationIds") Collection<Long> conversationIds, @Param("userId") Long userId);
+
   // 添加按会话ID删除参与者的方法
   @Modifying
   @Query("DELETE FROM ConversationParticipant cp WHERE cp.conversation.id = :conversationId")
@@ -10,6 +10,7 @@ import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.http.ResponseEntity;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
@@ -33,6 +34,13 @@ public interface ConversationRepository extends JpaRepository<Conversation, Long
       "SELECT c FROM Conversation c JOIN ConversationParticipant p ON c.id = p.conversation.id WHERE p.user.id = :userId AND c.type = 'GROUP' AND p.id IS NULL")
   List<Conversation> findAllPublicGroupsNotIn(Long userId);
 
+  // 已提交的会话最新序号（last_message_seq），批量取：[会话 id, 序号]
+  @Query("SELECT c.id, c.lastMessageSeq FROM Conversation c WHERE c.id IN :ids")
+  List<Object[]> findLastMessageSeqs(@Param("ids") Collection<Long> ids);
+
+  @Query("SELECT c.lastMessageSeq FROM Conversation c WHERE c.id = :id")
+  Long findLastMessageSeqById(@Param("id") Long id);
+
   // 用于通过公开ID查找群聊
   Optional<Conversation> findByUuid(String uuid);
 
@@ -45,11 +53,6 @@ public interface ConversationRepository extends JpaRepository<Conversation, Long
   List<ConversationParticipant> findAllUserByConversationId(
       @Param("conversationId") Long conversationId);
 
-  @Query(
-      "SELECT p FROM ConversationParticipant p WHERE p.conversation.uuid = :uuid and p.user.username = :username")
-  ConversationParticipant findUserByConversationIdAndUsername(
-      @Param("uuid") String uuid, @Param("username") String username);
-
   @Query("SELECT b FROM ConversationBlock b WHERE b.conversation.id = :conversationId")
   List<ConversationBlock> getBlackListByConversationId(
       @Param("conversationId") Long conversationId);
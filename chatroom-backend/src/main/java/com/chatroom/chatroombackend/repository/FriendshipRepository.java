@@ -45,6 +45,15 @@ public interface FriendshipRepository extends JpaRepository<Friendship, Long> {
   List<Friendship> findAllFriendsByUserIdAndStatus(
       @Param("userId") Long userId, @Param("status") FriendshipStatus status);
 
+  // 在线状态：好友的 id、用户名和最后活跃时间，不加载 Friendship 与 User 实体
+  @Query(
+      "SELECT u.id, u.username, u.lastActiveAt FROM Friendship f JOIN User u "
+          + "ON (f.user.id = :userId AND u.id = f.friend.id) "
+          + "OR (f.friend.id = :userId AND u.id = f.user.id) "
+          + "WHERE f.status = :status")
+  List<Object[]> findFriendPresenceRows(
+      @Param("userId") Long userId, @Param("status") FriendshipStatus status);
+
   Optional<Friendship> findByUserIdAndFriendId(Long userId, Long friendId);
 
   boolean existsByUserAndFriend(User user, User friend);
@@ -0,0 +1,10 @@
+package com.chatroom.chatroombackend.repository;
+
+import com.chatroom.chatroombackend.entity.InboxTombstone;
+import org.springframework.data.jpa.repository.JpaRepository;
+
+import java.util.List;
+
+public interface InboxTombstoneRepository extends JpaRepository<InboxTombstone, Long> {
+  List<InboxTombstone> findByUserIdAndVersionGreaterThan(Long userId, Long version);
+}
@@ -0,0 +1,138 @@
+package com.chatroom.chatroombackend.repository;
+
+import com.chatroom.chatroombackend.entity.Message;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.support.GeneratedKeyHolder;
+import org.springframework.jdbc.support.KeyHolder;
+import org.springframework.stereotype.Repository;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 基于 JDBC 的消息批量写入。
+ *
+ * <p>Message 使用 IDENTITY 主键，Hibernate 无法对其做批量插入，所以需要一次写入多条消息的场景走这里的 JDBC batch，
+ * 并把数据库生成的主键回填到实体上。
+ */
+@Repository
+public class MessageJdbcRepository {
+
+  private static final String INSERT_SQL =
+      "INSERT INTO messages (conversation_id, seq, sender_id, content, media_url, message_type,"
+          + " is_deleted, reply_to_message_id, created_at, is_recalled, preview, media_kind,"
+          + " file_name, file_size)"
+          + " VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+  // 每条语句最多覆盖的会话数，避免 OR 条件过长
+  private static final int RANGE_CHUNK_SIZE = 500;
+
+  @Autowired private JdbcTemplate jdbcTemplate;
+
+  /** 一条已提交消息的序号与发送者。 */
+  public record CommittedSeq(long seq, long senderId) {}
+
+  /**
+   * 在当前事务中批量插入消息，并回填每条消息的 id。
+   *
+   * @param messages 尚未持久化的消息，conversation、sender 与 seq 必须已设置
+   */
+  public void batchInsert(List<Message> messages) {
+    if (messages.isEmpty()) {
+      return;
+    }
+    KeyHolder keyHolder = new GeneratedKeyHolder();
+    jdbcTemplate.batchUpdate(
+        con -> con.prepareStatement(INSERT_SQL, Statement.RETURN_GENERATED_KEYS),
+        new BatchPreparedStatementSetter() {
+          @Override
+          public void setValues(PreparedStatement ps, int i) throws SQLException {
+            bind(ps, messages.get(i));
+          }
+
+          @Override
+          public int getBatchSize() {
+            return messages.size();
+          }
+        },
+        keyHolder);
+
+    List<Map<String, Object>> keys = keyHolder.getKeyList();
+    if (keys.size() != messages.size()) {
+      throw new IllegalStateException(
+          "Expected " + messages.size() + " generated keys but got " + keys.size());
+    }
+    for (int i = 0; i < messages.size(); i++) {
+      Number id = (Number) keys.get(i).values().iterator().next();
+      messages.get(i).setId(id.longValue());
+    }
+  }
+
+  /**
+   * 批量读取各会话中序号大于给定值的已提交消息，只取序号与发送者，用于精确计算未读数。
+   *
+   * <p>调用方负责让每个会话的范围足够小（见 ConversationSummaryLoader#unreadCounts），这里不做分页。
+   *
+   * @param afterSeqs 会话 id -> 只返回 seq 大于该值的消息
+   * @return 会话 id -> 该会话的消息，没有消息的会话不在结果中
+   */
+  public Map<Long, List<CommittedSeq>> findSeqsAfter(Map<Long, Long> afterSeqs) {
+    Map<Long, List<CommittedSeq>> result = new HashMap<>();
+    List<Map.Entry<Long, Long>> ranges = new ArrayList<>(afterSeqs.entrySet());
+    for (int from = 0; from < ranges.size(); from += RANGE_CHUNK_SIZE) {
+      List<Map.Entry<Long, Long>> chunk =
+          ranges.subList(from, Math.min(ranges.size(), from + RANGE_CHUNK_SIZE));
+      StringBuilder sql =
+          new StringBuilder("SELECT conversation_id, seq, sender_id FROM messages WHERE ");
+      List<Object> args = new ArrayList<>(chunk.size() * 2);
+      for (int i = 0; i < chunk.size(); i++) {
+        sql.append(i == 0 ? "" : " OR ").append("(conversation_id = ? AND seq > ?)");
+        args.add(chunk.get(i).getKey());
+        args.add(chunk.get(i).getValue());
+      }
+      jdbcTemplate.query(
+          sql.toString(),
+          rs -> {
+            result
+                .computeIfAbsent(rs.getLong(1), id -> new ArrayList<>())
+                .add(new CommittedSeq(rs.getLong(2), rs.getLong(3)));
+          },
+          args.toArray());
+    }
+    return result;
+  }
+
+  private void bind(PreparedStatement ps, Message m) throws SQLException {
+    ps.setLong(1, m.getConversation().getId());
+    ps.setLong(2, m.getSeq());
+    ps.setLong(3, m.getSender().getId());
+    ps.setString(4, m.getContent());
+    ps.setString(5, m.getMediaUrl());
+    ps.setString(6, m.getMessageType() != null ? m.getMessageType().name() : null);
+    ps.setBoolean(7, m.isDeleted());
+    if (m.getRepliedToMessage() != null) {
+      ps.setLong(8, m.getRepliedToMessage().getId());
+    } else {
+      ps.setNull(8, Types.BIGINT);
+    }
+    ps.setTimestamp(9, Timestamp.valueOf(m.getCreatedAt()));
+    ps.setBoolean(10, m.isRecalled());
+    ps.setString(11, m.getPreview());
+    ps.setString(12, m.getMediaKind() != null ? m.getMediaKind().name() : null);
+    ps.setString(13, m.getFileName());
+    if (m.getFileSize() != null) {
+      ps.setLong(14, m.getFileSize());
+    } else {
+      ps.setNull(14, Types.BIGINT);
+    }
+  }
+}
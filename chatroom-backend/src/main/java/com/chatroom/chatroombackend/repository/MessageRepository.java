@@ -2,21 +2,52 @@ package com.chatroom.chatroombackend.repository;
 
 import com.chatroom.chatroombackend.entity.Conversation;
 import com.chatroom.chatroombackend.entity.Message;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 
+import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
 public interface MessageRepository extends JpaRepository<Message, Long> {
     // 获取指定聊天的最后一条消息
-    Optional<Message> findTopByConversationOrderByCreatedAtDesc(Conversation conversation);
+    Optional<Message> findTopByConversationOrderBySeqDesc(Conversation conversation);
 
-    List<Message> findByConversationIdAndIsDeletedFalseOrderByCreatedAtAsc(Long conversationId);
+    List<Message> findByConversationIdAndIsDeletedFalseAndCreatedAtAfterOrderBySeqAsc(
+            Long conversationId, LocalDateTime cutoff);
 
-    Optional<Message> findTopByConversationIdOrderByCreatedAtDesc(Long conversationId);
+    // 历史消息分页：取 before 之前的一页（按 seq 倒序），cutoff 为用户清空聊天记录的时间
+    @Query("SELECT m FROM Message m JOIN FETCH m.sender "
+            + "LEFT JOIN FETCH m.repliedToMessage r LEFT JOIN FETCH r.sender "
+            + "WHERE m.conversation.id = :conversationId AND m.isDeleted = false "
+            + "AND m.createdAt > :cutoff AND m.seq < :before ORDER BY m.seq DESC")
+    List<Message> findPageBefore(
+            @Param("conversationId") Long conversationId,
+            @Param("cutoff") LocalDateTime cutoff,
+            @Param("before") Long before,
+            Pageable pageable);
+
+    // 历史消息分页：取 after 之后的一页（按 seq 正序）
+    @Query("SELECT m FROM Message m JOIN FETCH m.sender "
+            + "LEFT JOIN FETCH m.repliedToMessage r LEFT JOIN FETCH r.sender "
+            + "WHERE m.conversation.id = :conversationId AND m.isDeleted = false "
+            + "AND m.createdAt > :cutoff AND m.seq > :after ORDER BY m.seq ASC")
+    List<Message> findPageAfter(
+            @Param("conversationId") Long conversationId,
+            @Param("cutoff") LocalDateTime cutoff,
+            @Param("after") Long after,
+            Pageable pageable);
+
+    Optional<Message> findTopByConversationIdOrderBySeqDesc(Long conversationId);
+
+    // 批量取多个会话各自序号最大的一条消息，走 (conversation_id, seq) 唯一索引
+    @Query("SELECT m FROM Message m WHERE m.conversation.id IN :conversationIds "
+            + "AND m.seq = (SELECT MAX(m2.seq) FROM Message m2 WHERE m2.conversation.id = m.conversation.id)")
+    List<Message> findLatestInConversations(@Param("conversationIds") Collection<Long> conversationIds);
 
     @Modifying
     @Query("DELETE FROM Message m WHERE m.conversation.id = :conversationId")
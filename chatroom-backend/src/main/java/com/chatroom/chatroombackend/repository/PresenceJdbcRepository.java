@@ -0,0 +1,107 @@
+package com.chatroom.chatroombackend.repository;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/** 基于 JDBC 的多节点在线连接数维护（presence_sessions）。每个节点只写自己的行。 */
+@Repository
+public class PresenceJdbcRepository {
+
+  private static final String UPDATE_SQL =
+      "UPDATE presence_sessions SET sessions = ?, refreshed_at = ? WHERE node_id = ? AND user_id = ?";
+
+  private static final String INSERT_SQL =
+      "INSERT INTO presence_sessions (node_id, user_id, sessions, refreshed_at) VALUES (?, ?, ?, ?)";
+
+  private static final String DELETE_SQL =
+      "DELETE FROM presence_sessions WHERE node_id = ? AND user_id = ?";
+
+  private static final String REFRESH_SQL =
+      "UPDATE presence_sessions SET refreshed_at = ? WHERE node_id = ?";
+
+  private static final String DELETE_STALE_SQL =
+      "DELETE FROM presence_sessions WHERE refreshed_at < ?";
+
+  private static final String DELETE_NODE_SQL = "DELETE FROM presence_sessions WHERE node_id = ?";
+
+  @Autowired private JdbcTemplate jdbcTemplate;
+
+  /**
+   * 写入本节点上一批用户的当前连接数，连接数为 0 的行直接删除。
+   *
+   * @param sessions 用户 id -> 本节点上的连接数
+   */
+  public void saveSessions(String nodeId, Map<Long, Integer> sessions, LocalDateTime now) {
+    if (sessions.isEmpty()) {
+      return;
+    }
+    Timestamp ts = Timestamp.valueOf(now);
+    List<Object[]> deletes = new ArrayList<>();
+    List<Object[]> updates = new ArrayList<>();
+    sessions.forEach(
+        (userId, count) -> {
+          if (count > 0) {
+            updates.add(new Object[] {count, ts, nodeId, userId});
+          } else {
+            deletes.add(new Object[] {nodeId, userId});
+          }
+        });
+    if (!deletes.isEmpty()) {
+      jdbcTemplate.batchUpdate(DELETE_SQL, deletes);
+    }
+    if (updates.isEmpty()) {
+      return;
+    }
+    // 只有本节点写自己的行，更新不到就是第一次出现，不存在并发插入
+    int[] updated = jdbcTemplate.batchUpdate(UPDATE_SQL, updates);
+    List<Object[]> inserts = new ArrayList<>();
+    for (int i = 0; i < updated.length; i++) {
+      if (updated[i] == 0) {
+        Object[] row = updates.get(i);
+        inserts.add(new Object[] {nodeId, row[3], row[0], ts});
+      }
+    }
+    if (!inserts.isEmpty()) {
+      jdbcTemplate.batchUpdate(INSERT_SQL, inserts);
+    }
+  }
+
+  /** 刷新本节点所有行的时间，并清理超过 staleBefore 未刷新的行（已经退出的节点）。 */
+  public void refresh(String nodeId, LocalDateTime now, LocalDateTime staleBefore) {
+    jdbcTemplate.update(REFRESH_SQL, Timestamp.valueOf(now), nodeId);
+    jdbcTemplate.update(DELETE_STALE_SQL, Timestamp.valueOf(staleBefore));
+  }
+
+  /** 在其他节点上仍有连接、且那些节点在 freshAfter 之后刷新过的用户。 */
+  public Set<Long> findOnlineElsewhere(
+      Collection<Long> userIds, String nodeId, LocalDateTime freshAfter) {
+    if (userIds.isEmpty()) {
+      return Set.of();
+    }
+    String sql =
+        "SELECT DISTINCT user_id FROM presence_sessions WHERE node_id <> ? AND refreshed_at > ?"
+            + " AND user_id IN ("
+            + String.join(",", Collections.nCopies(userIds.size(), "?"))
+            + ")";
+    List<Object> args = new ArrayList<>(userIds.size() + 2);
+    args.add(nodeId);
+    args.add(Timestamp.valueOf(freshAfter));
+    args.addAll(userIds);
+    return new HashSet<>(jdbcTemplate.queryForList(sql, Long.class, args.toArray()));
+  }
+
+  public void deleteNode(String nodeId) {
+    jdbcTemplate.update(DELETE_NODE_SQL, nodeId);
+  }
+}
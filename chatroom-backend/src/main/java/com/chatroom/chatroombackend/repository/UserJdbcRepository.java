@@ -0,0 +1,41 @@
+package com.chatroom.chatroombackend.repository;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/** 基于 JDBC 的用户字段批量维护。 */
+@Repository
+public class UserJdbcRepository {
+
+  // 只向后推进，乱序或重复的批次不会把时间写回去
+  private static final String ADVANCE_LAST_ACTIVE_SQL =
+      "UPDATE users SET last_active_at = ?"
+          + " WHERE id = ? AND (last_active_at IS NULL OR last_active_at < ?)";
+
+  @Autowired private JdbcTemplate jdbcTemplate;
+
+  /**
+   * 批量写入用户的最后活跃时间，一次 batch 完成。
+   *
+   * @param lastActive 用户 id -> 最后活跃时间
+   */
+  public void batchAdvanceLastActiveAt(Map<Long, LocalDateTime> lastActive) {
+    if (lastActive.isEmpty()) {
+      return;
+    }
+    List<Object[]> args = new ArrayList<>(lastActive.size());
+    lastActive.forEach(
+        (userId, at) -> {
+          Timestamp ts = Timestamp.valueOf(at);
+          args.add(new Object[] {ts, userId, ts});
+        });
+    jdbcTemplate.batchUpdate(ADVANCE_LAST_ACTIVE_SQL, args);
+  }
+}
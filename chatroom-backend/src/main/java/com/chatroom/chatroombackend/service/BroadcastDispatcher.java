@@ -0,0 +1,291 @@
+package com.chatroom.chatroombackend.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.util.MimeTypeUtils;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * WebSocket 推送的统一出口。
+ *
+ * <p>在事务中调用时，事件先暂存在当前事务上，提交成功后才交给后台线程序列化并发送；回滚时直接丢弃，不会推送不存在的数据。
+ * 没有事务时立即交给后台线程。请求线程和数据库连接在提交后即可释放，不再等待 JSON 序列化和消息入队。
+ *
+ * <p>后台按目的地哈希分成若干条单线程通道（lane），同一目的地的事件始终由同一线程按提交顺序发送。每条通道的队列有界，
+ * 队列满时提交线程最多等待 enqueueTimeoutMs 把事件排进同一队列，以此向上游施加背压（chat.broadcast.blocked）；
+ * 仍然排不进去的这批事件直接丢弃，按批计入 chat.broadcast.dropped。不会让提交线程自己发送，否则会越过队列里更早的事件，
+ * 打乱同一目的地的顺序。
+ *
+ * <p>负载只用 Jackson 序列化一次：同一事务里发往多个目的地的同一对象共用一份 JSON 字节，以 byte[] 形式交给 broker，
+ * broker 为每个订阅会话生成帧时也直接复用这份字节，不再经过消息转换器。
+ *
+ * <p>消息上同时附带延迟计算的 CBOR 编码（{@link CborPayloadEncoder#CBOR_SOURCE_HEADER}），只有在发给声明了
+ * payload-format: cbor 的会话时才会计算，同样每个负载最多一次。
+ */
+@Service
+public class BroadcastDispatcher {
+
+  private static final Logger logger = LoggerFactory.getLogger(BroadcastDispatcher.class);
+
+  @Value("${app.broadcast.lanes:4}")
+  private int laneCount;
+
+  @Value("${app.broadcast.queueCapacity:10000}")
+  private int queueCapacity;
+
+  @Value("${app.broadcast.enqueueTimeoutMs:1000}")
+  private long enqueueTimeoutMs;
+
+  @Autowired private SimpMessagingTemplate messagingTemplate;
+  @Autowired private ObjectMapper objectMapper;
+  @Autowired private CborPayloadEncoder cborPayloadEncoder;
+  @Autowired private MeterRegistry meterRegistry;
+
+  private ThreadPoolExecutor[] lanes;
+  private Counter published;
+  private Counter failures;
+  private Counter blocked;
+  private Counter dropped;
+  private Counter discarded;
+  private Counter encodings;
+  private Timer commitToSend;
+
+  @PostConstruct
+  public void init() {
+    this.published = meterRegistry.counter("chat.broadcast.published");
+    this.failures = meterRegistry.counter("chat.broadcast.failures");
+    this.blocked = meterRegistry.counter("chat.broadcast.blocked");
+    this.dropped = meterRegistry.counter("chat.broadcast.dropped");
+    this.discarded = meterRegistry.counter("chat.broadcast.discarded");
+    this.encodings = meterRegistry.counter("chat.broadcast.encodings");
+    this.commitToSend = meterRegistry.timer("chat.broadcast.commit_to_send");
+
+    this.lanes = new ThreadPoolExecutor[laneCount];
+    for (int i = 0; i < laneCount; i++) {
+      String name = "broadcast-" + i;
+      lanes[i] =
+          new ThreadPoolExecutor(
+              1,
+              1,
+              0L,
+              TimeUnit.MILLISECONDS,
+              new ArrayBlockingQueue<>(queueCapacity),
+              r -> {
+                Thread t = new Thread(r, name);
+                t.setDaemon(true);
+                return t;
+              },
+              this::enqueueWhenFull);
+    }
+    meterRegistry.gauge("chat.broadcast.queued", this, BroadcastDispatcher::queued);
+  }
+
+  /** 通道队列已满：在同一队列上限时等待，超时或已停机则丢弃。 */
+  private void enqueueWhenFull(Runnable task, ThreadPoolExecutor executor) {
+    if (!executor.isShutdown()) {
+      blocked.increment();
+      try {
+        if (executor.getQueue().offer(task, enqueueTimeoutMs, TimeUnit.MILLISECONDS)) {
+          return;
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+    dropped.increment();
+    logger.warn("Broadcast lane is full, dropping event batch");
+  }
+
+  @PreDestroy
+  public void shutdown() throws InterruptedException {
+    for (ThreadPoolExecutor lane : lanes) {
+      lane.shutdown();
+    }
+    for (ThreadPoolExecutor lane : lanes) {
+      lane.awaitTermination(5, TimeUnit.SECONDS);
+    }
+  }
+
+  /** 向一个广播目的地（如 /topic/conversations/1）推送。 */
+  public void publish(String destination, Object payload) {
+    enqueue(null, destination, payload);
+  }
+
+  /** 向某个用户的私有目的地（如 /queue/notifications）推送。 */
+  public void publishToUser(String user, String destination, Object payload) {
+    enqueue(user, destination, payload);
+  }
+
+  private void enqueue(String user, String destination, Object payload) {
+    PendingEvents pending = currentTransactionEvents();
+    if (pending == null) {
+      dispatch(List.of(new Event(user, destination, new EncodedPayload(payload))));
+      return;
+    }
+    pending.events.add(
+        new Event(user, destination, pending.encoded.computeIfAbsent(payload, EncodedPayload::new)));
+  }
+
+  private PendingEvents currentTransactionEvents() {
+    if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+      return null;
+    }
+    PendingEvents pending =
+        (PendingEvents) TransactionSynchronizationManager.getResource(this);
+    if (pending == null) {
+      pending = new PendingEvents();
+      TransactionSynchronizationManager.bindResource(this, pending);
+      TransactionSynchronizationManager.registerSynchronization(pending);
+    }
+    return pending;
+  }
+
+  private void dispatch(List<Event> events) {
+    long committedAt = System.nanoTime();
+    // 同一通道的事件合成一个任务，保持事务内的发送顺序
+    List<List<Event>> byLane = new ArrayList<>(laneCount);
+    for (int i = 0; i < laneCount; i++) {
+      byLane.add(null);
+    }
+    for (Event event : events) {
+      int lane = Math.floorMod(event.destinationKey().hashCode(), laneCount);
+      if (byLane.get(lane) == null) {
+        byLane.set(lane, new ArrayList<>());
+      }
+      byLane.get(lane).add(event);
+    }
+    for (int i = 0; i < laneCount; i++) {
+      List<Event> batch = byLane.get(i);
+      if (batch != null) {
+        lanes[i].execute(() -> send(batch, committedAt));
+      }
+    }
+  }
+
+  private void send(List<Event> batch, long committedAt) {
+    commitToSend.record(System.nanoTime() - committedAt, TimeUnit.NANOSECONDS);
+    for (Event event : batch) {
+      try {
+        String destination =
+            event.user() != null
+                ? messagingTemplate.getUserDestinationPrefix() + event.user().replace("/", "%2F") + event.destination()
+                : event.destination();
+        messagingTemplate.send(destination, event.payload().toMessage());
+        published.increment();
+      } catch (RuntimeException e) {
+        failures.increment();
+        logger.warn("Failed to broadcast to {}", event.destination(), e);
+      }
+    }
+  }
+
+  private int queued() {
+    int total = 0;
+    for (ThreadPoolExecutor lane : lanes) {
+      total += lane.getQueue().size();
+    }
+    return total;
+  }
+
+  private record Event(String user, String destination, EncodedPayload payload) {
+    private String destinationKey() {
+      return user != null ? user + destination : destination;
+    }
+  }
+
+  /** 延迟序列化、结果共享的负载；由第一个发送它的通道线程完成编码。 */
+  private final class EncodedPayload {
+    private final Object payload;
+    private volatile byte[] bytes;
+    private volatile byte[] cbor;
+
+    private EncodedPayload(Object payload) {
+      this.payload = payload;
+    }
+
+    private Message<byte[]> toMessage() {
+      SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.create(SimpMessageType.MESSAGE);
+      accessor.setContentType(MimeTypeUtils.APPLICATION_JSON);
+      accessor.setHeader(
+          CborPayloadEncoder.CBOR_SOURCE_HEADER, (CborPayloadEncoder.CborSource) this::cbor);
+      accessor.setLeaveMutable(true);
+      return MessageBuilder.createMessage(bytes(), accessor.getMessageHeaders());
+    }
+
+    private byte[] bytes() {
+      byte[] encoded = bytes;
+      if (encoded == null) {
+        synchronized (this) {
+          encoded = bytes;
+          if (encoded == null) {
+            try {
+              encoded = objectMapper.writeValueAsBytes(payload);
+            } catch (JsonProcessingException e) {
+              throw new IllegalStateException("Failed to encode broadcast payload", e);
+            }
+            encodings.increment();
+            bytes = encoded;
+          }
+        }
+      }
+      return encoded;
+    }
+
+    private byte[] cbor() {
+      byte[] encoded = cbor;
+      if (encoded == null) {
+        synchronized (this) {
+          encoded = cbor;
+          if (encoded == null) {
+            encoded = cborPayloadEncoder.encode(payload);
+            cbor = encoded;
+          }
+        }
+      }
+      return encoded;
+    }
+  }
+
+  private final class PendingEvents implements TransactionSynchronization {
+    private final List<Event> events = new ArrayList<>();
+    // 同一事务内按对象身份去重，发往多个目的地的同一负载只编码一次
+    private final Map<Object, EncodedPayload> encoded = new IdentityHashMap<>();
+
+    @Override
+    public void afterCommit() {
+      dispatch(events);
+    }
+
+    @Override
+    public void afterCompletion(int status) {
+      TransactionSynchronizationManager.unbindResourceIfPossible(BroadcastDispatcher.this);
+      if (status != STATUS_COMMITTED) {
+        discarded.increment(events.size());
+      }
+    }
+  }
+}
@@ -0,0 +1,125 @@
+package com.chatroom.chatroombackend.service;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.JsonDeserializer;
+import com.fasterxml.jackson.databind.JsonSerializer;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.module.SimpleModule;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.stereotype.Service;
+import org.springframework.util.MimeType;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Collections;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * STOMP 负载的 CBOR 编码，供 CONNECT 时声明 payload-format: cbor 的客户端使用；默认仍是 JSON。
+ *
+ * <p>推送帧的内容类型为 {@link #CBOR_FRAME_CONTENT_TYPE}。CBOR 映射沿用应用 ObjectMapper 的配置，只把 LocalDateTime 改成按服务器时区换算的 epoch 毫秒。
+ *
+ * <p>经由 {@link BroadcastDispatcher} 发出的消息直接从原对象编码，每个负载最多编码一次；其他来源（@SendToUser
+ * 回执、relay 模式下从外部 broker 收到的消息）只有 JSON 字节，退回逐字段转码，此时时间字段保持 ISO 字符串。
+ */
+@Service
+public class CborPayloadEncoder {
+
+  /** 客户端 SEND 帧使用的内容类型。 */
+  public static final MimeType APPLICATION_CBOR = new MimeType("application", "cbor");
+
+  /**
+   * 推送给客户端的 CBOR 帧的内容类型。Spring 只对 application/octet-stream 使用 WebSocket 二进制帧，
+   * 其他类型会按 UTF-8 文本发送而破坏二进制内容，所以用带 format 参数的 octet-stream 标明 CBOR。
+   */
+  public static final MimeType CBOR_FRAME_CONTENT_TYPE =
+      new MimeType("application", "octet-stream", Map.of("format", "cbor"));
+
+  /** BroadcastDispatcher 放在消息上的非原生头，值为延迟计算 CBOR 字节的 {@link CborSource}，不会写到 STOMP 帧里。 */
+  public static final String CBOR_SOURCE_HEADER = "chatroom.cborSource";
+
+  @Autowired private Jackson2ObjectMapperBuilder objectMapperBuilder;
+  @Autowired private ObjectMapper objectMapper;
+  @Autowired private MeterRegistry meterRegistry;
+
+  private ObjectMapper cborMapper;
+  // JSON 字节 -> CBOR 字节。数组按身份比较，同一条广播发给多个会话时只转码一次；负载被回收后条目自动清除
+  private final Map<byte[], byte[]> transcoded = Collections.synchronizedMap(new WeakHashMap<>());
+  private Counter encoded;
+  private Counter transcodedCount;
+
+  @PostConstruct
+  public void init() {
+    SimpleModule epochMillis = new SimpleModule("chatroom-cbor-epoch-millis");
+    epochMillis.addSerializer(LocalDateTime.class, new EpochMillisSerializer());
+    epochMillis.addDeserializer(LocalDateTime.class, new EpochMillisDeserializer());
+    this.cborMapper = objectMapperBuilder.factory(new CBORFactory()).build();
+    this.cborMapper.registerModule(epochMillis);
+    this.encoded = meterRegistry.counter("chat.websocket.cbor.encodings", "source", "object");
+    this.transcodedCount = meterRegistry.counter("chat.websocket.cbor.encodings", "source", "json");
+  }
+
+  public ObjectMapper getCborMapper() {
+    return cborMapper;
+  }
+
+  public byte[] encode(Object payload) {
+    try {
+      byte[] bytes = cborMapper.writeValueAsBytes(payload);
+      encoded.increment();
+      return bytes;
+    } catch (IOException e) {
+      throw new IllegalStateException("Failed to encode CBOR payload", e);
+    }
+  }
+
+  /** 把已经序列化好的 JSON 负载转成 CBOR，同一个数组只转一次。 */
+  public byte[] transcode(byte[] json) {
+    byte[] cached = transcoded.get(json);
+    if (cached != null) {
+      return cached;
+    }
+    // 在锁外转码；并发的同一负载最多重复转一次，结果相同
+    byte[] cbor;
+    try {
+      cbor = cborMapper.writeValueAsBytes(objectMapper.readTree(json));
+    } catch (IOException e) {
+      throw new IllegalStateException("Failed to transcode JSON payload to CBOR", e);
+    }
+    transcodedCount.increment();
+    transcoded.put(json, cbor);
+    return cbor;
+  }
+
+  /** 延迟计算的 CBOR 负载，只有存在 CBOR 会话时才会被调用。 */
+  @FunctionalInterface
+  public interface CborSource {
+    byte[] cbor();
+  }
+
+  private static final class EpochMillisSerializer extends JsonSerializer<LocalDateTime> {
+    @Override
+    public void serialize(LocalDateTime value, JsonGenerator gen, SerializerProvider serializers)
+        throws IOException {
+      gen.writeNumber(value.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli());
+    }
+  }
+
+  private static final class EpochMillisDeserializer extends JsonDeserializer<LocalDateTime> {
+    @Override
+    public LocalDateTime deserialize(JsonParser p, DeserializationContext ctxt) throws IOException {
+      return LocalDateTime.ofInstant(Instant.ofEpochMilli(p.getLongValue()), ZoneId.systemDefault());
+    }
+  }
+}
@@ -0,0 +1,67 @@
+package com.chatroom.chatroombackend.service;
+
+import com.chatroom.chatroombackend.entity.Conversation;
+import com.chatroom.chatroombackend.entity.Message;
+import com.chatroom.chatroombackend.enums.MessageType;
+import com.chatroom.chatroombackend.repository.ConversationJdbcRepository;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.DependsOn;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+
+/**
+ * 为已有会话补齐 conversations.last_message_* 冗余字段。
+ *
+ * <p>只处理 last_message_seq 为空但已有消息的会话，取每个会话序号最大的消息生成预览。依赖消息序号已补齐，
+ * 所以排在 MessageSequenceAllocator 之后执行。
+ */
+@Component
+@DependsOn("messageSequenceAllocator")
+public class ConversationHeadMigration {
+
+  private static final Logger logger = LoggerFactory.getLogger(ConversationHeadMigration.class);
+
+  private static final String LATEST_SQL =
+      "SELECT m.id, m.conversation_id, m.seq, m.content, m.message_type, m.created_at,"
+          + " m.is_recalled FROM messages m"
+          + " JOIN (SELECT conversation_id, MAX(seq) AS max_seq FROM messages"
+          + " GROUP BY conversation_id) h"
+          + " ON m.conversation_id = h.conversation_id AND m.seq = h.max_seq"
+          + " JOIN conversations c ON c.id = m.conversation_id"
+          + " WHERE c.last_message_seq IS NULL";
+
+  @Autowired private JdbcTemplate jdbcTemplate;
+  @Autowired private ConversationJdbcRepository conversationJdbcRepo;
+
+  @PostConstruct
+  public void migrate() {
+    List<Message> latest =
+        jdbcTemplate.query(
+            LATEST_SQL,
+            (rs, rowNum) -> {
+              Conversation conversation = new Conversation();
+              conversation.setId(rs.getLong("conversation_id"));
+              Message m = new Message();
+              m.setId(rs.getLong("id"));
+              m.setConversation(conversation);
+              m.setSeq(rs.getLong("seq"));
+              m.setContent(rs.getString("content"));
+              String type = rs.getString("message_type");
+              m.setMessageType(type != null ? MessageType.valueOf(type) : MessageType.text);
+              m.setCreatedAt(rs.getTimestamp("created_at").toLocalDateTime());
+              m.setRecalled(rs.getBoolean("is_recalled"));
+              // 旧消息没有预览和文件元数据，这里解析一次内容补出预览
+              MessagePreviews.populate(m);
+              return m;
+            });
+    if (!latest.isEmpty()) {
+      conversationJdbcRepo.advanceHeads(latest);
+      logger.info("Backfilled last message info for {} conversations", latest.size());
+    }
+  }
+}
@@ -6,7 +6,8 @@ import com.chatroom.chatroombackend.enums.*;
 import com.chatroom.chatroombackend.repository.*;
 import jakarta.servlet.http.HttpServletRequest;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
 import org.springframework.security.access.AccessDeniedException;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
@@ -36,6 +37,20 @@ import java.util.UUID;
 public class ConversationService {
 
   private static final int MAX_GROUP_CHATS_ALLOWED = 3; // 示例：每个用户最多创建5个群
+  private static final int DEFAULT_HISTORY_PAGE_SIZE = 50;
+  private static final int MAX_HISTORY_PAGE_SIZE = 200;
+  private static final int DEFAULT_MEMBER_PAGE_SIZE = 50;
+  private static final int MAX_MEMBER_PAGE_SIZE = 200;
+  // 群详情里内嵌的第一页成员数
+  private static final int MEMBER_PREVIEW_SIZE = 20;
+  // 成员分页的角色顺序：群主、管理员在前
+  private static final List<ParticipantRole> MEMBER_ROLE_ORDER =
+      List.of(
+          ParticipantRole.owner,
+          ParticipantRole.admin,
+          ParticipantRole.member,
+          ParticipantRole.waiting);
+  private static final LocalDateTime EPOCH = LocalDateTime.of(1970, 1, 1, 0, 0);
 
   @Autowired private ConversationRepository conversationRepo;
   @Autowired private ConversationParticipantRepository participantRepo;
@@ -46,10 +61,19 @@ public class ConversationService {
   @Autowired private ConversationBlockRepository blockRepo;
   @Autowired private TagRepository tagRepo;
   @Autowired private GeoIpService geoIpService;
-  @Autowired private SimpMessagingTemplate messagingTemplate;
+  @Autowired private BroadcastDispatcher broadcastDispatcher;
   @Autowired private ConversationParticipantRepository conversationParticipantRepo;
   @Autowired private UserBlockRepository userBlockRepository;
   @Autowired private ConversationBlockRepository conversationBlockRepos;
+  @Autowired private MessageSequenceAllocator sequenceAllocator;
+  @Autowired private RecentMessageCache recentMessageCache;
+  @Autowired private MessageJdbcRepository messageJdbcRepo;
+  @Autowired private ConversationParticipantJdbcRepository participantJdbcRepo;
+  @Autowired private ConversationJdbcRepository conversationJdbcRepo;
+  @Autowired private ConversationSummaryLoader summaryLoader;
+  @Autowired private InboxTombstoneRepository inboxTombstoneRepo;
+  @Autowired private InboxDeltaPusher inboxDeltaPusher;
+  @Autowired private GroupMemberCache groupMemberCache;
 
   /**
    * 生成一个唯一的11位数字UUID。 该方法会循环生成数字，直到找到一个在数据库中不存在的数字为止，以确保唯一性。
@@ -168,6 +192,7 @@ public class ConversationService {
     p.setRole(r);
     p.setStatus(s);
     p.setUnreadCount(0);
+    p.setLastReadSeq(committedHead(c)); // 加入前的历史消息不计入未读
     p.setJoinedAt(LocalDateTime.now()); // 确保设置加入时间
     p.setPinned(false); // 默认不置顶
     p.setAreNotificationsMuted(false); // 默认不静音
@@ -201,26 +226,9 @@ public class ConversationService {
     ConversationSummaryDto dto = new ConversationSummaryDto();
 
     if (existingConversation.isPresent()) {
-      Conversation c = existingConversation.get();
-      ConversationParticipant currentParticipant =
-          participantRepo.findByConversationIdAndUserId(c.getId(), currentUser.getId()).get();
-      Message m = messageRepo.findTopByConversationOrderByCreatedAtDesc(c).get();
-
-      dto.setConversationId(c.getId());
-      dto.setType(ConversationType.PRIVATE);
-      dto.setName(partner.getNickname());
-      dto.setAvatarUrl(partner.getAvatarUrl());
-      if (currentParticipant.getDeletedHistoryAt().isAfter(m.getCreatedAt())) {
-        dto.setLastMessageContent(" ");
-        dto.setLastMessageTimestamp(null);
-      } else {
-        dto.setLastMessageContent(m.getContent());
-        dto.setLastMessageTimestamp(m.getCreatedAt());
-      }
-      dto.setUnreadCount(currentParticipant.getUnreadCount());
-      dto.setPinned(currentParticipant.isPinned());
-      dto.setNotificationsMuted(currentParticipant.isAreNotificationsMuted());
-      return dto;
+      return summaryLoader
+          .loadOne(currentUser, existingConversation.get().getId())
+          .orElseThrow(() -> new IllegalStateException("Participant not found."));
     }
 
     // 3. 如果不存在，则创建新的私聊会话
@@ -276,22 +284,45 @@ public class ConversationService {
             .findById(conversationId)
             .orElseThrow(() -> new IllegalArgumentException("Conversation not found."));
 
-    // 2. Security Check: Ensure the user is a participant
-    participantRepo
-        .findByConversationIdAndUserId(conversationId, currentUser.getId())
+    // 2. Build the DTO with the batch loader; it skips conversations the user is not a member of
+    return summaryLoader
+        .loadOne(currentUser, conversation.getId())
         .orElseThrow(() -> new AccessDeniedException("You are not a member of this conversation."));
-
-    // 3. Use the helper method to build and return the DTO
-    return mapToConversationSummaryDto(conversation, currentUser);
   }
 
-  @Transactional
+  @Transactional(readOnly = true)
   public List<ConversationSummaryDto> getAllConversations(User currentUser) {
-    List<Conversation> conversations =
-        conversationRepo.findAllByParticipantUserId(currentUser.getId());
-    return conversations.stream()
-        .map(convo -> mapToConversationSummaryDto(convo, currentUser)) // Use the new helper method
-        .collect(Collectors.toList());
+    // (核心修改) 交给批量加载器，查询次数固定，与会话数量无关
+    return summaryLoader.loadInbox(currentUser);
+  }
+
+  /**
+   * (核心新增) 会话列表增量同步：返回 since 之后概要有变化的会话，以及被移除的会话 id。
+   *
+   * @param since 上一次同步（或全量加载时响应头 X-Inbox-Version）返回的游标
+   */
+  @Transactional(readOnly = true)
+  public InboxDeltaDto getInboxDelta(User currentUser, long since) {
+    // 先取游标再查询，查询期间提交的变化会在下一次同步中再次覆盖到
+    long cursor = Math.max(since, InboxClock.cursor());
+    List<ConversationSummaryDto> changed = summaryLoader.loadChangedSince(currentUser, since);
+    List<Long> removed =
+        inboxTombstoneRepo.findByUserIdAndVersionGreaterThan(currentUser.getId(), since).stream()
+            .map(InboxTombstone::getConversationId)
+            .distinct()
+            .toList();
+    return new InboxDeltaDto(cursor, changed, removed);
+  }
+
+  /** 全量加载会话列表时一并返回的游标，客户端之后用它做增量同步。 */
+  public long currentInboxCursor() {
+    return InboxClock.cursor();
+  }
+
+  private void recordInboxRemoval(Long conversationId, Collection<Long> userIds) {
+    long version = InboxClock.next();
+    inboxTombstoneRepo.saveAll(
+        userIds.stream().map(userId -> new InboxTombstone(userId, conversationId, version)).toList());
   }
 
   @Transactional
@@ -390,6 +421,7 @@ public class ConversationService {
         createParticipant(
             conversation, targetUser, ParticipantRole.member, ParticipantStatus.APPROVED);
     participantRepo.save(newParticipant);
+    groupMemberCache.invalidateAfterCommit(conversationId);
 
     // 发送 WebSocket 通知给被邀请的用户
     sendGroupInvitationNotification(targetUser, conversation, actor);
@@ -407,12 +439,17 @@ public class ConversationService {
     notification.put("inviterName", inviter.getNickname());
     notification.put("timestamp", System.currentTimeMillis());
 
-    messagingTemplate.convertAndSendToUser(
+    broadcastDispatcher.publishToUser(
         targetUser.getId().toString(), "/queue/notifications", notification);
   }
 
-  @Transactional
-  public MessageDto sendMessage(User sender, Long conversationId, MessageRequest request) {
+  /**
+   * 校验发送权限并构建一条尚未持久化的消息。直接写库与批量落库（MessageIngestPipeline）两条路径共用。
+   *
+   * @return 未保存的 Message，被回复消息及其发送者已加载完毕，可在事务外安全转换为 DTO
+   */
+  @Transactional(readOnly = true)
+  public Message prepareMessage(User sender, Long conversationId, MessageRequest request) {
     ConversationParticipant senderParticipant = getParticipant(conversationId, sender.getId());
     if (senderParticipant.getIsMuted()) {
       throw new SecurityException("You are silenced in this group and cannot send messages.");
@@ -430,30 +467,42 @@ public class ConversationService {
           messageRepo
               .findById(request.getReplyToMessageId())
               .orElseThrow(() -> new IllegalArgumentException("Message to reply to not found."));
+      // 提前初始化懒加载的发送者，批量写入线程里转换 DTO 时不再依赖当前会话
+      repliedTo.getSender().getNickname();
       message.setRepliedToMessage(repliedTo);
     }
 
+    // (核心新增) 写入前生成预览并拆出文件元数据，之后展示会话列表不再解析内容
+    MessagePreviews.populate(message);
+
+    // 校验全部通过后再分配序号，减少无效请求留下的空洞
+    message.setSeq(sequenceAllocator.next(conversationId));
+    return message;
+  }
+
+  @Transactional
+  public MessageDto sendMessage(User sender, Long conversationId, MessageRequest request) {
+    Message message = prepareMessage(sender, conversationId, request);
+
     // In a real application, you would now update unread counts and broadcast via WebSocket
     Message savedMessage = messageRepo.save(message);
 
-    // (核心新增) 更新其他参与者的未读计数
-    // 1. 找到除发送者外的所有参与者
-    List<ConversationParticipant> otherParticipants =
-        participantRepo.findByConversationIdAndUserIdNot(conversationId, sender.getId());
-
-    // 2. 遍历并增加他们的 unread_count
-    for (ConversationParticipant participant : otherParticipants) {
-      int currentUnread = participant.getUnreadCount() != null ? participant.getUnreadCount() : 0;
-      participant.setUnreadCount(currentUnread + 1);
-    }
-    participantRepo.saveAll(otherParticipants);
+    // (核心修改) 未读数由会话最新序号与各成员的已读水位推算，不再逐个更新其他成员；
+    // 只需推进发送者自己的水位，写入行数与群人数无关
+    participantJdbcRepo.batchAdvanceSenderWatermarks(
+        Map.of(
+            new ConversationParticipantId(conversationId, sender.getId()), savedMessage.getSeq()));
+    // (核心新增) 同步维护会话上的最后一条消息信息，会话列表不再单独查询最新消息
+    conversationJdbcRepo.advanceHeads(List.of(savedMessage));
 
     // 2. 将保存后的消息转换为 DTO
     MessageDto messageDto = MessageDto.fromEntity(savedMessage);
 
-    // 3. (核心新增) 定义广播目的地并发送消息
+    // 3. (核心修改) 定义广播目的地，事务提交后再由 BroadcastDispatcher 发送
     String destination = "/topic/conversations/" + conversationId;
-    messagingTemplate.convertAndSend(destination, messageDto);
+    broadcastDispatcher.publish(destination, messageDto);
+    recentMessageCache.appendAfterCommit(messageDto);
+    inboxDeltaPusher.markDirtyAfterCommit(conversationId);
 
     // 4. 将 DTO 返回给原始的 HTTP 请求方
     return messageDto;
@@ -473,17 +522,14 @@ public class ConversationService {
             .findByConversationIdAndUserId(conversationId, user.getId())
             .orElseThrow(() -> new IllegalArgumentException("Participant not found."));
 
-    // 2. 将未读计数清零
-    participant.setUnreadCount(0);
-
-    // 3. (可选但推荐) 更新 last_read_message_id
-    //    找到这个会话中最新的一条消息
-    messageRepo
-        .findTopByConversationIdOrderByCreatedAtDesc(conversationId)
-        .ifPresent(lastMessage -> participant.setLastReadMessageId(lastMessage.getId()));
-
-    // 4. 保存更新
-    participantRepo.save(participant);
+    // 2. (核心修改) 把已读水位推进到会话已提交的最新序号，未读数随之归零；
+    // 还在写入中的消息不会被提前标记为已读
+    long head = committedHead(participant.getConversation());
+    if (participant.getLastReadSeq() == null || participant.getLastReadSeq() < head) {
+      participant.setLastReadSeq(head);
+      // 3. 保存更新
+      participantRepo.save(participant);
+    }
   }
 
   @Transactional
@@ -506,12 +552,15 @@ public class ConversationService {
     // 3. 标记为已撤回并保存
     message.setRecalled(true);
     messageRepo.save(message);
+    conversationJdbcRepo.markHeadRecalled(conversationId, messageId);
 
     // 4. (重要) 通过WebSocket广播“消息已撤回”的通知
     // 我们需要一个新的DTO来广播这个事件
     RecallNotificationDto notification = new RecallNotificationDto(conversationId, messageId);
-    messagingTemplate.convertAndSend(
+    broadcastDispatcher.publish(
         "/topic/conversations/" + conversationId + "/recalls", notification);
+    recentMessageCache.markRecalledAfterCommit(conversationId, messageId);
+    inboxDeltaPusher.markDirtyAfterCommit(conversationId);
   }
 
   @Transactional
@@ -551,6 +600,8 @@ public class ConversationService {
           "Owner cannot leave the group. Please transfer ownership first.");
     }
     participantRepo.delete(participant);
+    recordInboxRemoval(conversationId, List.of(user.getId()));
+    groupMemberCache.invalidateAfterCommit(conversationId);
   }
 
   @Transactional
@@ -580,6 +631,8 @@ public class ConversationService {
     }
 
     participantRepo.delete(targetParticipant);
+    recordInboxRemoval(conversationId, List.of(targetUserId));
+    groupMemberCache.invalidateAfterCommit(conversationId);
   }
 
   @Transactional
@@ -635,6 +688,7 @@ public class ConversationService {
     }
 
     participantRepo.save(targetParticipant);
+    groupMemberCache.invalidateAfterCommit(conversation.getId());
   }
 
   @Transactional
@@ -682,6 +736,7 @@ public class ConversationService {
     ConversationParticipant joinRequest =
         createParticipant(group, requester, ParticipantRole.waiting, ParticipantStatus.PENDING);
     participantRepo.save(joinRequest);
+    groupMemberCache.invalidateAfterCommit(conversationId);
   }
 
   @Transactional(readOnly = true)
@@ -732,6 +787,7 @@ public class ConversationService {
       case "ACCEPT":
         requesterParticipant.setStatus(ParticipantStatus.APPROVED);
         requesterParticipant.setJoinedAt(LocalDateTime.now());
+        requesterParticipant.setLastReadSeq(committedHead(requesterParticipant.getConversation()));
         requesterParticipant.setIsMuted(false);
         requesterParticipant.setRole(ParticipantRole.member);
         participantRepo.save(requesterParticipant);
@@ -740,10 +796,12 @@ public class ConversationService {
       case "REJECT":
         // Rejecting removes their pending participant record
         participantRepo.delete(requesterParticipant);
+        recordInboxRemoval(conversationId, List.of(requesterParticipant.getId().getUserId()));
         break;
       default:
         throw new IllegalArgumentException("Invalid action. Must be 'ACCEPT' or 'REJECT'.");
     }
+    groupMemberCache.invalidateAfterCommit(conversationId);
   }
 
   @Transactional
@@ -753,60 +811,98 @@ public class ConversationService {
         messageRepo
             .findById(request.getOriginalMessageId())
             .orElseThrow(() -> new IllegalArgumentException("Original message not found."));
+    if (originalMessage.isDeleted() || originalMessage.isRecalled()) {
+      throw new IllegalArgumentException("Original message is no longer available.");
+    }
 
-    // 2. 验证当前用户是否有权转发此消息 (例如，必须是该消息所在会话的成员)
-    // ... 此处省略权限校验逻辑 ...
-
-    // 3. 遍历所有目标会话
-    request
-        .getTargetConversationIds()
-        .forEach(
-            convoId -> {
-              Conversation targetConversation =
-                  conversationRepo
-                      .findById(convoId)
-                      .orElseThrow(
-                          () -> new IllegalArgumentException("Target conversation not found."));
-
-              // 4. 为每个目标会话创建一条新的消息 (复制内容)
-              Message forwardedMessage = new Message();
-              forwardedMessage.setConversation(targetConversation);
-              forwardedMessage.setSender(currentUser); // 转发者是当前用户
-              forwardedMessage.setContent(originalMessage.getContent());
-              forwardedMessage.setMessageType(originalMessage.getMessageType());
-              // ... 其他需要复制的属性 ...
-
-              Message savedMsg = messageRepo.save(forwardedMessage);
-              // (可选) 通过WebSocket广播这条新消息
-              messagingTemplate.convertAndSend(
-                  "/topic/conversations/" + convoId, MessageDto.fromEntity(savedMsg));
-            });
-
-    // 5. (可选) 如果有附带留言，也作为一条新消息发送
-    if (request.getAttachedMessage() != null && !request.getAttachedMessage().trim().isEmpty()) {
-      // 再次遍历所有目标会话，发送留言
-      request
-          .getTargetConversationIds()
-          .forEach(
-              convoId -> {
-                Conversation targetConversation =
-                    conversationRepo
-                        .findById(convoId)
-                        .orElseThrow(
-                            () -> new IllegalArgumentException("Target conversation not found."));
-
-                Message attachedMsg = new Message();
-                attachedMsg.setConversation(targetConversation);
-                attachedMsg.setSender(currentUser);
-                attachedMsg.setContent(request.getAttachedMessage().trim());
-                attachedMsg.setMessageType(MessageType.text); // 留言是纯文本消息
-
-                Message savedAttachedMsg = messageRepo.save(attachedMsg);
-                // 同样广播这条留言消息
-                messagingTemplate.convertAndSend(
-                    "/topic/conversations/" + convoId, MessageDto.fromEntity(savedAttachedMsg));
-              });
+    List<Long> targetIds =
+        request.getTargetConversationIds() == null
+            ? List.of()
+            : request.getTargetConversationIds().stream()
+                .filter(Objects::nonNull)
+                .distinct()
+                .toList();
+    if (targetIds.isEmpty()) {
+      throw new IllegalArgumentException("At least one target conversation is required.");
+    }
+
+    // 2. (核心修改) 一次查询取回转发者在原会话和所有目标会话中已通过审核的成员记录，
+    // 同时完成"必须是原消息所在会话成员"与"必须是目标会话成员"两项校验；待审核的申请者不算成员
+    Long sourceId = originalMessage.getConversation().getId();
+    Set<Long> lookupIds = new HashSet<>(targetIds);
+    lookupIds.add(sourceId);
+    Map<Long, ConversationParticipant> memberships =
+        participantRepo
+            .findAllByUserIdAndConversationIdInAndStatus(
+                currentUser.getId(), lookupIds, ParticipantStatus.APPROVED)
+            .stream()
+            .collect(Collectors.toMap(p -> p.getConversation().getId(), p -> p));
+
+    if (!memberships.containsKey(sourceId)) {
+      throw new SecurityException("You are not a member of the original message's conversation.");
+    }
+    for (Long convoId : targetIds) {
+      ConversationParticipant participant = memberships.get(convoId);
+      if (participant == null) {
+        throw new SecurityException("You are not a member of conversation " + convoId + ".");
+      }
+      if (participant.getIsMuted()) {
+        throw new SecurityException("You are silenced in conversation " + convoId + ".");
+      }
+    }
+
+    // 3. 为每个目标会话生成转发消息及(可选的)附带留言，全部校验通过后才分配序号
+    String note =
+        request.getAttachedMessage() != null ? request.getAttachedMessage().trim() : null;
+    LocalDateTime now = LocalDateTime.now();
+    List<Message> messages = new ArrayList<>();
+    Map<ConversationParticipantId, Long> watermarks = new LinkedHashMap<>();
+    for (Long convoId : targetIds) {
+      Conversation targetConversation = memberships.get(convoId).getConversation();
+
+      Message forwardedMessage = new Message();
+      forwardedMessage.setConversation(targetConversation);
+      forwardedMessage.setSender(currentUser); // 转发者是当前用户
+      forwardedMessage.setContent(originalMessage.getContent());
+      forwardedMessage.setMediaUrl(originalMessage.getMediaUrl());
+      forwardedMessage.setMessageType(originalMessage.getMessageType());
+      forwardedMessage.setFileName(originalMessage.getFileName());
+      forwardedMessage.setFileSize(originalMessage.getFileSize());
+      MessagePreviews.populate(forwardedMessage);
+      forwardedMessage.setCreatedAt(now);
+      forwardedMessage.setSeq(sequenceAllocator.next(convoId));
+      messages.add(forwardedMessage);
+
+      if (note != null && !note.isEmpty()) {
+        Message attachedMsg = new Message();
+        attachedMsg.setConversation(targetConversation);
+        attachedMsg.setSender(currentUser);
+        attachedMsg.setContent(note);
+        attachedMsg.setMessageType(MessageType.text); // 留言是纯文本消息
+        MessagePreviews.populate(attachedMsg);
+        attachedMsg.setCreatedAt(now);
+        attachedMsg.setSeq(sequenceAllocator.next(convoId));
+        messages.add(attachedMsg);
+      }
+
+      // 转发者自己的已读水位按该会话的最后一条推进
+      watermarks.put(
+          new ConversationParticipantId(convoId, currentUser.getId()),
+          messages.get(messages.size() - 1).getSeq());
+    }
+
+    // 4. (核心修改) 消息与水位都以 JDBC batch 写入，语句数与目标会话数无关
+    messageJdbcRepo.batchInsert(messages);
+    participantJdbcRepo.batchAdvanceSenderWatermarks(watermarks);
+    conversationJdbcRepo.advanceHeads(messages);
+
+    // 5. 事务提交后再广播，回滚时不会推送不存在的消息
+    for (Message message : messages) {
+      MessageDto dto = MessageDto.fromEntity(message);
+      broadcastDispatcher.publish("/topic/conversations/" + dto.getConversationId(), dto);
+      recentMessageCache.appendAfterCommit(dto);
     }
+    targetIds.forEach(inboxDeltaPusher::markDirtyAfterCommit);
   }
 
   /**
@@ -816,7 +912,7 @@ public class ConversationService {
    * @return 包含群聊详细信息的DTO.
    */
   @Transactional
-  public GroupDetailsDto findGroupDetailsByUuid(String uuid, String username) {
+  public GroupDetailsDto findGroupDetailsByUuid(String uuid, User currentUser) {
     // 1. 根据UUID精确查找会话
     Conversation conversation =
         conversationRepo
@@ -829,84 +925,316 @@ public class ConversationService {
       throw new IllegalArgumentException("The provided ID does not belong to a group chat.");
     }
 
-    // 3. 获取该群聊的所有参与者
-    List<ConversationParticipant> participants =
-        participantRepo.findAllByConversation(conversation);
+    // 3. 当前用户在群中的角色，只查角色一列；不是成员时拒绝
+    ParticipantRole role =
+        participantRepo
+            .findRoleByConversationIdAndUserId(conversation.getId(), currentUser.getId())
+            .orElseThrow(() -> new AccessDeniedException("You are not a member of this group."));
 
-    // 4. 将参与者中的用户信息映射到 UserSearchResultDto 列表
-    List<GroupMemberDto> memberDtos =
-        participants.stream()
-            .map(participant -> mapToGroupMemberDto(participant.getUser(), participant.getRole()))
-            .collect(Collectors.toList());
+    // 4. (核心修改) 只内嵌第一页成员和成员总数，按会话缓存
+    GroupMemberCache.Preview preview = loadMemberPreview(conversation.getId());
 
     // 5. 组装并返回最终的 GroupDetailsDto
     return GroupDetailsDto.fromEntity(
-        conversation,
-        memberDtos,
-        conversationRepo.findUserByConversationIdAndUsername(uuid, username).getRole());
+        conversation, preview.firstPage(), preview.memberCount(), role);
   }
 
   @Transactional
   public List<GroupDetailsDto> getJoinedGroups(User currentUser) {
-    // 1. 从数据库获取用户参与的所有群聊会话
-    List<Conversation> groups =
-        conversationRepo.findConversationsByParticipantAndType(
-            currentUser.getId(), ConversationType.GROUP);
-
-    // 2. 遍历每个群聊，将其转换为 GroupDetailsDto
-    return groups.stream()
-        .map((Conversation group) -> mapToGroupDetailsDto(group, currentUser))
+    // 1. (核心修改) 一次查出用户加入的所有群聊及其在各群中的角色
+    List<ConversationParticipant> memberships =
+        participantRepo.findMembershipsByUserIdAndType(currentUser.getId(), ConversationType.GROUP);
+    if (memberships.isEmpty()) {
+      return List.of();
+    }
+
+    // 2. 缓存未命中的群一次批量加载第一页成员和成员总数，查询次数与群数量无关
+    Map<Long, GroupMemberCache.Preview> previews =
+        groupMemberCache.getAll(
+            memberships.stream().map(p -> p.getConversation().getId()).toList(),
+            this::loadMemberPreviews);
+
+    // 3. 组装每个群的 GroupDetailsDto
+    return memberships.stream()
+        .map(
+            p -> {
+              GroupMemberCache.Preview preview = previews.get(p.getConversation().getId());
+              return GroupDetailsDto.fromEntity(
+                  p.getConversation(), preview.firstPage(), preview.memberCount(), p.getRole());
+            })
         .collect(Collectors.toList());
   }
 
   @Transactional
   public List<MessageDto> getMessagesForConversation(Long conversationId, User currentUser) {
     // 1. 权限校验：确保当前用户是该会话的成员
-    participantRepo
-        .findByConversationIdAndUserId(conversationId, currentUser.getId())
-        .orElseThrow(() -> new AccessDeniedException("You are not a member of this conversation."));
-
-    ConversationParticipant participant = getParticipant(conversationId, currentUser.getId());
+    ConversationParticipant participant =
+        participantRepo
+            .findByConversationIdAndUserId(conversationId, currentUser.getId())
+            .orElseThrow(
+                () -> new AccessDeniedException("You are not a member of this conversation."));
 
-    // 2. 调用仓库方法获取消息实体列表
+    // 2. 调用仓库方法获取消息实体列表，清空聊天记录的时间点直接作为查询条件
     List<Message> messages =
-        messageRepo.findByConversationIdAndIsDeletedFalseOrderByCreatedAtAsc(conversationId);
+        messageRepo.findByConversationIdAndIsDeletedFalseAndCreatedAtAfterOrderBySeqAsc(
+            conversationId, historyCutoff(participant));
 
     // 3. 将实体列表转换为 DTO 列表并返回
-    if (participant.getDeletedHistoryAt() != null) {
-      return messages.stream()
-          .filter(message -> message.getCreatedAt().isAfter(participant.getDeletedHistoryAt()))
-          .map(MessageDto::fromEntity) // 复用我们之前创建的转换方法
-          .collect(Collectors.toList());
+    return messages.stream()
+        .map(MessageDto::fromEntity) // 复用我们之前创建的转换方法
+        .collect(Collectors.toList());
+  }
+
+  /**
+   * (核心新增) 按消息序号游标分页获取历史消息。
+   *
+   * @param currentUserId 当前用户 id，只用于校验成员身份和清空记录时间点
+   * @param before 只返回 seq 小于该值的消息；与 after 都为空时返回最新一页
+   * @param after 只返回 seq 大于该值的消息，用于补齐断线期间的新消息
+   * @param limit 每页条数，超出 MAX_HISTORY_PAGE_SIZE 时按上限处理
+   * @return 按 seq 升序排列的一页消息
+   */
+  @Transactional(readOnly = true)
+  public MessagePageDto getMessageHistory(
+      Long currentUserId, Long conversationId, Long before, Long after, Integer limit) {
+    if (before != null && after != null) {
+      throw new IllegalArgumentException("Only one of 'before' and 'after' may be specified.");
+    }
+    ConversationParticipant participant =
+        participantRepo
+            .findByConversationIdAndUserId(conversationId, currentUserId)
+            .orElseThrow(
+                () -> new AccessDeniedException("You are not a member of this conversation."));
+
+    int pageSize =
+        Math.min(
+            limit != null && limit > 0 ? limit : DEFAULT_HISTORY_PAGE_SIZE, MAX_HISTORY_PAGE_SIZE);
+    LocalDateTime cutoff = historyCutoff(participant);
+
+    // 最新一页与断线补齐优先从最近消息缓存读取
+    MessagePageDto cachedPage =
+        readHistoryFromCache(conversationId, cutoff, before, after, pageSize);
+    if (cachedPage != null) {
+      return cachedPage;
+    }
+
+    // 多取一条用来判断是否还有下一页
+    Pageable pageable = PageRequest.of(0, pageSize + 1);
+
+    List<Message> messages;
+    if (after != null) {
+      messages = messageRepo.findPageAfter(conversationId, cutoff, after, pageable);
     } else {
-      return messages.stream()
-          .map(MessageDto::fromEntity) // 复用我们之前创建的转换方法
-          .collect(Collectors.toList());
+      messages =
+          new ArrayList<>(
+              messageRepo.findPageBefore(
+                  conversationId, cutoff, before != null ? before : Long.MAX_VALUE, pageable));
+    }
+
+    boolean hasMore = messages.size() > pageSize;
+    if (hasMore) {
+      messages = messages.subList(0, pageSize);
+    }
+    if (after == null) {
+      Collections.reverse(messages);
+    }
+
+    List<MessageDto> dtos = messages.stream().map(MessageDto::fromEntity).toList();
+    Long nextBefore = dtos.isEmpty() ? before : dtos.get(0).getSeq();
+    Long nextAfter = dtos.isEmpty() ? after : dtos.get(dtos.size() - 1).getSeq();
+    return new MessagePageDto(dtos, nextBefore, nextAfter, hasMore);
+  }
+
+  /**
+   * 尝试用最近消息缓存满足一次历史查询。
+   *
+   * @return 缓存无法完整覆盖本次请求时返回 null，由调用方查询数据库
+   */
+  private MessagePageDto readHistoryFromCache(
+      Long conversationId, LocalDateTime cutoff, Long before, Long after, int pageSize) {
+    RecentMessageCache.Snapshot snapshot = recentMessageCache.get(conversationId);
+    if (snapshot == null) {
+      // 只有读取最新消息的请求才值得为该会话加载缓存
+      if (before != null) {
+        return null;
+      }
+      int capacity = recentMessageCache.getPerConversation();
+      List<Message> latest =
+          messageRepo.findPageBefore(
+              conversationId, EPOCH, Long.MAX_VALUE, PageRequest.of(0, capacity + 1));
+      // 多取的一条不存在，说明该会话的全部消息都已在缓存中
+      boolean complete = latest.size() <= capacity;
+      snapshot =
+          recentMessageCache.seed(
+              conversationId,
+              latest.stream().limit(capacity).map(MessageDto::fromEntity).toList(),
+              complete);
     }
+
+    List<MessageDto> cached = snapshot.messages();
+    List<MessageDto> visible =
+        cached.stream().filter(m -> m.getTimestamp().isAfter(cutoff)).toList();
+
+    if (after != null) {
+      // 缓存是从最早一条开始连续的，只要它覆盖到 after 之后，就包含了所有更新的消息
+      boolean covered =
+          snapshot.complete() || (!cached.isEmpty() && cached.get(0).getSeq() <= after + 1);
+      if (!covered) {
+        return null;
+      }
+      List<MessageDto> page = visible.stream().filter(m -> m.getSeq() > after).toList();
+      boolean hasMore = page.size() > pageSize;
+      if (hasMore) {
+        page = page.subList(0, pageSize);
+      }
+      Long nextAfter = page.isEmpty() ? after : page.get(page.size() - 1).getSeq();
+      Long nextBefore = page.isEmpty() ? null : page.get(0).getSeq();
+      return new MessagePageDto(page, nextBefore, nextAfter, hasMore);
+    }
+
+    long upper = before != null ? before : Long.MAX_VALUE;
+    List<MessageDto> candidates = visible.stream().filter(m -> m.getSeq() < upper).toList();
+    boolean hasMore = candidates.size() > pageSize;
+    // 缓存里最早的一条已经早于清空时间点，说明更早的消息也都不可见
+    boolean olderHidden = !cached.isEmpty() && !cached.get(0).getTimestamp().isAfter(cutoff);
+    if (!hasMore && !snapshot.complete() && !olderHidden) {
+      return null;
+    }
+    List<MessageDto> page =
+        hasMore ? candidates.subList(candidates.size() - pageSize, candidates.size()) : candidates;
+    Long nextBefore = page.isEmpty() ? before : page.get(0).getSeq();
+    Long nextAfter = page.isEmpty() ? null : page.get(page.size() - 1).getSeq();
+    return new MessagePageDto(page, nextBefore, nextAfter, hasMore);
+  }
+
+  // 用户清空过聊天记录时，只能看到该时间点之后的消息
+  private LocalDateTime historyCutoff(ConversationParticipant participant) {
+    return participant.getDeletedHistoryAt() != null ? participant.getDeletedHistoryAt() : EPOCH;
+  }
+
+  // 会话已提交的最新序号；已分配但还没提交（或已回滚）的序号不算，已读水位与未读数都以它为准
+  private static long committedHead(Conversation conversation) {
+    Long head = conversation.getLastMessageSeq();
+    return head != null ? head : 0L;
   }
 
   @Transactional
   public GroupDetailsDto mapToGroupDetailsDto(Conversation group, User currentUser) {
-    // 1. 获取群聊的所有成员，并将他们转换为 UserSearchResultDto
-    List<GroupMemberDto> members =
-        conversationRepo.findAllUserByConversationId(group.getId()).stream()
-            .map(
-                participant -> {
-                  User user = participant.getUser();
-                  ParticipantRole role = participant.getRole(); // 获取成员角色
-                  return mapToGroupMemberDto(user, role); // 将 user 和 role 传递给 mapToGroupMemberDto
-                })
-            .collect(Collectors.toList());
+    // 1. (核心修改) 只内嵌第一页成员和成员总数，走缓存，未命中时用 DTO 投影查询
+    GroupMemberCache.Preview preview = loadMemberPreview(group.getId());
 
+    // 当前用户的角色单独用一条查询取出
     ParticipantRole currentUserRole =
-        conversationRepo.findAllUserByConversationId(group.getId()).stream()
-            .filter(p -> p.getUser().getId().equals(currentUser.getId()))
-            .map(ConversationParticipant::getRole)
-            .findFirst()
+        participantRepo
+            .findRoleByConversationIdAndUserId(group.getId(), currentUser.getId())
             .orElse(ParticipantRole.member);
 
     // 2. 使用 GroupDetailsDto 提供的静态工厂方法创建最终的 DTO
-    return GroupDetailsDto.fromEntity(group, members, currentUserRole);
+    return GroupDetailsDto.fromEntity(
+        group, preview.firstPage(), preview.memberCount(), currentUserRole);
+  }
+
+  private GroupMemberCache.Preview loadMemberPreview(Long conversationId) {
+    return groupMemberCache.get(
+        conversationId,
+        () ->
+            new GroupMemberCache.Preview(
+                findMemberPage(conversationId, null, MEMBER_PREVIEW_SIZE, null, null),
+                participantRepo.countByConversationId(conversationId)));
+  }
+
+  private Map<Long, GroupMemberCache.Preview> loadMemberPreviews(
+      Collection<Long> conversationIds) {
+    // 多取一条用来判断是否还有下一页
+    Map<Long, List<GroupMemberDto>> members = new HashMap<>();
+    Map<Long, Long> counts = new HashMap<>();
+    for (Object[] row :
+        participantRepo.findMemberPreviewsInConversations(
+            conversationIds, MEMBER_PREVIEW_SIZE + 1)) {
+      Long conversationId = ((Number) row[0]).longValue();
+      members
+          .computeIfAbsent(conversationId, id -> new ArrayList<>())
+          .add(
+              new GroupMemberDto(
+                  ((Number) row[1]).longValue(),
+                  (String) row[2],
+                  (String) row[3],
+                  (String) row[4],
+                  ParticipantRole.valueOf((String) row[5])));
+      counts.put(conversationId, ((Number) row[6]).longValue());
+    }
+    Map<Long, GroupMemberCache.Preview> result = new HashMap<>();
+    members.forEach(
+        (conversationId, list) ->
+            result.put(
+                conversationId,
+                new GroupMemberCache.Preview(
+                    toMemberPage(list, MEMBER_PREVIEW_SIZE), counts.get(conversationId))));
+    return result;
+  }
+
+  /**
+   * (核心新增) 键集分页读取群成员。
+   *
+   * <p>成员按 群主 -> 管理员 -> 普通成员 -> 待审核 排序，同一角色内按用户 id 升序。每个角色单独走
+   * (conversation_id, role, user_id) 索引做范围读取，一页最多跨 4 个角色，查询次数与群大小无关。
+   *
+   * @param cursor 上一页返回的 nextCursor，为 null 时从第一页开始
+   * @param limit 每页条数，超出 MAX_MEMBER_PAGE_SIZE 时按上限处理
+   * @param role 只返回该角色的成员，为 null 时返回全部
+   * @param nicknamePrefix 只返回昵称以此开头的成员，为空时不过滤
+   */
+  @Transactional(readOnly = true)
+  public GroupMemberPageDto findMemberPage(
+      Long conversationId,
+      String cursor,
+      Integer limit,
+      ParticipantRole role,
+      String nicknamePrefix) {
+    int pageSize =
+        Math.min(limit != null && limit > 0 ? limit : DEFAULT_MEMBER_PAGE_SIZE, MAX_MEMBER_PAGE_SIZE);
+
+    int roleIndex = 0;
+    long afterUserId = 0L;
+    if (cursor != null && !cursor.isBlank()) {
+      String[] parts = cursor.split(":", 2);
+      try {
+        roleIndex = MEMBER_ROLE_ORDER.indexOf(ParticipantRole.valueOf(parts[0]));
+        afterUserId = Long.parseLong(parts[1]);
+      } catch (RuntimeException e) {
+        throw new IllegalArgumentException("Invalid member cursor.");
+      }
+    }
+    String pattern =
+        nicknamePrefix == null || nicknamePrefix.isBlank()
+            ? null
+            : nicknamePrefix.trim().replaceAll("[!%_]", "!$0") + "%";
+
+    // 多取一条用来判断是否还有下一页
+    List<GroupMemberDto> members = new ArrayList<>();
+    for (int i = roleIndex; i < MEMBER_ROLE_ORDER.size() && members.size() <= pageSize; i++) {
+      ParticipantRole bandRole = MEMBER_ROLE_ORDER.get(i);
+      if (role == null || role == bandRole) {
+        members.addAll(
+            participantRepo.findMemberPage(
+                conversationId,
+                bandRole,
+                afterUserId,
+                pattern,
+                PageRequest.of(0, pageSize + 1 - members.size())));
+      }
+      afterUserId = 0L;
+    }
+    return toMemberPage(members, pageSize);
+  }
+
+  private GroupMemberPageDto toMemberPage(List<GroupMemberDto> members, int pageSize) {
+    if (members.size() <= pageSize) {
+      return new GroupMemberPageDto(List.copyOf(members), null);
+    }
+    List<GroupMemberDto> page = List.copyOf(members.subList(0, pageSize));
+    GroupMemberDto last = page.get(pageSize - 1);
+    return new GroupMemberPageDto(page, last.getRole().name() + ":" + last.getId());
   }
 
   @Transactional
@@ -921,77 +1249,6 @@ public class ConversationService {
     return dto;
   }
 
-  private ConversationSummaryDto mapToConversationSummaryDto(Conversation convo, User currentUser) {
-    ConversationSummaryDto dto = new ConversationSummaryDto();
-    dto.setConversationId(convo.getId());
-    dto.setType(convo.getType());
-    dto.setUuid(convo.getUuid());
-
-    // Set pinned and muted status from the participant record
-    participantRepo
-        .findByConversationIdAndUserId(convo.getId(), currentUser.getId())
-        .ifPresent(
-            p -> {
-              dto.setUnreadCount(p.getUnreadCount() != null ? p.getUnreadCount() : 0);
-              dto.setPinned(p.isPinned());
-              dto.setNotificationsMuted(p.isAreNotificationsMuted());
-            });
-
-    // Set last message details
-    messageRepo
-        .findTopByConversationOrderByCreatedAtDesc(convo)
-        .ifPresent(
-            msg -> {
-              dto.setLastMessageTimestamp(msg.getCreatedAt());
-
-              // 根据消息类型设置不同的显示内容
-              switch (msg.getMessageType()) {
-                case file:
-                  try {
-                    // 尝试解析文件内容的JSON
-                    // 注意: 你需要一个JSON解析库，如 Jackson 或 Gson
-                    // 这里以 Jackson 为例
-                    com.fasterxml.jackson.databind.ObjectMapper mapper =
-                        new com.fasterxml.jackson.databind.ObjectMapper();
-                    com.fasterxml.jackson.databind.JsonNode rootNode =
-                        mapper.readTree(msg.getContent());
-                    String fileName = rootNode.has("name") ? rootNode.get("name").asText() : "文件";
-
-                    if (isImageFile(fileName)) {
-                      dto.setLastMessageContent("[图片]");
-                    } else {
-                      dto.setLastMessageContent("[文件] " + fileName);
-                    }
-                  } catch (Exception e) {
-                    // 解析失败，提供一个默认值
-                    dto.setLastMessageContent("[文件]");
-                  }
-                  break;
-                case emoji: // 如果未来有特殊处理，可以在这里添加
-                case text:
-                default:
-                  dto.setLastMessageContent(msg.getContent());
-                  break;
-              }
-            });
-
-    // Set name and avatar (logic differs for GROUP vs PRIVATE)
-    if (convo.getType() == ConversationType.GROUP) {
-      dto.setName(convo.getName());
-      dto.setAvatarUrl(convo.getAvatarUrl());
-    } else { // For private chats, find the other participant
-      participantRepo.findAllByConversation(convo).stream()
-          .filter(p -> !p.getUser().getId().equals(currentUser.getId()))
-          .findFirst()
-          .ifPresent(
-              other -> {
-                dto.setName(other.getUser().getNickname());
-                dto.setAvatarUrl(other.getUser().getAvatarUrl());
-              });
-    }
-    return dto;
-  }
-
   /**
    * (核心新增) 生成拼接头像并保存为文件
    *
@@ -1107,13 +1364,6 @@ public class ConversationService {
     blockRepo.delete(blockedUser);
   }
 
-  @Transactional
-  public List<GroupMemberDto> findMembersByUuid(Long id) {
-    return conversationRepo.findAllUserByConversationId(id).stream()
-        .map(participant -> mapToGroupMemberDto(participant.getUser(), participant.getRole()))
-        .toList();
-  }
-
   @Transactional(readOnly = true)
   public List<MutedUserDto> getMutedList(User currentUser, Long conversationId) {
     // 权限校验
@@ -1140,11 +1390,15 @@ public class ConversationService {
       // 删除所有相关消息
       messageRepo.deleteByConversationId(conversation.getId());
 
-      // 删除所有参与者记录
+      // 删除所有参与者记录，并为双方记下墓碑供增量同步使用
+      recordInboxRemoval(
+          conversation.getId(), participantRepo.findUserIdsByConversationId(conversation.getId()));
       conversationParticipantRepo.deleteByConversationId(conversation.getId());
 
       // 删除会话本身
       conversationRepo.delete(conversation);
+      recentMessageCache.invalidateAfterCommit(conversation.getId());
+      groupMemberCache.invalidateAfterCommit(conversation.getId());
     }
   }
 
@@ -1188,17 +1442,4 @@ public class ConversationService {
           .orElse(ConversationStatus.CONVERSATION_NOT_FOUND);
     }
   }
-
-  private boolean isImageFile(String fileName) {
-    if (fileName == null || fileName.isEmpty()) {
-      return false;
-    }
-    String lowerCaseName = fileName.toLowerCase();
-    return lowerCaseName.endsWith(".jpg")
-        || lowerCaseName.endsWith(".jpeg")
-        || lowerCaseName.endsWith(".png")
-        || lowerCaseName.endsWith(".gif")
-        || lowerCaseName.endsWith(".bmp")
-        || lowerCaseName.endsWith(".webp");
-  }
 }
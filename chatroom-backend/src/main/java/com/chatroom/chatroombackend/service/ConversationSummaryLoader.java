@@ -0,0 +1,234 @@
+package com.chatroom.chatroombackend.service;
+
+import com.chatroom.chatroombackend.dto.ConversationSummaryDto;
+import com.chatroom.chatroombackend.entity.Conversation;
+import com.chatroom.chatroombackend.entity.ConversationParticipant;
+import com.chatroom.chatroombackend.entity.Message;
+import com.chatroom.chatroombackend.entity.User;
+import com.chatroom.chatroombackend.enums.ConversationType;
+import com.chatroom.chatroombackend.repository.ConversationParticipantRepository;
+import com.chatroom.chatroombackend.repository.MessageJdbcRepository;
+import com.chatroom.chatroombackend.repository.MessageRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * 批量加载会话概要（首页会话列表）。
+ *
+ * <p>无论会话有多少个，查询次数都是固定的：
+ *
+ * <ol>
+ *   <li>当前用户的成员记录连同会话（一次）；
+ *   <li>私聊会话的对方用户（一次，没有私聊时跳过）；
+ *   <li>会话上还没有最后一条消息冗余字段的，按会话批量取各自序号最大的消息（一次，全部已有时跳过）。
+ * </ol>
+ *
+ * 未读数由会话最新序号与成员的已读水位推算；差距不大的会话再用一次查询逐条核对，见 {@link #unreadCounts}。
+ */
+@Service
+public class ConversationSummaryLoader {
+
+  @Autowired private ConversationParticipantRepository participantRepo;
+  @Autowired private MessageRepository messageRepo;
+  @Autowired private MessageJdbcRepository messageJdbcRepo;
+
+  // 会话头与水位相差不超过该值时逐条核对未读消息，超过时按差值估算
+  @Value("${app.unread.exactCountLimit:100}")
+  private int exactCountLimit;
+
+  /** 计算未读数所需的一个成员位置。 */
+  public record ReadPosition(Long conversationId, Long userId, Long head, Long lastReadSeq) {}
+
+  /** 当前用户的全部会话，置顶优先，其余按最后一条消息时间倒序。 */
+  @Transactional(readOnly = true)
+  public List<ConversationSummaryDto> loadInbox(User user) {
+    return toSummaries(user, participantRepo.findInboxByUserId(user.getId()));
+  }
+
+  /** 概要在 since 之后有变化的会话，查询次数同样固定。 */
+  @Transactional(readOnly = true)
+  public List<ConversationSummaryDto> loadChangedSince(User user, long since) {
+    return toSummaries(user, participantRepo.findInboxChangedSince(user.getId(), since));
+  }
+
+  /** 当前用户在指定会话中的概要，按传入顺序返回；不是成员的会话会被跳过。 */
+  @Transactional(readOnly = true)
+  public List<ConversationSummaryDto> load(User user, Collection<Long> conversationIds) {
+    if (conversationIds.isEmpty()) {
+      return List.of();
+    }
+    Map<Long, ConversationParticipant> byId = new HashMap<>();
+    participantRepo
+        .findAllByUserIdAndConversationIdIn(user.getId(), conversationIds)
+        .forEach(p -> byId.put(p.getId().getConversationId(), p));
+    List<ConversationParticipant> ordered = new ArrayList<>();
+    for (Long id : conversationIds) {
+      ConversationParticipant p = byId.get(id);
+      if (p != null) {
+        ordered.add(p);
+      }
+    }
+    return toSummaries(user, ordered);
+  }
+
+  @Transactional(readOnly = true)
+  public Optional<ConversationSummaryDto> loadOne(User user, Long conversationId) {
+    return load(user, List.of(conversationId)).stream().findFirst();
+  }
+
+  /**
+   * 未读数的估算值 = 会话已提交的最新序号（conversations.last_message_seq）- 成员的已读水位。
+   *
+   * <p>不用序号分配器的当前值：已分配但尚未提交的序号不应计入未读。回滚、超时撤回留下的空洞仍会被算进去，
+   * 需要准确值时用 {@link #unreadCounts}。
+   */
+  public static int unreadCount(Long head, Long lastReadSeq) {
+    long committed = head != null ? head : 0L;
+    long lastRead = lastReadSeq != null ? lastReadSeq : committed;
+    return (int) Math.min(Integer.MAX_VALUE, Math.max(0L, committed - lastRead));
+  }
+
+  /**
+   * 批量计算未读数，结果与 positions 的顺序一致。
+   *
+   * <p>估算值不超过 app.unread.exactCountLimit 的成员，按水位之上、会话头以内实际存在的别人发的消息计数：
+   * 序号空洞不算未读，发送者自己在水位之上的消息（发送时前面还有未提交的序号）也不算。估算值更大时直接用估算值，
+   * 空洞带来的误差相对可以忽略，也不必为此扫描大量消息。整批最多一次查询，都不需要核对时不查询。
+   */
+  public int[] unreadCounts(List<ReadPosition> positions) {
+    int[] counts = new int[positions.size()];
+    Map<Long, Long> afterSeqs = new HashMap<>();
+    for (int i = 0; i < counts.length; i++) {
+      ReadPosition position = positions.get(i);
+      counts[i] = unreadCount(position.head(), position.lastReadSeq());
+      if (counts[i] > 0 && counts[i] <= exactCountLimit) {
+        afterSeqs.merge(position.conversationId(), position.lastReadSeq(), Math::min);
+      }
+    }
+    if (afterSeqs.isEmpty()) {
+      return counts;
+    }
+
+    Map<Long, List<MessageJdbcRepository.CommittedSeq>> committed =
+        messageJdbcRepo.findSeqsAfter(afterSeqs);
+    for (int i = 0; i < counts.length; i++) {
+      ReadPosition position = positions.get(i);
+      if (counts[i] == 0 || counts[i] > exactCountLimit) {
+        continue;
+      }
+      int unread = 0;
+      for (MessageJdbcRepository.CommittedSeq message :
+          committed.getOrDefault(position.conversationId(), List.of())) {
+        if (message.seq() > position.lastReadSeq()
+            && message.seq() <= position.head()
+            && message.senderId() != position.userId()) {
+          unread++;
+        }
+      }
+      counts[i] = unread;
+    }
+    return counts;
+  }
+
+  private List<ConversationSummaryDto> toSummaries(
+      User user, List<ConversationParticipant> participants) {
+    List<Long> privateIds = new ArrayList<>();
+    List<Long> missingHeadIds = new ArrayList<>();
+    for (ConversationParticipant p : participants) {
+      Conversation c = p.getConversation();
+      if (c.getType() == ConversationType.PRIVATE) {
+        privateIds.add(c.getId());
+      }
+      if (c.getLastMessageSeq() == null) {
+        missingHeadIds.add(c.getId());
+      }
+    }
+
+    Map<Long, User> partners = new HashMap<>();
+    if (!privateIds.isEmpty()) {
+      participantRepo
+          .findPartnersInConversations(privateIds, user.getId())
+          .forEach(p -> partners.put(p.getId().getConversationId(), p.getUser()));
+    }
+
+    // 冗余字段还没写入的会话（例如迁移前的旧数据）退回到按会话取最新消息，仍然是一次查询
+    Map<Long, Message> latest = new HashMap<>();
+    if (!missingHeadIds.isEmpty()) {
+      messageRepo
+          .findLatestInConversations(missingHeadIds)
+          .forEach(m -> latest.put(m.getConversation().getId(), m));
+    }
+
+    List<ReadPosition> positions = new ArrayList<>(participants.size());
+    for (ConversationParticipant p : participants) {
+      Long id = p.getId().getConversationId();
+      Long head = p.getConversation().getLastMessageSeq();
+      if (head == null && latest.containsKey(id)) {
+        head = latest.get(id).getSeq();
+      }
+      positions.add(new ReadPosition(id, user.getId(), head, p.getLastReadSeq()));
+    }
+    int[] unread = unreadCounts(positions);
+
+    List<ConversationSummaryDto> result = new ArrayList<>(participants.size());
+    for (int i = 0; i < participants.size(); i++) {
+      ConversationParticipant p = participants.get(i);
+      Long id = p.getId().getConversationId();
+      result.add(toSummary(p.getConversation(), p, partners.get(id), latest.get(id), unread[i]));
+    }
+    return result;
+  }
+
+  /** 用已加载好的数据拼出会话概要，不会触发任何查询。 */
+  private ConversationSummaryDto toSummary(
+      Conversation convo,
+      ConversationParticipant participant,
+      User partner,
+      Message fallback,
+      int unreadCount) {
+    ConversationSummaryDto dto = new ConversationSummaryDto();
+    dto.setConversationId(convo.getId());
+    dto.setType(convo.getType());
+    dto.setUuid(convo.getUuid());
+    dto.setUnreadCount(unreadCount);
+    dto.setPinned(participant.isPinned());
+    dto.setNotificationsMuted(participant.isAreNotificationsMuted());
+
+    // 最后一条消息的预览在写入时已生成好，这里直接读取；已清空聊天记录的不显示更早的消息
+    String preview = convo.getLastMessagePreview();
+    LocalDateTime lastMessageAt = convo.getLastMessageAt();
+    if (lastMessageAt == null && fallback != null) {
+      preview = MessagePreviews.of(fallback);
+      lastMessageAt = fallback.getCreatedAt();
+    }
+    if (lastMessageAt != null) {
+      LocalDateTime deletedAt = participant.getDeletedHistoryAt();
+      if (deletedAt != null && deletedAt.isAfter(lastMessageAt)) {
+        dto.setLastMessageContent(" ");
+        dto.setLastMessageTimestamp(null);
+      } else {
+        dto.setLastMessageContent(preview);
+        dto.setLastMessageTimestamp(lastMessageAt);
+      }
+    }
+
+    if (convo.getType() == ConversationType.GROUP) {
+      dto.setName(convo.getName());
+      dto.setAvatarUrl(convo.getAvatarUrl());
+    } else if (partner != null) {
+      dto.setName(partner.getNickname());
+      dto.setAvatarUrl(partner.getAvatarUrl());
+    }
+    return dto;
+  }
+}
@@ -9,12 +9,13 @@ import com.chatroom.chatroombackend.repository.FriendshipRepository;
 import com.chatroom.chatroombackend.repository.UserBlockRepository;
 import com.chatroom.chatroombackend.repository.UserRepository;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.messaging.simp.SimpMessagingTemplate;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.stream.Collectors;
 
@@ -24,7 +25,7 @@ public class FriendshipService {
   @Autowired private FriendshipRepository friendshipRepo;
   @Autowired private UserRepository userRepo;
   @Autowired private UserBlockRepository userBlockRepo;
-  @Autowired private SimpMessagingTemplate messagingTemplate;
+  @Autowired private BroadcastDispatcher broadcastDispatcher;
 
   @Transactional
   public Friendship sendFriendRequest(User requester, String targetUsername) {
@@ -75,10 +76,21 @@ public class FriendshipService {
     newRequest.setStatus(FriendshipStatus.pending);
     newRequest.setRequestCount(1); // 第一次请求，计数为1
 
-    messagingTemplate.convertAndSendToUser(
-        targetUser.getId().toString(), "/queue/notifications", newRequest);
-
-    return friendshipRepo.save(newRequest);
+    Friendship savedRequest = friendshipRepo.save(newRequest);
+
+    // (核心修改) 通知在事务提交后由后台线程发送，这里只推送必要字段而不是实体本身，
+    // 避免在会话之外序列化懒加载关联
+    Map<String, Object> notification = new HashMap<>();
+    notification.put("type", "FRIEND_REQUEST");
+    notification.put("friendshipId", savedRequest.getId());
+    notification.put("requesterId", requester.getId());
+    notification.put("requesterName", requester.getNickname());
+    notification.put("requesterAvatarUrl", requester.getAvatarUrl());
+    notification.put("timestamp", System.currentTimeMillis());
+    broadcastDispatcher.publishToUser(
+        targetUser.getId().toString(), "/queue/notifications", notification);
+
+    return savedRequest;
   }
 
   @Transactional
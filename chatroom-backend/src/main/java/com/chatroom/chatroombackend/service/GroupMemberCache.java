@@ -0,0 +1,176 @@
+package com.chatroom.chatroombackend.service;
+
+import com.chatroom.chatroombackend.dto.GroupMemberPageDto;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * 每个会话成员预览（群详情里内嵌的第一页成员与成员总数）的内存缓存。
+ *
+ * <p>会话之间按 LRU 淘汰，最多保留 maxConversations 个。成员加入、退出、被踢、角色变化或用户修改昵称头像时，
+ * 调用方在事务提交后通过 {@link #invalidateAfterCommit(Long)} 让对应会话失效。
+ *
+ * <p>加载期间如果发生了失效，加载结果只返回给调用方，不写入缓存，避免把旧数据放回去。loader 总是在读取失效代数之后
+ * 新开的只读事务里执行：如果沿用调用方已开始的事务，其快照可能早于某次已提交并已失效的成员变化，代数不变却读到旧数据。
+ *
+ * <p>relay 模式（app.broker.mode=relay）下其他节点上的成员变化不会让本节点失效，因此不缓存，每次都直接加载。
+ */
+@Service
+public class GroupMemberCache {
+
+  @Value("${app.groupMembers.maxConversations:1000}")
+  private int maxConversations;
+
+  @Value("${app.broker.mode:simple}")
+  private String brokerMode;
+
+  @Autowired private MeterRegistry meterRegistry;
+  @Autowired private PlatformTransactionManager transactionManager;
+
+  private boolean enabled;
+  private TransactionTemplate loadTransaction;
+  private Map<Long, Preview> previews;
+  // 每次失效都递增；加载前后不一致说明加载期间有成员变化
+  private long generation;
+  private Counter hits;
+  private Counter misses;
+
+  @PostConstruct
+  public void init() {
+    this.enabled = !"relay".equalsIgnoreCase(brokerMode);
+    this.previews =
+        new LinkedHashMap<>(16, 0.75f, true) {
+          @Override
+          protected boolean removeEldestEntry(Map.Entry<Long, Preview> eldest) {
+            return size() > maxConversations;
+          }
+        };
+    this.loadTransaction = new TransactionTemplate(transactionManager);
+    this.loadTransaction.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+    this.loadTransaction.setReadOnly(true);
+    this.hits = meterRegistry.counter("chat.group_members.lookups", "result", "hit");
+    this.misses = meterRegistry.counter("chat.group_members.lookups", "result", "miss");
+  }
+
+  /** 读取会话成员预览，未命中时在新的只读事务里用 loader 从数据库加载。 */
+  public Preview get(Long conversationId, Supplier<Preview> loader) {
+    if (!enabled) {
+      misses.increment();
+      return loadTransaction.execute(status -> loader.get());
+    }
+    long startGeneration;
+    synchronized (this) {
+      Preview cached = previews.get(conversationId);
+      if (cached != null) {
+        hits.increment();
+        return cached;
+      }
+      startGeneration = generation;
+    }
+    misses.increment();
+    Preview loaded = loadTransaction.execute(status -> loader.get());
+    synchronized (this) {
+      if (generation == startGeneration) {
+        previews.put(conversationId, loaded);
+      }
+    }
+    return loaded;
+  }
+
+  /**
+   * 批量读取多个会话的成员预览，未命中的会话交给 loader 在新的只读事务里一次加载。
+   *
+   * @param loader 参数为未命中的会话 id，返回按会话 id 索引的预览
+   */
+  public Map<Long, Preview> getAll(
+      Collection<Long> conversationIds,
+      Function<Collection<Long>, Map<Long, Preview>> loader) {
+    if (!enabled) {
+      misses.increment(conversationIds.size());
+      Map<Long, Preview> loaded = loadTransaction.execute(status -> loader.apply(conversationIds));
+      Map<Long, Preview> result = new HashMap<>();
+      for (Long id : conversationIds) {
+        result.put(id, loaded.getOrDefault(id, Preview.EMPTY));
+      }
+      return result;
+    }
+    Map<Long, Preview> result = new HashMap<>();
+    List<Long> missing;
+    long startGeneration;
+    synchronized (this) {
+      for (Long id : conversationIds) {
+        Preview cached = previews.get(id);
+        if (cached != null) {
+          result.put(id, cached);
+        }
+      }
+      missing = conversationIds.stream().filter(id -> !result.containsKey(id)).toList();
+      startGeneration = generation;
+    }
+    hits.increment(result.size());
+    if (missing.isEmpty()) {
+      return result;
+    }
+    misses.increment(missing.size());
+    Map<Long, Preview> loaded = loadTransaction.execute(status -> loader.apply(missing));
+    synchronized (this) {
+      for (Long id : missing) {
+        Preview preview = loaded.getOrDefault(id, Preview.EMPTY);
+        result.put(id, preview);
+        if (generation == startGeneration) {
+          previews.put(id, preview);
+        }
+      }
+    }
+    return result;
+  }
+
+  /** 在当前事务提交后让会话的成员预览失效；没有事务时立即失效。 */
+  public void invalidateAfterCommit(Long conversationId) {
+    if (TransactionSynchronizationManager.isSynchronizationActive()) {
+      TransactionSynchronizationManager.registerSynchronization(
+          new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+              invalidate(conversationId);
+            }
+          });
+    } else {
+      invalidate(conversationId);
+    }
+  }
+
+  public void invalidate(Long conversationId) {
+    synchronized (this) {
+      generation++;
+      previews.remove(conversationId);
+    }
+  }
+
+  /**
+   * 会话的成员预览。
+   *
+   * @param firstPage 第一页成员，成员列表不可修改
+   * @param memberCount 成员总数
+   */
+  public record Preview(GroupMemberPageDto firstPage, long memberCount) {
+    static final Preview EMPTY = new Preview(new GroupMemberPageDto(List.of(), null), 0);
+  }
+}
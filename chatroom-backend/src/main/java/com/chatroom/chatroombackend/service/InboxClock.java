@@ -0,0 +1,36 @@
+package com.chatroom.chatroombackend.service;
+
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 会话列表增量同步使用的版本号。
+ *
+ * <p>混合时钟：取 max(上一个版本 + 1, 当前微秒时间戳)，在单个节点内严格递增，同时大致跟随墙上时间，
+ * 重启后也不会回退到比之前更小的值。会话、成员记录和删除墓碑都用它打版本号。
+ *
+ * <p>时钟只在节点内递增。relay 模式下多个节点各自打版本号，跨节点的顺序依赖墙上时间：游标回退的 5 秒同时覆盖
+ * 节点间的时钟偏差，各节点需要做时间同步（NTP），偏差要远小于这个窗口，否则慢节点写入的变化可能落在已返回的游标之前。
+ */
+public final class InboxClock {
+
+  // 返回给客户端的游标比当前时钟回退一段时间：事务可能在拿到版本号之后很久才提交，
+  // 回退后下一次同步会重新覆盖这段窗口，重复的概要由客户端按会话 id 覆盖即可
+  private static final long CURSOR_LAG_MICROS = 5_000_000L;
+
+  private static final AtomicLong LAST = new AtomicLong();
+
+  private InboxClock() {}
+
+  public static long next() {
+    long now = ChronoUnit.MICROS.between(Instant.EPOCH, Instant.now());
+    return LAST.updateAndGet(prev -> Math.max(prev + 1, now));
+  }
+
+  /** 可以安全交给客户端、作为下一次 since 参数的游标。 */
+  public static long cursor() {
+    long now = ChronoUnit.MICROS.between(Instant.EPOCH, Instant.now());
+    return Math.max(LAST.get(), now) - CURSOR_LAG_MICROS;
+  }
+}
@@ -0,0 +1,195 @@
+package com.chatroom.chatroombackend.service;
+
+import com.chatroom.chatroombackend.dto.InboxUpdateDto;
+import com.chatroom.chatroombackend.entity.Conversation;
+import com.chatroom.chatroombackend.entity.ConversationParticipantId;
+import com.chatroom.chatroombackend.enums.ParticipantStatus;
+import com.chatroom.chatroombackend.repository.ConversationParticipantRepository;
+import com.chatroom.chatroombackend.repository.ConversationRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 把会话列表的变化实时推送给每个成员（/user/queue/inbox）。
+ *
+ * <p>有新消息或撤回时只把会话标记为 dirty；定时任务每个窗口（app.inbox.pushIntervalMs）统一处理一次，
+ * 用两次查询取出所有 dirty 会话的最新信息和成员，再给每个成员推送一条 InboxUpdateDto。一个窗口内同一会话
+ * 无论来了多少条消息，每个成员最多收到一条推送。
+ *
+ * <p>只影响单个成员的变化（已读回执）通过 {@link #markMemberDirty(Long, Long)} 标记，只推送给该成员本人。
+ */
+@Service
+public class InboxDeltaPusher {
+
+  private static final Logger logger = LoggerFactory.getLogger(InboxDeltaPusher.class);
+
+  @Value("${app.inbox.maxConversationsPerFlush:500}")
+  private int maxConversationsPerFlush;
+
+  @Autowired private ConversationRepository conversationRepo;
+  @Autowired private ConversationParticipantRepository participantRepo;
+  @Autowired private BroadcastDispatcher broadcastDispatcher;
+  @Autowired private ConversationSummaryLoader summaryLoader;
+  @Autowired private MeterRegistry meterRegistry;
+
+  private final Set<Long> dirty = ConcurrentHashMap.newKeySet();
+  private final Set<ConversationParticipantId> dirtyMembers = ConcurrentHashMap.newKeySet();
+  private Counter pushes;
+  private Counter flushedConversations;
+
+  @PostConstruct
+  public void init() {
+    this.pushes = meterRegistry.counter("chat.inbox.pushes");
+    this.flushedConversations = meterRegistry.counter("chat.inbox.flushed_conversations");
+    meterRegistry.gauge("chat.inbox.dirty", dirty, Set::size);
+  }
+
+  /** 在当前事务提交后把会话标记为需要推送；没有事务时立即标记。 */
+  public void markDirtyAfterCommit(Long conversationId) {
+    if (TransactionSynchronizationManager.isSynchronizationActive()) {
+      TransactionSynchronizationManager.registerSynchronization(
+          new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+              dirty.add(conversationId);
+            }
+          });
+    } else {
+      dirty.add(conversationId);
+    }
+  }
+
+  public void markDirty(Long conversationId) {
+    dirty.add(conversationId);
+  }
+
+  /** 只有某个成员自己的会话行发生变化（例如已读水位），下个窗口只推送给他。 */
+  public void markMemberDirty(Long conversationId, Long userId) {
+    dirtyMembers.add(new ConversationParticipantId(conversationId, userId));
+  }
+
+  @Scheduled(fixedDelayString = "${app.inbox.pushIntervalMs:500}")
+  public void flush() {
+    List<Long> batch = new ArrayList<>();
+    Iterator<Long> it = dirty.iterator();
+    while (it.hasNext() && batch.size() < maxConversationsPerFlush) {
+      batch.add(it.next());
+      it.remove();
+    }
+    if (!batch.isEmpty()) {
+      try {
+        push(batch);
+      } catch (RuntimeException e) {
+        logger.warn("Failed to push inbox updates for {} conversations", batch.size(), e);
+      }
+    }
+
+    Set<ConversationParticipantId> members = new HashSet<>();
+    Iterator<ConversationParticipantId> memberIt = dirtyMembers.iterator();
+    while (memberIt.hasNext() && members.size() < maxConversationsPerFlush) {
+      ConversationParticipantId member = memberIt.next();
+      memberIt.remove();
+      // 整个会话本轮已经推送过，不必再单独推
+      if (!batch.contains(member.getConversationId())) {
+        members.add(member);
+      }
+    }
+    if (!members.isEmpty()) {
+      try {
+        pushMembers(members);
+      } catch (RuntimeException e) {
+        logger.warn("Failed to push inbox updates for {} members", members.size(), e);
+      }
+    }
+  }
+
+  private void push(List<Long> conversationIds) {
+    send(
+        conversationIds,
+        participantRepo.findRecipientsInConversations(conversationIds, ParticipantStatus.APPROVED));
+    flushedConversations.increment(conversationIds.size());
+  }
+
+  private void pushMembers(Set<ConversationParticipantId> members) {
+    Set<Long> conversationIds = new HashSet<>();
+    Set<Long> userIds = new HashSet<>();
+    for (ConversationParticipantId member : members) {
+      conversationIds.add(member.getConversationId());
+      userIds.add(member.getUserId());
+    }
+    // 查询结果是会话与用户的笛卡尔积范围，只保留真正标记过的成员
+    List<Object[]> rows =
+        participantRepo
+            .findRecipientsByConversationsAndUsers(
+                conversationIds, userIds, ParticipantStatus.APPROVED)
+            .stream()
+            .filter(
+                row ->
+                    members.contains(new ConversationParticipantId((Long) row[0], (Long) row[4])))
+            .toList();
+    send(conversationIds, rows);
+  }
+
+  // rows: 会话 id、用户名、已读水位、清空记录时间、用户 id
+  private void send(Collection<Long> conversationIds, List<Object[]> rows) {
+    Map<Long, Conversation> conversations = new HashMap<>();
+    conversationRepo.findAllById(conversationIds).forEach(c -> conversations.put(c.getId(), c));
+
+    List<Object[]> recipients = new ArrayList<>(rows.size());
+    List<ConversationSummaryLoader.ReadPosition> positions = new ArrayList<>(rows.size());
+    for (Object[] row : rows) {
+      Conversation c = conversations.get((Long) row[0]);
+      if (c != null) {
+        recipients.add(row);
+        positions.add(
+            new ConversationSummaryLoader.ReadPosition(
+                c.getId(), (Long) row[4], c.getLastMessageSeq(), (Long) row[2]));
+      }
+    }
+    // 与会话列表接口相同的未读数，整批最多一次查询
+    int[] unreadCounts = summaryLoader.unreadCounts(positions);
+
+    for (int i = 0; i < recipients.size(); i++) {
+      Object[] row = recipients.get(i);
+      Conversation c = conversations.get((Long) row[0]);
+      String username = (String) row[1];
+      LocalDateTime deletedHistoryAt = (LocalDateTime) row[3];
+      int unread = unreadCounts[i];
+
+      // 与会话列表接口一致：清空过聊天记录的成员不显示更早的消息
+      boolean hidden =
+          deletedHistoryAt != null
+              && c.getLastMessageAt() != null
+              && deletedHistoryAt.isAfter(c.getLastMessageAt());
+      InboxUpdateDto update =
+          new InboxUpdateDto(
+              c.getId(),
+              c.getLastMessageSeq(),
+              hidden ? " " : c.getLastMessagePreview(),
+              hidden ? null : c.getLastMessageAt(),
+              unread);
+      broadcastDispatcher.publishToUser(username, "/queue/inbox", update);
+      pushes.increment();
+    }
+  }
+}
@@ -0,0 +1,361 @@
+package com.chatroom.chatroombackend.service;
+
+import com.chatroom.chatroombackend.dto.MessageDto;
+import com.chatroom.chatroombackend.dto.MessageRequest;
+import com.chatroom.chatroombackend.entity.ConversationParticipantId;
+import com.chatroom.chatroombackend.entity.Message;
+import com.chatroom.chatroombackend.entity.User;
+import com.chatroom.chatroombackend.repository.ConversationJdbcRepository;
+import com.chatroom.chatroombackend.repository.ConversationParticipantJdbcRepository;
+import com.chatroom.chatroombackend.repository.MessageJdbcRepository;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 消息批量落库（group commit）管道。
+ *
+ * <p>开启后（app.messageIngest.mode=batched），发送请求只做校验并把消息放进有界队列，由单个写线程每隔
+ * flushIntervalMs 或攒够 batchSize 条时，在一个事务里用 JDBC batch 写入，整批只提交一次。
+ * 发送方会一直等到自己所在的批次提交成功后才拿到 MessageDto，因此返回值的语义与直接写库时相同。
+ *
+ * <p>等待超时时，只有消息仍在队列里、尚未被写线程取走，才会把它移出队列并向发送方报超时，此时消息一定不会落库，
+ * 客户端可以放心重试；已被取走的消息结果很快就会确定，发送方继续等它提交或失败，不会出现“报错了却又写进去”的重复消息。
+ *
+ * <p>STOMP 发送走 {@link #submitAsync}：不占用入站线程等待，队列满时立即拒绝，超时撤回由定时任务完成，语义与
+ * {@link #submit} 相同。
+ *
+ * <p>提交后的广播交给单独的 message-ingest-broadcast 线程按批次顺序推送，写线程只负责唤醒发送方和更新缓存，
+ * 广播通道排队时的背压（最长 app.broadcast.enqueueTimeoutMs）不会拖慢落库。交接队列满时丢弃这一批广播并记日志，
+ * 与广播通道自身满时的处理一致，消息本身已经落库，客户端可以通过补发拉回。
+ */
+@Service
+public class MessageIngestPipeline {
+
+  private static final Logger logger = LoggerFactory.getLogger(MessageIngestPipeline.class);
+
+  @Value("${app.messageIngest.mode:direct}")
+  private String mode;
+
+  @Value("${app.messageIngest.batchSize:200}")
+  private int batchSize;
+
+  @Value("${app.messageIngest.flushIntervalMs:5}")
+  private long flushIntervalMs;
+
+  @Value("${app.messageIngest.queueCapacity:10000}")
+  private int queueCapacity;
+
+  @Value("${app.messageIngest.ackTimeoutMs:5000}")
+  private long ackTimeoutMs;
+
+  @Autowired private ConversationService conversationService;
+  @Autowired private MessageJdbcRepository messageJdbcRepo;
+  @Autowired private ConversationParticipantJdbcRepository participantJdbcRepo;
+  @Autowired private ConversationJdbcRepository conversationJdbcRepo;
+  @Autowired private BroadcastDispatcher broadcastDispatcher;
+  @Autowired private RecentMessageCache recentMessageCache;
+  @Autowired private InboxDeltaPusher inboxDeltaPusher;
+  @Autowired private PlatformTransactionManager transactionManager;
+
+  private BlockingQueue<PendingMessage> queue;
+  private TransactionTemplate transactionTemplate;
+  private Thread writer;
+  private ThreadPoolExecutor broadcaster;
+  private ScheduledThreadPoolExecutor timeoutScheduler;
+  private volatile boolean running;
+
+  @PostConstruct
+  public void start() {
+    if (!isEnabled()) {
+      return;
+    }
+    this.queue = new ArrayBlockingQueue<>(queueCapacity);
+    this.transactionTemplate = new TransactionTemplate(transactionManager);
+    this.timeoutScheduler =
+        new ScheduledThreadPoolExecutor(
+            1,
+            r -> {
+              Thread t = new Thread(r, "message-ingest-timeout");
+              t.setDaemon(true);
+              return t;
+            });
+    // 大多数消息在超时前就已提交，取消的定时任务立即移出队列
+    this.timeoutScheduler.setRemoveOnCancelPolicy(true);
+    this.broadcaster =
+        new ThreadPoolExecutor(
+            1,
+            1,
+            0L,
+            TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(queueCapacity),
+            r -> {
+              Thread t = new Thread(r, "message-ingest-broadcast");
+              t.setDaemon(true);
+              return t;
+            },
+            (task, executor) ->
+                logger.warn("Broadcast hand-off queue is full, dropping broadcasts of a committed batch"));
+    this.running = true;
+    this.writer = new Thread(this::writeLoop, "message-ingest-writer");
+    this.writer.setDaemon(true);
+    this.writer.start();
+    logger.info(
+        "Message ingest pipeline started (batchSize={}, flushIntervalMs={}, queueCapacity={})",
+        batchSize,
+        flushIntervalMs,
+        queueCapacity);
+  }
+
+  /** 停机时先停止接收，再把队列里剩余的消息写完。 */
+  @PreDestroy
+  public void stop() throws InterruptedException {
+    if (writer == null) {
+      return;
+    }
+    running = false;
+    writer.join(TimeUnit.SECONDS.toMillis(10));
+    broadcaster.shutdown();
+    broadcaster.awaitTermination(5, TimeUnit.SECONDS);
+    timeoutScheduler.shutdownNow();
+  }
+
+  public boolean isEnabled() {
+    return "batched".equalsIgnoreCase(mode);
+  }
+
+  /**
+   * 校验并入队一条消息，阻塞直到其所在批次提交。
+   *
+   * @throws IllegalStateException 队列已满或等待落库超时
+   */
+  public MessageDto submit(User sender, Long conversationId, MessageRequest request) {
+    if (!running) {
+      throw new IllegalStateException("Message ingest pipeline is not running.");
+    }
+    Message message = conversationService.prepareMessage(sender, conversationId, request);
+    PendingMessage pending = new PendingMessage(message);
+    try {
+      if (!queue.offer(pending, ackTimeoutMs, TimeUnit.MILLISECONDS)) {
+        throw new IllegalStateException("Server is busy, please retry later.");
+      }
+      try {
+        return pending.result.get(ackTimeoutMs, TimeUnit.MILLISECONDS);
+      } catch (TimeoutException e) {
+        if (pending.cancel()) {
+          queue.remove(pending);
+          throw new IllegalStateException("Timed out waiting for message to be stored.", e);
+        }
+        // 写线程已取走这条消息，等它的批次提交或失败
+        return pending.result.get();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      if (pending.cancel()) {
+        queue.remove(pending);
+      }
+      throw new IllegalStateException("Interrupted while sending message.", e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof RuntimeException runtimeException) {
+        throw runtimeException;
+      }
+      throw new IllegalStateException("Failed to store message.", e.getCause());
+    }
+  }
+
+  /**
+   * 校验并入队一条消息，不等待落库，返回的 future 在其所在批次提交后完成。
+   *
+   * <p>队列已满时 future 立即以 IllegalStateException 失败；ackTimeoutMs 到期时消息若仍未被写线程取走，
+   * 则撤回并以超时失败，已被取走的消息等批次提交或失败。校验失败直接抛出。
+   */
+  public CompletableFuture<MessageDto> submitAsync(
+      User sender, Long conversationId, MessageRequest request) {
+    if (!running) {
+      throw new IllegalStateException("Message ingest pipeline is not running.");
+    }
+    Message message = conversationService.prepareMessage(sender, conversationId, request);
+    PendingMessage pending = new PendingMessage(message);
+    if (!queue.offer(pending)) {
+      return CompletableFuture.failedFuture(
+          new IllegalStateException("Server is busy, please retry later."));
+    }
+    ScheduledFuture<?> timeout =
+        timeoutScheduler.schedule(
+            () -> {
+              if (pending.cancel()) {
+                queue.remove(pending);
+                pending.result.completeExceptionally(
+                    new IllegalStateException("Timed out waiting for message to be stored."));
+              }
+            },
+            ackTimeoutMs,
+            TimeUnit.MILLISECONDS);
+    pending.result.whenComplete((dto, e) -> timeout.cancel(false));
+    // 调用方拿到副本，不能替写线程完成内部的 future
+    return pending.result.copy();
+  }
+
+  private void writeLoop() {
+    List<PendingMessage> batch = new ArrayList<>(batchSize);
+    while (running || !queue.isEmpty()) {
+      try {
+        PendingMessage first = queue.poll(flushIntervalMs, TimeUnit.MILLISECONDS);
+        if (first == null) {
+          continue;
+        }
+        batch.add(first);
+        // 在刷新窗口内尽量攒满一批
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(flushIntervalMs);
+        while (batch.size() < batchSize) {
+          queue.drainTo(batch, batchSize - batch.size());
+          long remaining = deadline - System.nanoTime();
+          if (batch.size() >= batchSize || remaining <= 0) {
+            break;
+          }
+          PendingMessage next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+          if (next != null) {
+            batch.add(next);
+          }
+        }
+        flush(batch);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        break;
+      } catch (RuntimeException e) {
+        logger.error("Unexpected error in message ingest writer", e);
+      } finally {
+        // 兜底：不让任何已取走的发送方无限等待
+        for (PendingMessage pending : batch) {
+          pending.result.completeExceptionally(
+              new IllegalStateException("Failed to store message."));
+        }
+        batch.clear();
+      }
+    }
+  }
+
+  private void flush(List<PendingMessage> batch) {
+    // 已被发送方因超时撤回的消息不再落库
+    batch.removeIf(pending -> !pending.claim());
+    if (batch.isEmpty()) {
+      return;
+    }
+    try {
+      persist(batch);
+    } catch (RuntimeException batchFailure) {
+      // 整批失败时逐条重试，避免一条坏数据拖垮同批的其他消息
+      logger.warn("Batch of {} messages failed, retrying one by one", batch.size(), batchFailure);
+      List<PendingMessage> committed = new ArrayList<>(batch.size());
+      for (PendingMessage pending : batch) {
+        try {
+          persist(List.of(pending));
+          committed.add(pending);
+        } catch (RuntimeException e) {
+          pending.result.completeExceptionally(e);
+        }
+      }
+      afterCommit(committed);
+      return;
+    }
+    afterCommit(batch);
+  }
+
+  /** 只负责写库和提交；抛出异常说明这一批没有提交，可以重试。 */
+  private void persist(List<PendingMessage> batch) {
+    List<Message> messages = batch.stream().map(p -> p.message).toList();
+    transactionTemplate.executeWithoutResult(
+        status -> {
+          messageJdbcRepo.batchInsert(messages);
+
+          // 推进发送者的已读水位（按自己最新的一条），同一会话、同一发送者只更新一次
+          Map<ConversationParticipantId, Long> senderWatermarks = new LinkedHashMap<>();
+          for (Message m : messages) {
+            senderWatermarks.merge(
+                new ConversationParticipantId(m.getConversation().getId(), m.getSender().getId()),
+                m.getSeq(),
+                Math::max);
+          }
+          participantJdbcRepo.batchAdvanceSenderWatermarks(senderWatermarks);
+          conversationJdbcRepo.advanceHeads(messages);
+        });
+  }
+
+  /**
+   * 提交成功后的副作用：唤醒发送方、更新缓存，再把广播交给广播线程。
+   *
+   * <p>消息已经落库，这里的任何异常都只记日志，不能让 {@link #flush} 把已提交的批次当成失败重试。
+   */
+  private void afterCommit(List<PendingMessage> committed) {
+    if (committed.isEmpty()) {
+      return;
+    }
+    List<MessageDto> dtos = new ArrayList<>(committed.size());
+    for (PendingMessage pending : committed) {
+      MessageDto dto = MessageDto.fromEntity(pending.message);
+      pending.result.complete(dto);
+      dtos.add(dto);
+      try {
+        recentMessageCache.append(dto);
+        inboxDeltaPusher.markDirty(dto.getConversationId());
+      } catch (RuntimeException e) {
+        logger.warn("Post-commit update failed for message {}", dto.getId(), e);
+      }
+    }
+    broadcaster.execute(() -> broadcast(dtos));
+  }
+
+  private void broadcast(List<MessageDto> dtos) {
+    for (MessageDto dto : dtos) {
+      try {
+        broadcastDispatcher.publish("/topic/conversations/" + dto.getConversationId(), dto);
+      } catch (RuntimeException e) {
+        logger.warn("Failed to broadcast message {}", dto.getId(), e);
+      }
+    }
+  }
+
+  private static final class PendingMessage {
+    private static final int QUEUED = 0;
+    private static final int CLAIMED = 1;
+    private static final int CANCELLED = 2;
+
+    private final Message message;
+    private final CompletableFuture<MessageDto> result = new CompletableFuture<>();
+    // 写线程取走（claim）与发送方撤回（cancel）互斥，只有一方能成功
+    private final AtomicInteger state = new AtomicInteger(QUEUED);
+
+    private PendingMessage(Message message) {
+      this.message = message;
+    }
+
+    private boolean claim() {
+      return state.compareAndSet(QUEUED, CLAIMED);
+    }
+
+    private boolean cancel() {
+      return state.compareAndSet(QUEUED, CANCELLED);
+    }
+  }
+}
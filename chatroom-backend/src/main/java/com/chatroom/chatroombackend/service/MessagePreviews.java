@@ -0,0 +1,99 @@
+package com.chatroom.chatroombackend.service;
+
+import com.chatroom.chatroombackend.entity.Message;
+import com.chatroom.chatroombackend.enums.MediaKind;
+import com.chatroom.chatroombackend.enums.MessageType;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * 生成会话列表里显示的最后一条消息预览。
+ *
+ * <p>预览和文件元数据在消息写入时由 {@link #populate(Message)} 计算一次并存到 messages 表（preview、media_kind、
+ * file_name、file_size），conversations.last_message_preview 直接复用；加载会话列表时不再解析消息内容。
+ */
+public final class MessagePreviews {
+
+  public static final String RECALLED = "[消息已撤回]";
+
+  private static final int MAX_LENGTH = 100;
+  private static final ObjectMapper MAPPER = new ObjectMapper();
+
+  private MessagePreviews() {}
+
+  /**
+   * 为即将写入的消息填充文件元数据与预览。文件消息的内容是前端上传后生成的 JSON：{url, name, size}，
+   * 只在这里解析一次；已带有 fileName 的消息（例如转发时从原消息复制）不会再解析。
+   */
+  public static void populate(Message message) {
+    if (message.getMessageType() == MessageType.file && message.getFileName() == null) {
+      try {
+        JsonNode rootNode = MAPPER.readTree(message.getContent());
+        if (rootNode.hasNonNull("name")) {
+          message.setFileName(truncate(rootNode.get("name").asText(), 255));
+        }
+        if (rootNode.hasNonNull("size") && rootNode.get("size").canConvertToLong()) {
+          message.setFileSize(rootNode.get("size").asLong());
+        }
+        if (message.getMediaUrl() == null
+            && rootNode.hasNonNull("url")
+            && rootNode.get("url").asText().length() <= 255) {
+          message.setMediaUrl(rootNode.get("url").asText());
+        }
+      } catch (Exception e) {
+        // 内容不是合法 JSON 时只保留通用的 [文件] 预览
+      }
+    }
+    if (message.getMessageType() == MessageType.image) {
+      message.setMediaKind(MediaKind.image);
+    } else if (message.getMessageType() == MessageType.file) {
+      message.setMediaKind(isImageFile(message.getFileName()) ? MediaKind.image : MediaKind.file);
+    }
+    message.setPreview(compute(message));
+  }
+
+  /** 消息当前应显示的预览：已撤回时为撤回提示，否则为写入时生成的预览。 */
+  public static String of(Message message) {
+    if (message.isRecalled()) {
+      return RECALLED;
+    }
+    if (message.getPreview() != null) {
+      return message.getPreview();
+    }
+    // 旧数据没有预览列，按已有的结构化字段生成，不解析内容
+    return compute(message);
+  }
+
+  public static boolean isImageFile(String fileName) {
+    if (fileName == null || fileName.isEmpty()) {
+      return false;
+    }
+    String lowerCaseName = fileName.toLowerCase();
+    return lowerCaseName.endsWith(".jpg")
+        || lowerCaseName.endsWith(".jpeg")
+        || lowerCaseName.endsWith(".png")
+        || lowerCaseName.endsWith(".gif")
+        || lowerCaseName.endsWith(".bmp")
+        || lowerCaseName.endsWith(".webp");
+  }
+
+  private static String compute(Message message) {
+    if (message.getMediaKind() == MediaKind.image) {
+      return "[图片]";
+    }
+    if (message.getMessageType() == MessageType.file) {
+      return message.getFileName() != null
+          ? truncate("[文件] " + message.getFileName(), MAX_LENGTH)
+          : "[文件]";
+    }
+    return truncate(message.getContent(), MAX_LENGTH);
+  }
+
+  private static String truncate(String text, int maxLength) {
+    if (text == null || text.length() <= maxLength) {
+      return text;
+    }
+    int end = Character.isHighSurrogate(text.charAt(maxLength - 1)) ? maxLength - 1 : maxLength;
+    return text.substring(0, end);
+  }
+}
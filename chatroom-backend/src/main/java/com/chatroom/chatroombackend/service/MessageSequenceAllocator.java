@@ -0,0 +1,147 @@
+package com.chatroom.chatroombackend.service;
+
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 为每个会话分配单调递增的消息序号（messages.seq）。
+ *
+ * <p>每个会话持有独立的 AtomicLong，分配时不需要任何全局锁；启动时从数据库恢复，启动后首次出现的会话从 0 开始即可。
+ * 事务回滚会留下空洞，客户端应把序号当作排序与缺口检测的依据，而不是消息条数。
+ *
+ * <p>恢复时取消息最大序号、成员已读水位和会话 last_message_seq 三者中的最大值：最大的几个序号可能在重启前被回滚或删除，
+ * 只看消息表会把已经发出去的序号重新分配，新消息落在别人的已读水位之下而被静默算作已读。
+ *
+ * <p>simple 模式下序号只在本进程内分配，前提是同一时刻只有一个节点在写消息。relay 模式（app.broker.mode=relay）
+ * 可以多节点同时写同一个会话，改为在 conversation_seq_counters 表里原子递增：每次分配是一个独立提交的短事务，
+ * 不持有发送事务的锁；某个会话第一次分配时按上面的规则从数据库取起点。
+ */
+@Service
+public class MessageSequenceAllocator {
+
+  private static final Logger logger = LoggerFactory.getLogger(MessageSequenceAllocator.class);
+
+  // 各会话已经用过的最大序号：消息、已读水位、会话头三者取最大
+  private static final String HEADS_SQL =
+      "SELECT conversation_id, MAX(seq) FROM ("
+          + " SELECT conversation_id, MAX(seq) AS seq FROM messages GROUP BY conversation_id"
+          + " UNION ALL SELECT conversation_id, MAX(last_read_seq) FROM conversation_participants"
+          + " GROUP BY conversation_id"
+          + " UNION ALL SELECT id, last_message_seq FROM conversations"
+          + " UNION ALL SELECT conversation_id, seq FROM conversation_seq_counters"
+          + ") h WHERE seq IS NOT NULL GROUP BY conversation_id";
+
+  // 单个会话已经用过的最大序号，relay 模式下首次分配时作为计数器起点
+  private static final String HEAD_SQL =
+      "SELECT MAX(seq) FROM ("
+          + " SELECT MAX(seq) AS seq FROM messages WHERE conversation_id = ?"
+          + " UNION ALL SELECT MAX(last_read_seq) FROM conversation_participants"
+          + " WHERE conversation_id = ?"
+          + " UNION ALL SELECT last_message_seq FROM conversations WHERE id = ?"
+          + ") h";
+
+  private static final String INCREMENT_SQL =
+      "UPDATE conversation_seq_counters SET seq = seq + 1 WHERE conversation_id = ?";
+
+  private static final String COUNTER_SQL =
+      "SELECT seq FROM conversation_seq_counters WHERE conversation_id = ?";
+
+  private static final String INSERT_COUNTER_SQL =
+      "INSERT INTO conversation_seq_counters (conversation_id, seq) VALUES (?, ?)";
+
+  // 为旧数据补齐序号：按 created_at、id 排序，接在该会话已有的最大序号之后
+  private static final String BACKFILL_SQL =
+      "UPDATE messages m"
+          + " JOIN (SELECT id, ROW_NUMBER() OVER (PARTITION BY conversation_id"
+          + " ORDER BY created_at, id) AS rn FROM messages WHERE seq IS NULL) r ON m.id = r.id"
+          + " LEFT JOIN (SELECT conversation_id, MAX(seq) AS max_seq FROM messages"
+          + " GROUP BY conversation_id) h ON m.conversation_id = h.conversation_id"
+          + " SET m.seq = COALESCE(h.max_seq, 0) + r.rn";
+
+  @Value("${app.broker.mode:simple}")
+  private String brokerMode;
+
+  @Autowired private JdbcTemplate jdbcTemplate;
+  @Autowired private PlatformTransactionManager transactionManager;
+
+  private final Map<Long, AtomicLong> heads = new ConcurrentHashMap<>();
+  // relay 模式下非空，序号改由数据库计数器分配
+  private TransactionTemplate counterTransaction;
+
+  @PostConstruct
+  public void init() {
+    Long missing =
+        jdbcTemplate.queryForObject("SELECT COUNT(*) FROM messages WHERE seq IS NULL", Long.class);
+    if (missing != null && missing > 0) {
+      int updated = jdbcTemplate.update(BACKFILL_SQL);
+      logger.info("Backfilled sequence numbers for {} messages", updated);
+    }
+
+    if ("relay".equalsIgnoreCase(brokerMode)) {
+      counterTransaction = new TransactionTemplate(transactionManager);
+      counterTransaction.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+      logger.info("Allocating message sequence numbers from the shared database counter");
+      return;
+    }
+    jdbcTemplate.query(
+        HEADS_SQL,
+        rs -> {
+          heads.put(rs.getLong(1), new AtomicLong(rs.getLong(2)));
+        });
+    logger.info("Loaded message sequence heads for {} conversations", heads.size());
+  }
+
+  /** 为指定会话分配下一个序号。 */
+  public long next(Long conversationId) {
+    if (counterTransaction != null) {
+      return nextShared(conversationId);
+    }
+    return heads.computeIfAbsent(conversationId, id -> new AtomicLong()).incrementAndGet();
+  }
+
+  /** 指定会话当前已分配的最大序号，没有消息时为 0。 */
+  public long current(Long conversationId) {
+    if (counterTransaction != null) {
+      Long seq =
+          jdbcTemplate.query(
+              COUNTER_SQL, rs -> rs.next() ? rs.getLong(1) : null, conversationId);
+      return seq != null ? seq : 0L;
+    }
+    AtomicLong head = heads.get(conversationId);
+    return head != null ? head.get() : 0L;
+  }
+
+  private long nextShared(Long conversationId) {
+    return counterTransaction.execute(
+        status -> {
+          while (true) {
+            if (jdbcTemplate.update(INCREMENT_SQL, conversationId) == 1) {
+              return jdbcTemplate.queryForObject(COUNTER_SQL, Long.class, conversationId);
+            }
+            Long head =
+                jdbcTemplate.queryForObject(
+                    HEAD_SQL, Long.class, conversationId, conversationId, conversationId);
+            long first = (head != null ? head : 0L) + 1;
+            try {
+              jdbcTemplate.update(INSERT_COUNTER_SQL, conversationId, first);
+              return first;
+            } catch (DuplicateKeyException e) {
+              // 另一个节点刚建好这个会话的计数器，回到递增
+            }
+          }
+        });
+  }
+}
@@ -0,0 +1,331 @@
+package com.chatroom.chatroombackend.service;
+
+import com.chatroom.chatroombackend.config.JwtChannelInterceptor;
+import com.chatroom.chatroombackend.dto.PresenceDto;
+import com.chatroom.chatroombackend.entity.User;
+import com.chatroom.chatroombackend.enums.FriendshipStatus;
+import com.chatroom.chatroombackend.repository.ConversationParticipantRepository;
+import com.chatroom.chatroombackend.repository.FriendshipRepository;
+import com.chatroom.chatroombackend.repository.PresenceJdbcRepository;
+import com.chatroom.chatroombackend.repository.UserJdbcRepository;
+import com.chatroom.chatroombackend.repository.UserRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.web.socket.messaging.SessionConnectedEvent;
+import org.springframework.web.socket.messaging.SessionDisconnectEvent;
+
+import java.security.Principal;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 用户在线状态（presence）。
+ *
+ * <p>在线状态只保存在内存中：STOMP 连接建立时上线，该用户的最后一个连接断开时下线；连接上收到的任何帧（包括心跳）
+ * 都会刷新最后活跃时间。users.last_active_at 不在每个事件上写，而是由定时任务批量写入。
+ *
+ * <p>上下线变化同样由定时任务合并后推送：一个窗口内断线又重连的用户不会产生推送。推送对象只有好友和有私聊的用户，
+ * 目的地为 /user/queue/presence。
+ *
+ * <p>relay 模式（app.broker.mode=relay）下同一用户可能同时连在多个节点上。各节点在推送窗口里把本节点的连接数写入
+ * presence_sessions，判断上下线时把其他节点（最近 3 个 flushInterval 内刷新过的）上的连接一并算上：只要其他节点上还有连接，
+ * 本节点最后一个连接断开也不推送下线。异常退出的节点不会推送下线，它的用户在其行过期后查询时显示为离线。
+ */
+@Service
+public class PresenceService {
+
+  private static final Logger logger = LoggerFactory.getLogger(PresenceService.class);
+
+  @Value("${app.broker.mode:simple}")
+  private String brokerMode;
+
+  @Value("${app.presence.flushIntervalMs:30000}")
+  private long flushIntervalMs;
+
+  @Autowired private FriendshipRepository friendshipRepo;
+  @Autowired private ConversationParticipantRepository participantRepo;
+  @Autowired private UserRepository userRepo;
+  @Autowired private UserJdbcRepository userJdbcRepo;
+  @Autowired private PresenceJdbcRepository presenceJdbcRepo;
+  @Autowired private BroadcastDispatcher broadcastDispatcher;
+  @Autowired private MeterRegistry meterRegistry;
+
+  // sessionId -> userId
+  private final Map<String, Long> sessionUsers = new ConcurrentHashMap<>();
+  private final Map<Long, Presence> presences = new ConcurrentHashMap<>();
+  // 等待写入数据库的最后活跃时间：userId -> epoch millis
+  private final Map<Long, Long> pendingLastActive = new ConcurrentHashMap<>();
+  // 连接数发生过变化、需要在下个窗口检查是否推送的用户
+  private final Set<Long> changed = ConcurrentHashMap.newKeySet();
+
+  // relay 模式下本节点在 presence_sessions 中的标识；simple 模式为 null
+  private String nodeId;
+  private Counter pushes;
+
+  @PostConstruct
+  public void init() {
+    if ("relay".equalsIgnoreCase(brokerMode)) {
+      this.nodeId = UUID.randomUUID().toString();
+    }
+    this.pushes = meterRegistry.counter("chat.presence.pushes");
+    meterRegistry.gauge("chat.presence.online", presences, Map::size);
+  }
+
+  @EventListener
+  public void onConnected(SessionConnectedEvent event) {
+    Principal principal = event.getUser();
+    String sessionId = SimpMessageHeaderAccessor.getSessionId(event.getMessage().getHeaders());
+    if (principal == null || sessionId == null) {
+      return;
+    }
+    Long userId = resolveUserId(event.getMessage(), principal.getName());
+    if (userId == null) {
+      return;
+    }
+    long now = System.currentTimeMillis();
+    sessionUsers.put(sessionId, userId);
+    presences.compute(
+        userId,
+        (id, p) -> {
+          Presence presence = p != null ? p : new Presence();
+          presence.sessions++;
+          presence.lastActiveMillis = now;
+          return presence;
+        });
+    pendingLastActive.put(userId, now);
+    changed.add(userId);
+  }
+
+  @EventListener
+  public void onDisconnect(SessionDisconnectEvent event) {
+    Long userId = sessionUsers.remove(event.getSessionId());
+    if (userId == null) {
+      return;
+    }
+    long now = System.currentTimeMillis();
+    presences.computeIfPresent(
+        userId,
+        (id, p) -> {
+          p.sessions = Math.max(0, p.sessions - 1);
+          p.lastActiveMillis = now;
+          return p;
+        });
+    pendingLastActive.put(userId, now);
+    changed.add(userId);
+  }
+
+  /** 连接上收到任意帧（消息、订阅、心跳）时调用，只更新内存。 */
+  public void touch(String sessionId) {
+    Long userId = sessionUsers.get(sessionId);
+    if (userId == null) {
+      return;
+    }
+    Presence presence = presences.get(userId);
+    if (presence != null) {
+      long now = System.currentTimeMillis();
+      presence.lastActiveMillis = now;
+      pendingLastActive.put(userId, now);
+    }
+  }
+
+  public boolean isOnline(Long userId) {
+    Presence presence = presences.get(userId);
+    if (presence != null && presence.sessions > 0) {
+      return true;
+    }
+    return onlineElsewhere(List.of(userId)).contains(userId);
+  }
+
+  /** 当前用户所有好友的在线状态，一次查询完成。 */
+  public List<PresenceDto> getFriendPresence(User currentUser) {
+    Map<Long, PresenceDto> result = new LinkedHashMap<>();
+    for (Object[] row :
+        friendshipRepo.findFriendPresenceRows(currentUser.getId(), FriendshipStatus.accepted)) {
+      Long friendId = (Long) row[0];
+      result.computeIfAbsent(friendId, id -> toDto(id, (LocalDateTime) row[2]));
+    }
+    List<Long> offlineHere =
+        result.values().stream().filter(dto -> !dto.isOnline()).map(PresenceDto::getUserId).toList();
+    for (Long userId : onlineElsewhere(offlineHere)) {
+      result.get(userId).setOnline(true);
+    }
+    return new ArrayList<>(result.values());
+  }
+
+  /** 把内存中累计的最后活跃时间批量写入 users 表。 */
+  @Scheduled(fixedDelayString = "${app.presence.flushIntervalMs:30000}")
+  public void flushLastActive() {
+    if (nodeId != null) {
+      LocalDateTime now = LocalDateTime.now();
+      try {
+        presenceJdbcRepo.refresh(nodeId, now, staleBefore(now));
+      } catch (RuntimeException e) {
+        logger.warn("Failed to refresh presence sessions of this node", e);
+      }
+    }
+    Map<Long, LocalDateTime> batch = new HashMap<>();
+    for (Map.Entry<Long, Long> entry : pendingLastActive.entrySet()) {
+      // 只在值没有被并发更新时移除，否则留给下一轮
+      if (pendingLastActive.remove(entry.getKey(), entry.getValue())) {
+        batch.put(entry.getKey(), toLocalDateTime(entry.getValue()));
+      }
+    }
+    if (batch.isEmpty()) {
+      return;
+    }
+    try {
+      userJdbcRepo.batchAdvanceLastActiveAt(batch);
+    } catch (RuntimeException e) {
+      logger.warn("Failed to persist last active time for {} users", batch.size(), e);
+    }
+  }
+
+  @PreDestroy
+  public void shutdown() {
+    flushLastActive();
+    if (nodeId != null) {
+      try {
+        presenceJdbcRepo.deleteNode(nodeId);
+      } catch (RuntimeException e) {
+        logger.warn("Failed to remove presence sessions of this node", e);
+      }
+    }
+  }
+
+  /** 合并一个窗口内的上下线变化，只推送状态与上次推送不同的用户。 */
+  @Scheduled(fixedDelayString = "${app.presence.pushIntervalMs:1000}")
+  public void pushChanges() {
+    List<Long> userIds = new ArrayList<>(changed);
+    changed.removeAll(userIds);
+    Set<Long> elsewhere = publishSessions(userIds);
+    for (Long userId : userIds) {
+      Presence presence = presences.get(userId);
+      if (presence == null) {
+        continue;
+      }
+      // 其他节点上还有连接时仍算在线；上线推送可能在两个节点上各发一次，客户端按最新状态覆盖即可
+      boolean online = presence.sessions > 0 || elsewhere.contains(userId);
+      if (online != presence.pushedOnline) {
+        presence.pushedOnline = online;
+        try {
+          push(userId, online, toLocalDateTime(presence.lastActiveMillis));
+        } catch (RuntimeException e) {
+          logger.warn("Failed to push presence of user {}", userId, e);
+        }
+      }
+      if (presence.sessions == 0) {
+        // 本节点上已没有连接的用户不再保留，期间如果重新连接则 sessions > 0，条目保留
+        presences.computeIfPresent(userId, (id, p) -> p.sessions == 0 ? null : p);
+      }
+    }
+  }
+
+  /**
+   * relay 模式下把本节点上这些用户的连接数写入数据库，再查出其中在其他节点上仍有连接的用户。
+   * 写入失败时按本节点的状态推送，不影响单节点行为。
+   */
+  private Set<Long> publishSessions(List<Long> userIds) {
+    if (nodeId == null || userIds.isEmpty()) {
+      return Set.of();
+    }
+    Map<Long, Integer> sessions = new HashMap<>();
+    for (Long userId : userIds) {
+      Presence presence = presences.get(userId);
+      sessions.put(userId, presence != null ? presence.sessions : 0);
+    }
+    try {
+      presenceJdbcRepo.saveSessions(nodeId, sessions, LocalDateTime.now());
+    } catch (RuntimeException e) {
+      logger.warn("Failed to publish presence sessions for {} users", sessions.size(), e);
+    }
+    return onlineElsewhere(userIds);
+  }
+
+  private Set<Long> onlineElsewhere(List<Long> userIds) {
+    if (nodeId == null || userIds.isEmpty()) {
+      return Set.of();
+    }
+    try {
+      return presenceJdbcRepo.findOnlineElsewhere(
+          userIds, nodeId, staleBefore(LocalDateTime.now()));
+    } catch (RuntimeException e) {
+      logger.warn("Failed to read presence sessions of other nodes", e);
+      return Set.of();
+    }
+  }
+
+  private LocalDateTime staleBefore(LocalDateTime now) {
+    return now.minusNanos(flushIntervalMs * 3 * 1_000_000L);
+  }
+
+  private void push(Long userId, boolean online, LocalDateTime lastActiveAt) {
+    Set<String> audience = new LinkedHashSet<>();
+    for (Object[] row : friendshipRepo.findFriendPresenceRows(userId, FriendshipStatus.accepted)) {
+      audience.add((String) row[1]);
+    }
+    audience.addAll(participantRepo.findPrivatePartnerUsernames(userId));
+
+    PresenceDto dto = new PresenceDto(userId, online, lastActiveAt);
+    for (String username : audience) {
+      broadcastDispatcher.publishToUser(username, "/queue/presence", dto);
+      pushes.increment();
+    }
+  }
+
+  private PresenceDto toDto(Long userId, LocalDateTime persistedLastActiveAt) {
+    Presence presence = presences.get(userId);
+    if (presence == null) {
+      return new PresenceDto(userId, false, persistedLastActiveAt);
+    }
+    return new PresenceDto(
+        userId, presence.sessions > 0, toLocalDateTime(presence.lastActiveMillis));
+  }
+
+  // CONNECT 时 JwtChannelInterceptor 已把用户 id 放进会话属性，取不到时再按用户名查询
+  private Long resolveUserId(Message<?> connectedMessage, String username) {
+    Object connect =
+        connectedMessage.getHeaders().get(SimpMessageHeaderAccessor.CONNECT_MESSAGE_HEADER);
+    if (connect instanceof Message<?> connectMessage) {
+      Map<String, Object> attributes =
+          SimpMessageHeaderAccessor.getSessionAttributes(connectMessage.getHeaders());
+      if (attributes != null
+          && attributes.get(JwtChannelInterceptor.SESSION_USER_ID_ATTRIBUTE) instanceof Long userId) {
+        return userId;
+      }
+    }
+    return userRepo.findByUsername(username).map(User::getId).orElse(null);
+  }
+
+  private static LocalDateTime toLocalDateTime(long epochMillis) {
+    return LocalDateTime.ofInstant(Instant.ofEpochMilli(epochMillis), ZoneId.systemDefault());
+  }
+
+  private static final class Presence {
+    // 只在 ConcurrentHashMap.compute 内修改
+    private volatile int sessions;
+    private volatile long lastActiveMillis;
+    // 只由推送任务读写
+    private boolean pushedOnline;
+  }
+}
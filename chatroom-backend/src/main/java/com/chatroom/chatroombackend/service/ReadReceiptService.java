@@ -0,0 +1,167 @@
+package com.chatroom.chatroombackend.service;
+
+import com.chatroom.chatroombackend.dto.SeenByDto;
+import com.chatroom.chatroombackend.entity.ConversationParticipantId;
+import com.chatroom.chatroombackend.enums.ParticipantStatus;
+import com.chatroom.chatroombackend.repository.ConversationParticipantJdbcRepository;
+import com.chatroom.chatroombackend.repository.ConversationParticipantRepository;
+import com.chatroom.chatroombackend.repository.ConversationRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 通过 WebSocket 上报的已读回执。
+ *
+ * <p>回执先按（用户, 会话）在内存中合并，只保留最大的序号；定时任务每个窗口（app.readReceipts.flushIntervalMs）
+ * 用一次 JDBC batch 写入所有变化，水位只前进不后退。写入后只给回执者本人推送会话列表更新。
+ *
+ * <p>写入前把水位截到会话已提交的最新序号（conversations.last_message_seq，每个窗口一次查询），
+ * 已分配但尚未提交的消息不会被提前标记为已读。
+ *
+ * <p>开启 app.readReceipts.seenByEnabled 时，有回执写入的会话每隔 app.readReceipts.seenByIntervalMs
+ * 最多广播一次最近消息的已读人数。
+ */
+@Service
+public class ReadReceiptService {
+
+  private static final Logger logger = LoggerFactory.getLogger(ReadReceiptService.class);
+
+  @Value("${app.readReceipts.seenByEnabled:true}")
+  private boolean seenByEnabled;
+
+  @Value("${app.readReceipts.seenByWindow:50}")
+  private int seenByWindow;
+
+  @Autowired private ConversationParticipantJdbcRepository participantJdbcRepo;
+  @Autowired private ConversationParticipantRepository participantRepo;
+  @Autowired private ConversationRepository conversationRepo;
+  @Autowired private InboxDeltaPusher inboxDeltaPusher;
+  @Autowired private BroadcastDispatcher broadcastDispatcher;
+  @Autowired private MeterRegistry meterRegistry;
+
+  // 等待写入的已读水位：成员 -> 序号
+  private final Map<ConversationParticipantId, Long> pending = new ConcurrentHashMap<>();
+  // 有回执写入、需要广播已读人数的会话
+  private final Set<Long> seenByDirty = ConcurrentHashMap.newKeySet();
+
+  private Counter received;
+  private Counter written;
+
+  @PostConstruct
+  public void init() {
+    this.received = meterRegistry.counter("chat.read_receipts.received");
+    this.written = meterRegistry.counter("chat.read_receipts.written");
+    meterRegistry.gauge("chat.read_receipts.pending", pending, Map::size);
+  }
+
+  /**
+   * 记录一次已读回执，只修改内存。
+   *
+   * @param seq 已读到的序号，为空表示读到最新；写入时超过会话已提交最新序号的按最新处理
+   */
+  public void record(Long userId, Long conversationId, Long seq) {
+    long target = seq == null ? Long.MAX_VALUE : seq;
+    if (target <= 0) {
+      return;
+    }
+    pending.merge(new ConversationParticipantId(conversationId, userId), target, Math::max);
+    received.increment();
+  }
+
+  /** 把窗口内合并后的回执批量写入 conversation_participants。 */
+  @Scheduled(fixedDelayString = "${app.readReceipts.flushIntervalMs:1000}")
+  @PreDestroy
+  public void flush() {
+    Map<ConversationParticipantId, Long> batch = new HashMap<>();
+    for (Map.Entry<ConversationParticipantId, Long> entry : pending.entrySet()) {
+      // 只在值没有被并发推进时移除，否则留给下一轮
+      if (pending.remove(entry.getKey(), entry.getValue())) {
+        batch.put(entry.getKey(), entry.getValue());
+      }
+    }
+    if (batch.isEmpty()) {
+      return;
+    }
+    try {
+      clampToCommittedHeads(batch);
+      participantJdbcRepo.batchMarkRead(batch);
+    } catch (RuntimeException e) {
+      // 放回去等下个窗口重试，合并取最大值，不会覆盖更新的回执
+      batch.forEach((id, seq) -> pending.merge(id, seq, Math::max));
+      logger.warn("Failed to persist {} read receipts", batch.size(), e);
+      return;
+    }
+    written.increment(batch.size());
+    for (ConversationParticipantId id : batch.keySet()) {
+      inboxDeltaPusher.markMemberDirty(id.getConversationId(), id.getUserId());
+      if (seenByEnabled) {
+        seenByDirty.add(id.getConversationId());
+      }
+    }
+  }
+
+  private void clampToCommittedHeads(Map<ConversationParticipantId, Long> batch) {
+    Set<Long> conversationIds = new HashSet<>();
+    batch.keySet().forEach(id -> conversationIds.add(id.getConversationId()));
+    Map<Long, Long> heads = new HashMap<>();
+    for (Object[] row : conversationRepo.findLastMessageSeqs(conversationIds)) {
+      if (row[1] != null) {
+        heads.put((Long) row[0], (Long) row[1]);
+      }
+    }
+    batch.replaceAll((id, seq) -> Math.min(seq, heads.getOrDefault(id.getConversationId(), 0L)));
+    batch.values().removeIf(seq -> seq <= 0);
+  }
+
+  @Scheduled(fixedDelayString = "${app.readReceipts.seenByIntervalMs:2000}")
+  public void pushSeenBy() {
+    List<Long> conversationIds = new ArrayList<>(seenByDirty);
+    seenByDirty.removeAll(conversationIds);
+    for (Long conversationId : conversationIds) {
+      try {
+        broadcastDispatcher.publish(
+            "/topic/conversations/" + conversationId + "/seen", seenBy(conversationId));
+      } catch (RuntimeException e) {
+        logger.warn("Failed to push seen-by counts of conversation {}", conversationId, e);
+      }
+    }
+  }
+
+  private SeenByDto seenBy(Long conversationId) {
+    Long committed = conversationRepo.findLastMessageSeqById(conversationId);
+    long head = committed != null ? committed : 0L;
+    long fromSeq = Math.max(1L, head - seenByWindow + 1);
+    TreeMap<Long, Long> membersAtSeq = new TreeMap<>();
+    for (Object[] row :
+        participantRepo.countReadersBySeq(conversationId, ParticipantStatus.APPROVED, fromSeq)) {
+      membersAtSeq.put((Long) row[0], (Long) row[1]);
+    }
+    // 从高水位往低累加：水位不低于 seq 的成员数
+    List<SeenByDto.Entry> entries = new ArrayList<>(membersAtSeq.size());
+    long readers = 0;
+    for (Map.Entry<Long, Long> entry : membersAtSeq.descendingMap().entrySet()) {
+      readers += entry.getValue();
+      entries.add(new SeenByDto.Entry(entry.getKey(), readers));
+    }
+    Collections.reverse(entries);
+    return new SeenByDto(conversationId, entries);
+  }
+}
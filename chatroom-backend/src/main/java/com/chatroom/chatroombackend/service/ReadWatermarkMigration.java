@@ -0,0 +1,45 @@
+package com.chatroom.chatroombackend.service;
+
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.DependsOn;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+/**
+ * 把旧的 unread_count 换算成已读水位 last_read_seq。
+ *
+ * <p>未读数改为“会话最新序号 - last_read_seq”后，unread_count 不再随消息更新。对还没有水位的成员，
+ * 令 last_read_seq = 最新序号 - unread_count，迁移前后看到的未读数保持一致。
+ * 依赖消息序号已补齐，所以排在 MessageSequenceAllocator 之后执行。
+ */
+@Component
+@DependsOn("messageSequenceAllocator")
+public class ReadWatermarkMigration {
+
+  private static final Logger logger = LoggerFactory.getLogger(ReadWatermarkMigration.class);
+
+  private static final String MIGRATE_SQL =
+      "UPDATE conversation_participants p"
+          + " LEFT JOIN (SELECT conversation_id, MAX(seq) AS max_seq FROM messages"
+          + " GROUP BY conversation_id) h ON p.conversation_id = h.conversation_id"
+          + " SET p.last_read_seq ="
+          + " GREATEST(COALESCE(h.max_seq, 0) - COALESCE(p.unread_count, 0), 0)"
+          + " WHERE p.last_read_seq IS NULL";
+
+  @Autowired private JdbcTemplate jdbcTemplate;
+
+  @PostConstruct
+  public void migrate() {
+    Long pending =
+        jdbcTemplate.queryForObject(
+            "SELECT COUNT(*) FROM conversation_participants WHERE last_read_seq IS NULL",
+            Long.class);
+    if (pending != null && pending > 0) {
+      int updated = jdbcTemplate.update(MIGRATE_SQL);
+      logger.info("Migrated unread_count to last_read_seq for {} participants", updated);
+    }
+  }
+}
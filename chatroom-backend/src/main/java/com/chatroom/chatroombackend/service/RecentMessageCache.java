@@ -0,0 +1,224 @@
+package com.chatroom.chatroombackend.service;
+
+import com.chatroom.chatroombackend.dto.MessageDto;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * 每个会话最近消息的内存缓存（hot tail）。
+ *
+ * <p>每个会话保留最新的 perConversation 条 MessageDto，按 seq 排序；会话之间按 LRU 淘汰，最多保留
+ * maxConversations 个。sendMessage / recallMessage 在事务提交后更新缓存，历史消息接口优先从这里读取。
+ *
+ * <p>一个会话的缓存在首次从数据库加载（seed）之前只收集新消息，不对外提供读取；加载结果与这期间收集到的消息合并，
+ * 这样加载与发送并发时也不会漏掉消息。
+ *
+ * <p>relay 模式（app.broker.mode=relay）下其他节点写入的消息和撤回不会更新本节点的缓存，因此缓存整体停用：
+ * {@link #get(Long)} 总是未命中，{@link #seed} 只把加载结果排好序原样返回。
+ */
+@Service
+public class RecentMessageCache {
+
+  @Value("${app.recentMessages.perConversation:50}")
+  private int perConversation;
+
+  @Value("${app.recentMessages.maxConversations:2000}")
+  private int maxConversations;
+
+  @Value("${app.broker.mode:simple}")
+  private String brokerMode;
+
+  @Autowired private MeterRegistry meterRegistry;
+
+  private boolean enabled;
+  private Map<Long, Tail> tails;
+  private Counter hits;
+  private Counter misses;
+  private Counter evictions;
+
+  @PostConstruct
+  public void init() {
+    this.enabled = !"relay".equalsIgnoreCase(brokerMode);
+    this.tails =
+        new LinkedHashMap<>(16, 0.75f, true) {
+          @Override
+          protected boolean removeEldestEntry(Map.Entry<Long, Tail> eldest) {
+            if (size() > maxConversations) {
+              evictions.increment();
+              return true;
+            }
+            return false;
+          }
+        };
+    this.hits = meterRegistry.counter("chat.recent_messages.lookups", "result", "hit");
+    this.misses = meterRegistry.counter("chat.recent_messages.lookups", "result", "miss");
+    this.evictions = meterRegistry.counter("chat.recent_messages.evictions");
+    meterRegistry.gauge("chat.recent_messages.conversations", this, RecentMessageCache::size);
+  }
+
+  public int getPerConversation() {
+    return perConversation;
+  }
+
+  /**
+   * 读取某个会话缓存的最近消息（按 seq 升序）。
+   *
+   * @return 缓存未命中（或尚未加载）时返回 null
+   */
+  public Snapshot get(Long conversationId) {
+    if (!enabled) {
+      misses.increment();
+      return null;
+    }
+    synchronized (this) {
+      Tail tail = tails.get(conversationId);
+      if (tail == null || !tail.seeded) {
+        misses.increment();
+        return null;
+      }
+      hits.increment();
+      return new Snapshot(new ArrayList<>(tail.bySeq.values()), tail.complete);
+    }
+  }
+
+  /**
+   * 用数据库中最新的一批消息初始化某个会话的缓存。
+   *
+   * @param latest 按 seq 任意顺序的最新消息，最多 perConversation 条
+   * @param complete latest 是否已经是该会话的全部消息
+   * @return 合并后的缓存快照
+   */
+  public Snapshot seed(Long conversationId, List<MessageDto> latest, boolean complete) {
+    if (!enabled) {
+      List<MessageDto> sorted = new ArrayList<>(latest);
+      sorted.sort(Comparator.comparing(MessageDto::getSeq));
+      return new Snapshot(sorted, complete);
+    }
+    synchronized (this) {
+      Tail tail = tails.computeIfAbsent(conversationId, id -> new Tail());
+      if (!tail.seeded) {
+        for (MessageDto dto : latest) {
+          tail.bySeq.putIfAbsent(dto.getSeq(), dto);
+        }
+        tail.seeded = true;
+        tail.complete = complete;
+        trim(tail);
+      }
+      return new Snapshot(new ArrayList<>(tail.bySeq.values()), tail.complete);
+    }
+  }
+
+  /** 在当前事务提交后追加一条新消息；没有事务时立即追加。 */
+  public void appendAfterCommit(MessageDto dto) {
+    runAfterCommit(() -> append(dto));
+  }
+
+  public void append(MessageDto dto) {
+    if (!enabled || dto.getSeq() == null) {
+      return;
+    }
+    synchronized (this) {
+      Tail tail = tails.computeIfAbsent(dto.getConversationId(), id -> new Tail());
+      tail.bySeq.put(dto.getSeq(), dto);
+      trim(tail);
+    }
+  }
+
+  /** 在当前事务提交后把缓存中的消息标记为已撤回。 */
+  public void markRecalledAfterCommit(Long conversationId, Long messageId) {
+    runAfterCommit(() -> markRecalled(conversationId, messageId));
+  }
+
+  public void markRecalled(Long conversationId, Long messageId) {
+    if (!enabled) {
+      return;
+    }
+    synchronized (this) {
+      Tail tail = tails.get(conversationId);
+      if (tail == null) {
+        return;
+      }
+      tail.bySeq.replaceAll(
+          (seq, dto) -> {
+            if (!messageId.equals(dto.getId())) {
+              return dto;
+            }
+            return new MessageDto(
+                dto.getId(),
+                dto.getConversationId(),
+                dto.getSeq(),
+                null,
+                dto.getTimestamp(),
+                dto.getSender(),
+                dto.getMessageType(),
+                dto.getRepliedMessage(),
+                true);
+          });
+    }
+  }
+
+  /** 在当前事务提交后移除会话的缓存尾部；没有事务时立即移除。 */
+  public void invalidateAfterCommit(Long conversationId) {
+    runAfterCommit(() -> invalidate(conversationId));
+  }
+
+  public void invalidate(Long conversationId) {
+    synchronized (this) {
+      tails.remove(conversationId);
+    }
+  }
+
+  private int size() {
+    synchronized (this) {
+      return tails.size();
+    }
+  }
+
+  private void trim(Tail tail) {
+    while (tail.bySeq.size() > perConversation) {
+      tail.bySeq.pollFirstEntry();
+      tail.complete = false;
+    }
+  }
+
+  private void runAfterCommit(Runnable action) {
+    if (TransactionSynchronizationManager.isSynchronizationActive()) {
+      TransactionSynchronizationManager.registerSynchronization(
+          new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+              action.run();
+            }
+          });
+    } else {
+      action.run();
+    }
+  }
+
+  /**
+   * 缓存内容的快照。
+   *
+   * @param messages 按 seq 升序排列的消息
+   * @param complete 是否包含了该会话的全部消息；为 false 时更早的消息需要查数据库
+   */
+  public record Snapshot(List<MessageDto> messages, boolean complete) {}
+
+  private static final class Tail {
+    private final TreeMap<Long, MessageDto> bySeq = new TreeMap<>();
+    private boolean seeded;
+    private boolean complete;
+  }
+}
@@ -0,0 +1,119 @@
+package com.chatroom.chatroombackend.service;
+
+import com.chatroom.chatroombackend.dto.TypingSnapshotDto;
+import com.chatroom.chatroombackend.entity.User;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * "正在输入"状态，只保存在内存中，不读写数据库。
+ *
+ * <p>每个会话一个 Room，记录正在输入的成员及其过期时间（app.typing.ttlMs）。输入事件只修改内存并把 Room 标记为
+ * dirty；定时任务每个窗口（app.typing.broadcastIntervalMs）扫描一次有人在输入的会话，移除过期的成员，状态有变化时
+ * 广播一份完整快照。所以无论多少人同时输入，每个会话每个窗口最多广播一次。
+ */
+@Service
+public class TypingIndicatorService {
+
+  @Value("${app.typing.ttlMs:5000}")
+  private long ttlMs;
+
+  @Value("${app.typing.maxListed:5}")
+  private int maxListed;
+
+  @Autowired private BroadcastDispatcher broadcastDispatcher;
+  @Autowired private MeterRegistry meterRegistry;
+
+  // 只包含当前有人在输入（或刚刚停止、尚未广播）的会话
+  private final Map<Long, Room> rooms = new ConcurrentHashMap<>();
+  private Counter broadcasts;
+
+  @PostConstruct
+  public void init() {
+    this.broadcasts = meterRegistry.counter("chat.typing.broadcasts");
+    meterRegistry.gauge("chat.typing.rooms", rooms, Map::size);
+  }
+
+  /** 成员开始（或继续）输入；只有新出现的成员会触发广播，续期不会。 */
+  public void start(Long conversationId, User user) {
+    long expiresAt = System.currentTimeMillis() + ttlMs;
+    // 在 rooms 的 compute 内修改，与 flush 中移除空 Room 的操作互斥
+    rooms.compute(
+        conversationId,
+        (id, room) -> {
+          Room target = room != null ? room : new Room();
+          Typist previous =
+              target.typists.put(
+                  user.getId(), new Typist(user.getId(), user.getNickname(), expiresAt));
+          if (previous == null) {
+            target.dirty = true;
+          }
+          return target;
+        });
+  }
+
+  /** 成员停止输入，或者已经把消息发出去了。 */
+  public void stop(Long conversationId, Long userId) {
+    rooms.computeIfPresent(
+        conversationId,
+        (id, room) -> {
+          if (room.typists.remove(userId) != null) {
+            room.dirty = true;
+          }
+          return room;
+        });
+  }
+
+  @Scheduled(fixedRateString = "${app.typing.broadcastIntervalMs:300}")
+  public void flush() {
+    long now = System.currentTimeMillis();
+    List<TypingSnapshotDto> snapshots = new ArrayList<>();
+    for (Long conversationId : rooms.keySet()) {
+      rooms.computeIfPresent(
+          conversationId,
+          (id, room) -> {
+            boolean expired = room.typists.values().removeIf(t -> t.expiresAt() <= now);
+            if (expired || room.dirty) {
+              room.dirty = false;
+              snapshots.add(snapshot(id, room));
+            }
+            // 没人在输入时移除 Room，最后一次（空）快照照常发出
+            return room.typists.isEmpty() ? null : room;
+          });
+    }
+    // 在 compute 之外发送，不占用 rooms 的锁
+    for (TypingSnapshotDto snapshot : snapshots) {
+      broadcastDispatcher.publish(
+          "/topic/conversations/" + snapshot.getConversationId() + "/typing", snapshot);
+      broadcasts.increment();
+    }
+  }
+
+  private TypingSnapshotDto snapshot(Long conversationId, Room room) {
+    List<TypingSnapshotDto.Typist> listed =
+        room.typists.values().stream()
+            .sorted(Comparator.comparingLong(Typist::expiresAt))
+            .limit(maxListed)
+            .map(t -> new TypingSnapshotDto.Typist(t.userId(), t.nickname()))
+            .toList();
+    return new TypingSnapshotDto(conversationId, listed, room.typists.size());
+  }
+
+  private record Typist(Long userId, String nickname, long expiresAt) {}
+
+  private static final class Room {
+    private final Map<Long, Typist> typists = new ConcurrentHashMap<>();
+    private boolean dirty;
+  }
+}
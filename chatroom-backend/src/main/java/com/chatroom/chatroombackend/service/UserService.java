@@ -9,7 +9,6 @@ import com.chatroom.chatroombackend.repository.ConversationParticipantRepository
 import com.chatroom.chatroombackend.repository.ConversationRepository;
 import com.chatroom.chatroombackend.repository.UserRepository;
 import lombok.RequiredArgsConstructor;
-import org.springframework.messaging.simp.SimpMessagingTemplate;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 import org.springframework.web.multipart.MultipartFile;
@@ -22,9 +21,10 @@ public class UserService {
 
   private final UserRepository userRepository;
   private final StorageService storageService;
-  private final SimpMessagingTemplate messagingTemplate;
+  private final BroadcastDispatcher broadcastDispatcher;
   private final ConversationRepository conversationRepository;
   private final ConversationParticipantRepository participantRepository;
+  private final GroupMemberCache groupMemberCache;
 
   @Transactional
   public User updateNickname(User currentUser, String newNickname) {
@@ -49,6 +49,11 @@ public class UserService {
     // 1. 创建通知 DTO
     UserProfileUpdateDto updateDto = UserProfileUpdateDto.fromUser(updatedUser);
 
+    // (核心新增) 成员列表里带有昵称和头像，资料变化后让该用户所在会话的缓存失效
+    participantRepository
+        .findConversationIdsByUserId(updatedUser.getId())
+        .forEach(groupMemberCache::invalidateAfterCommit);
+
     // 2. 查找该用户参与的所有会话
     List<Conversation> conversations =
         conversationRepository.findConversationsByParticipantAndType(
@@ -65,7 +70,7 @@ public class UserService {
                       if (!participant.getUser().getId().equals(updatedUser.getId())) {
                         String destination =
                             "/topic/user/" + participant.getUser().getId() + "/profile";
-                        messagingTemplate.convertAndSend(destination, updateDto);
+                        broadcastDispatcher.publish(destination, updateDto);
                       }
                     }));
   }
@@ -0,0 +1,257 @@
+package com.chatroom.chatroombackend.cluster;
+
+import com.chatroom.chatroombackend.ChatroomBackendApplication;
+import com.chatroom.chatroombackend.config.JwtTokenProvider;
+import com.chatroom.chatroombackend.entity.Conversation;
+import com.chatroom.chatroombackend.entity.ConversationParticipant;
+import com.chatroom.chatroombackend.entity.User;
+import com.chatroom.chatroombackend.enums.ConversationType;
+import com.chatroom.chatroombackend.repository.ConversationParticipantRepository;
+import com.chatroom.chatroombackend.repository.ConversationRepository;
+import com.chatroom.chatroombackend.repository.MessageRepository;
+import com.chatroom.chatroombackend.repository.UserRepository;
+import org.apache.activemq.artemis.core.config.impl.ConfigurationImpl;
+import org.apache.activemq.artemis.core.server.embedded.EmbeddedActiveMQ;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.web.servlet.context.ServletWebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.messaging.converter.MappingJackson2MessageConverter;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.messaging.simp.stomp.StompFrameHandler;
+import org.springframework.messaging.simp.stomp.StompHeaders;
+import org.springframework.messaging.simp.stomp.StompSession;
+import org.springframework.messaging.simp.stomp.StompSessionHandlerAdapter;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.userdetails.UserDetailsService;
+import org.springframework.web.socket.WebSocketHttpHeaders;
+import org.springframework.web.socket.client.standard.StandardWebSocketClient;
+import org.springframework.web.socket.messaging.WebSocketStompClient;
+
+import java.lang.reflect.Type;
+import java.net.ServerSocket;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongConsumer;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * 在同一个 JVM 里启动内嵌 Artemis 和两个后端节点（cluster-test profile），验证 relay 模式下跨节点投递，
+ * 以及两个节点同时向同一个会话发消息时序号不重复。
+ */
+class ClusterFanOutTests {
+
+    private static EmbeddedActiveMQ broker;
+    private static final List<ConfigurableApplicationContext> nodes = new ArrayList<>();
+
+    @BeforeAll
+    static void startCluster() throws Exception {
+        int stompPort = freePort();
+        ConfigurationImpl config = new ConfigurationImpl();
+        config.setPersistenceEnabled(false);
+        config.setSecurityEnabled(false);
+        String dataDir = Files.createTempDirectory("artemis").toString();
+        config.setJournalDirectory(dataDir + "/journal");
+        config.setBindingsDirectory(dataDir + "/bindings");
+        config.setLargeMessagesDirectory(dataDir + "/largemessages");
+        config.setPagingDirectory(dataDir + "/paging");
+        config.addAcceptorConfiguration(
+                "stomp",
+                "tcp://127.0.0.1:" + stompPort + "?protocols=STOMP;anycastPrefix=/queue/;multicastPrefix=/topic/");
+        broker = new EmbeddedActiveMQ();
+        broker.setConfiguration(config);
+        broker.start();
+
+        for (int i = 0; i < 2; i++) {
+            nodes.add(new SpringApplicationBuilder(ChatroomBackendApplication.class)
+                    .profiles("cluster-test")
+                    .run("--app.broker.relay.port=" + stompPort));
+        }
+    }
+
+    @AfterAll
+    static void stopCluster() throws Exception {
+        nodes.forEach(ConfigurableApplicationContext::close);
+        if (broker != null) {
+            broker.stop();
+        }
+    }
+
+    @Test
+    void topicMessagePublishedOnOneNodeReachesSubscriberOnAnother() throws Exception {
+        StompSession session = connect(nodes.get(1), user("cluster-topic"));
+        BlockingQueue<Map<String, Object>> received = subscribe(session, "/topic/conversations/4242");
+
+        publishUntilReceived(
+                received, sentAt -> template(nodes.get(0)).convertAndSend("/topic/conversations/4242", Map.of("sentAt", sentAt)));
+
+        session.disconnect();
+    }
+
+    @Test
+    void userQueueMessageIsResolvedByTheNodeHoldingTheSession() throws Exception {
+        String username = user("cluster-user");
+        StompSession session = connect(nodes.get(1), username);
+        BlockingQueue<Map<String, Object>> received = subscribe(session, "/user/queue/inbox");
+
+        publishUntilReceived(
+                received, sentAt -> template(nodes.get(0)).convertAndSendToUser(username, "/queue/inbox", Map.of("sentAt", sentAt)));
+
+        session.disconnect();
+    }
+
+    @Test
+    void membersSendingToTheSameConversationFromBothNodesGetDistinctSeqs() throws Exception {
+        String alice = user("cluster-alice");
+        String bob = user("cluster-bob");
+        Long conversationId = groupOf(alice, bob);
+        String topic = "/topic/conversations/" + conversationId;
+
+        StompSession onA = connect(nodes.get(0), alice);
+        StompSession onB = connect(nodes.get(1), bob);
+        BlockingQueue<Map<String, Object>> receivedOnA = subscribe(onA, topic);
+        BlockingQueue<Map<String, Object>> receivedOnB = subscribe(onB, topic);
+        // 两个订阅都到达 broker 之后再开始发送
+        publishUntilReceived(receivedOnA, sentAt -> template(nodes.get(0)).convertAndSend(topic, Map.of("sentAt", sentAt)));
+        publishUntilReceived(receivedOnB, sentAt -> template(nodes.get(0)).convertAndSend(topic, Map.of("sentAt", sentAt)));
+        receivedOnA.clear();
+        receivedOnB.clear();
+
+        int perNode = 25;
+        Thread sendFromB = new Thread(() -> send(onB, conversationId, "bob", perNode));
+        sendFromB.start();
+        send(onA, conversationId, "alice", perNode);
+        sendFromB.join();
+
+        // 两个节点都收到全部消息，序号互不相同且没有空洞
+        Set<Long> expected = LongStream.rangeClosed(1, 2L * perNode).boxed().collect(Collectors.toSet());
+        assertThat(seqs(receivedOnA, 2 * perNode)).isEqualTo(expected);
+        assertThat(seqs(receivedOnB, 2 * perNode)).isEqualTo(expected);
+        assertThat(nodes.get(0).getBean(MessageRepository.class).findAll())
+                .filteredOn(message -> message.getConversation().getId().equals(conversationId))
+                .hasSize(2 * perNode);
+        onA.disconnect();
+        onB.disconnect();
+    }
+
+    private static void send(StompSession session, Long conversationId, String prefix, int count) {
+        for (int i = 0; i < count; i++) {
+            session.send("/app/conversations/" + conversationId + "/send", Map.of("content", prefix + "-" + i));
+        }
+    }
+
+    private static Set<Long> seqs(BlockingQueue<Map<String, Object>> received, int count) throws InterruptedException {
+        Set<Long> seqs = new HashSet<>();
+        int messages = 0;
+        while (messages < count) {
+            Map<String, Object> message = received.poll(15, TimeUnit.SECONDS);
+            assertThat(message).as("broadcast %d of %d", messages + 1, count).isNotNull();
+            // 跳过清空队列后才到达的探测消息
+            if (message.containsKey("seq")) {
+                seqs.add(((Number) message.get("seq")).longValue());
+                messages++;
+            }
+        }
+        return seqs;
+    }
+
+    private Long groupOf(String... usernames) {
+        UserRepository users = nodes.get(0).getBean(UserRepository.class);
+        Conversation conversation = new Conversation();
+        conversation.setType(ConversationType.GROUP);
+        conversation.setName("cluster-group");
+        conversation = nodes.get(0).getBean(ConversationRepository.class).save(conversation);
+        ConversationParticipantRepository participants = nodes.get(0).getBean(ConversationParticipantRepository.class);
+        for (String username : usernames) {
+            participants.save(new ConversationParticipant(conversation, users.findByUsername(username).orElseThrow()));
+        }
+        return conversation.getId();
+    }
+
+    /**
+     * 订阅经 relay 到达 broker 是异步的，这里每 200ms 重发一次，直到收到为止。
+     */
+    private void publishUntilReceived(BlockingQueue<Map<String, Object>> received, LongConsumer publish)
+            throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(15);
+        while (System.nanoTime() < deadline) {
+            publish.accept(System.nanoTime());
+            Map<String, Object> message = received.poll(200, TimeUnit.MILLISECONDS);
+            if (message != null) {
+                assertThat(message).containsKey("sentAt");
+                return;
+            }
+        }
+        assertThat(received).as("message delivered across nodes").isNotEmpty();
+    }
+
+    private String user(String username) {
+        UserRepository users = nodes.get(0).getBean(UserRepository.class);
+        if (users.findByUsername(username).isEmpty()) {
+            User user = new User();
+            user.setUsername(username);
+            user.setNickname(username);
+            user.setEmail(username + "@example.com");
+            user.setPassword("secret");
+            users.save(user);
+        }
+        return username;
+    }
+
+    private StompSession connect(ConfigurableApplicationContext node, String username) throws Exception {
+        var userDetails = node.getBean(UserDetailsService.class).loadUserByUsername(username);
+        String token = node.getBean(JwtTokenProvider.class).generateAccessToken(
+                new UsernamePasswordAuthenticationToken(userDetails, null, userDetails.getAuthorities()));
+        StompHeaders connectHeaders = new StompHeaders();
+        connectHeaders.add("Authorization", "Bearer " + token);
+
+        WebSocketStompClient client = new WebSocketStompClient(new StandardWebSocketClient());
+        client.setMessageConverter(new MappingJackson2MessageConverter());
+        int port = ((ServletWebServerApplicationContext) node).getWebServer().getPort();
+        return client.connectAsync(
+                        "ws://127.0.0.1:" + port + "/ws/websocket",
+                        new WebSocketHttpHeaders(),
+                        connectHeaders,
+                        new StompSessionHandlerAdapter() {})
+                .get(10, TimeUnit.SECONDS);
+    }
+
+    private BlockingQueue<Map<String, Object>> subscribe(StompSession session, String destination) {
+        BlockingQueue<Map<String, Object>> received = new LinkedBlockingQueue<>();
+        session.subscribe(destination, new StompFrameHandler() {
+            @Override
+            public Type getPayloadType(StompHeaders headers) {
+                return Map.class;
+            }
+
+            @Override
+            @SuppressWarnings("unchecked")
+            public void handleFrame(StompHeaders headers, Object payload) {
+                received.add((Map<String, Object>) payload);
+            }
+        });
+        return received;
+    }
+
+    private SimpMessagingTemplate template(ConfigurableApplicationContext node) {
+        return node.getBean(SimpMessagingTemplate.class);
+    }
+
+    private static int freePort() throws Exception {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+}
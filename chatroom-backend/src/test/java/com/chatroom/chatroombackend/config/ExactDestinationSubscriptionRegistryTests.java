@@ -0,0 +1,121 @@
+package com.chatroom.chatroombackend.config;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.simp.broker.DefaultSubscriptionRegistry;
+import org.springframework.messaging.simp.broker.SubscriptionRegistry;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.util.MultiValueMap;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ExactDestinationSubscriptionRegistryTests {
+
+    private final ExactDestinationSubscriptionRegistry registry = new ExactDestinationSubscriptionRegistry();
+    private final DefaultSubscriptionRegistry reference = new DefaultSubscriptionRegistry();
+
+    @Test
+    void exactAndWildcardSubscriptionsAreFound() {
+        subscribe("s1", "a", "/topic/conversations/1");
+        subscribe("s1", "b", "/topic/conversations/2");
+        subscribe("s2", "a", "/topic/conversations/1");
+        subscribe("s3", "a", "/topic/conversations/*");
+        subscribe("s4", "a", "/topic/**");
+
+        assertThat(find(registry, "/topic/conversations/1"))
+                .isEqualTo(Map.of("s1", Set.of("a"), "s2", Set.of("a"), "s3", Set.of("a"), "s4", Set.of("a")));
+        assertThat(find(registry, "/topic/presence"))
+                .isEqualTo(Map.of("s4", Set.of("a")));
+        assertThat(find(registry, "/queue/other")).isEmpty();
+    }
+
+    @Test
+    void unsubscribeAndDisconnectRemoveOnlyTheirOwnSubscriptions() {
+        subscribe("s1", "a", "/topic/conversations/1");
+        subscribe("s1", "b", "/topic/conversations/*");
+        subscribe("s2", "a", "/topic/conversations/1");
+
+        unsubscribe("s1", "a");
+        assertThat(find(registry, "/topic/conversations/1"))
+                .isEqualTo(Map.of("s1", Set.of("b"), "s2", Set.of("a")));
+
+        registry.unregisterAllSubscriptions("s1");
+        assertThat(find(registry, "/topic/conversations/1")).isEqualTo(Map.of("s2", Set.of("a")));
+
+        // 重复退订、未知会话断线都不影响其他订阅
+        unsubscribe("s1", "a");
+        registry.unregisterAllSubscriptions("unknown");
+        assertThat(find(registry, "/topic/conversations/1")).isEqualTo(Map.of("s2", Set.of("a")));
+    }
+
+    @Test
+    void randomOperationsMatchDefaultRegistry() {
+        Random random = new Random(42);
+        List<String> destinations = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            destinations.add("/topic/conversations/" + i);
+        }
+        List<String> subscribable = new ArrayList<>(destinations);
+        subscribable.addAll(List.of("/topic/conversations/*", "/topic/**", "/topic/conversations/{id}"));
+        Map<String, Integer> nextSubscriptionId = new HashMap<>();
+
+        for (int step = 0; step < 5000; step++) {
+            String sessionId = "session-" + random.nextInt(100);
+            int op = random.nextInt(10);
+            if (op < 7) {
+                String subscriptionId = "sub-" + nextSubscriptionId.merge(sessionId, 1, Integer::sum);
+                subscribe(sessionId, subscriptionId, subscribable.get(random.nextInt(subscribable.size())));
+            } else if (op < 9) {
+                unsubscribe(sessionId, "sub-" + (1 + random.nextInt(nextSubscriptionId.getOrDefault(sessionId, 1))));
+            } else {
+                registry.unregisterAllSubscriptions(sessionId);
+                reference.unregisterAllSubscriptions(sessionId);
+            }
+
+            if (step % 100 == 0) {
+                for (String destination : destinations) {
+                    assertThat(find(registry, destination)).isEqualTo(find(reference, destination));
+                }
+            }
+        }
+    }
+
+    private void subscribe(String sessionId, String subscriptionId, String destination) {
+        Message<byte[]> message = message(SimpMessageType.SUBSCRIBE, sessionId, subscriptionId, destination);
+        registry.registerSubscription(message);
+        reference.registerSubscription(message);
+    }
+
+    private void unsubscribe(String sessionId, String subscriptionId) {
+        Message<byte[]> message = message(SimpMessageType.UNSUBSCRIBE, sessionId, subscriptionId, null);
+        registry.unregisterSubscription(message);
+        reference.unregisterSubscription(message);
+    }
+
+    private static Map<String, Set<String>> find(SubscriptionRegistry registry, String destination) {
+        MultiValueMap<String, String> found =
+                registry.findSubscriptions(message(SimpMessageType.MESSAGE, null, null, destination));
+        Map<String, Set<String>> result = new HashMap<>();
+        found.forEach((sessionId, ids) -> result.put(sessionId, new HashSet<>(ids)));
+        return result;
+    }
+
+    private static Message<byte[]> message(
+            SimpMessageType type, String sessionId, String subscriptionId, String destination) {
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.create(type);
+        accessor.setSessionId(sessionId);
+        accessor.setSubscriptionId(subscriptionId);
+        accessor.setDestination(destination);
+        return MessageBuilder.createMessage(new byte[0], accessor.getMessageHeaders());
+    }
+}
@@ -0,0 +1,102 @@
+package com.chatroom.chatroombackend.config;
+
+import com.chatroom.chatroombackend.ChatroomBackendApplication;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.web.servlet.context.ServletWebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.Locale;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * 用原始 HTTP 握手验证不经过 SockJS 的 /ws-native 端点：客户端请求 permessage-deflate 时协商压缩，不请求时不压缩。
+ */
+class NativeWebSocketEndpointTests {
+
+    private static ConfigurableApplicationContext node;
+
+    @BeforeAll
+    static void startNode() {
+        node = new SpringApplicationBuilder(ChatroomBackendApplication.class)
+                .profiles("cluster-test")
+                .run("--app.broker.mode=simple", "--spring.datasource.url=jdbc:h2:mem:native-endpoint;MODE=MySQL;DATABASE_TO_LOWER=TRUE");
+    }
+
+    @AfterAll
+    static void stopNode() {
+        if (node != null) {
+            node.close();
+        }
+    }
+
+    @Test
+    void clientOfferingDeflateGetsPerMessageCompression() throws Exception {
+        List<String> response = handshake("/ws-native", "permessage-deflate; client_max_window_bits");
+
+        assertThat(response.get(0)).contains("101");
+        assertThat(header(response, "sec-websocket-extensions")).startsWith("permessage-deflate");
+        assertThat(header(response, "sec-websocket-protocol")).isEqualTo("v12.stomp");
+    }
+
+    @Test
+    void clientWithoutDeflateGetsUncompressedConnection() throws Exception {
+        List<String> response = handshake("/ws-native", null);
+
+        assertThat(response.get(0)).contains("101");
+        assertThat(header(response, "sec-websocket-extensions")).isNull();
+    }
+
+    private static List<String> handshake(String path, String extensions) throws Exception {
+        int port = ((ServletWebServerApplicationContext) node).getWebServer().getPort();
+        try (Socket socket = new Socket("127.0.0.1", port)) {
+            socket.setSoTimeout(10_000);
+            StringBuilder request = new StringBuilder()
+                    .append("GET ").append(path).append(" HTTP/1.1\r\n")
+                    .append("Host: 127.0.0.1:").append(port).append("\r\n")
+                    .append("Origin: http://localhost:5173\r\n")
+                    .append("Upgrade: websocket\r\n")
+                    .append("Connection: Upgrade\r\n")
+                    .append("Sec-WebSocket-Version: 13\r\n")
+                    .append("Sec-WebSocket-Key: ")
+                    .append(Base64.getEncoder().encodeToString("native-endpoint!".getBytes(StandardCharsets.US_ASCII)))
+                    .append("\r\n")
+                    .append("Sec-WebSocket-Protocol: v12.stomp, v11.stomp, v10.stomp\r\n");
+            if (extensions != null) {
+                request.append("Sec-WebSocket-Extensions: ").append(extensions).append("\r\n");
+            }
+            request.append("\r\n");
+            OutputStream out = socket.getOutputStream();
+            out.write(request.toString().getBytes(StandardCharsets.US_ASCII));
+            out.flush();
+
+            BufferedReader reader = new BufferedReader(
+                    new InputStreamReader(socket.getInputStream(), StandardCharsets.US_ASCII));
+            List<String> lines = new ArrayList<>();
+            for (String line = reader.readLine(); line != null && !line.isEmpty(); line = reader.readLine()) {
+                lines.add(line);
+            }
+            return lines;
+        }
+    }
+
+    private static String header(List<String> response, String name) {
+        return response.stream()
+                .skip(1)
+                .filter(line -> line.toLowerCase(Locale.ROOT).startsWith(name + ":"))
+                .map(line -> line.substring(line.indexOf(':') + 1).trim())
+                .findFirst()
+                .orElse(null);
+    }
+}
@@ -0,0 +1,208 @@
+package com.chatroom.chatroombackend.config;
+
+import com.chatroom.chatroombackend.dto.MessageDto;
+import com.chatroom.chatroombackend.dto.MessagePageDto;
+import com.chatroom.chatroombackend.service.CborPayloadEncoder;
+import com.chatroom.chatroombackend.service.ConversationService;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.simp.broker.SimpleBrokerMessageHandler;
+import org.springframework.messaging.support.ExecutorSubscribableChannel;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.LongStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.awaitility.Awaitility.await;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class SubscriptionReplayInterceptorTests {
+
+    private static final String DESTINATION = "/topic/conversations/7";
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final ConversationService conversationService = mock(ConversationService.class);
+    private final SimpleBrokerMessageHandler broker = mock(SimpleBrokerMessageHandler.class);
+    private final ExecutorService outboundExecutor = Executors.newFixedThreadPool(8);
+    private final ExecutorSubscribableChannel clientInbound = new ExecutorSubscribableChannel();
+    private final ExecutorSubscribableChannel clientOutbound = new ExecutorSubscribableChannel(outboundExecutor);
+
+    // 出站处理器收到的帧：sessionId -> 按处理顺序的 seq
+    private final Map<String, List<Long>> delivered = new HashMap<>();
+    private final Map<String, CountDownLatch> stalled = new HashMap<>();
+    private SubscriptionReplayInterceptor interceptor;
+
+    @BeforeEach
+    void setUp() {
+        interceptor = new SubscriptionReplayInterceptor(
+                provider(conversationService), provider(mock(CborPayloadEncoder.class)),
+                provider(clientOutbound), objectMapper, new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(interceptor, "maxMessages", 200);
+        ReflectionTestUtils.setField(interceptor, "maxBufferedLive", 10_000);
+        clientOutbound.addInterceptor(interceptor);
+        for (String session : List.of("s1", "slow", "fast")) {
+            delivered.put(session, new CopyOnWriteArrayList<>());
+        }
+        clientOutbound.subscribe(message -> {
+            String sessionId = SimpMessageHeaderAccessor.getSessionId(message.getHeaders());
+            CountDownLatch latch = stalled.get(sessionId);
+            if (latch != null) {
+                try {
+                    latch.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            // 模拟写 socket 的耗时，让通道线程之间有机会交错
+            LockSupport.parkNanos(100_000);
+            delivered.get(sessionId).add(seq(message));
+        });
+    }
+
+    @AfterEach
+    void tearDown() {
+        stalled.values().forEach(CountDownLatch::countDown);
+        outboundExecutor.shutdownNow();
+    }
+
+    @Test
+    void liveMessagesSentDuringReplayArriveAfterTheLastReplayedFrame() throws Exception {
+        when(conversationService.getMessageHistory(any(), eq(7L), isNull(), eq(5L), anyInt()))
+                .thenAnswer(invocation -> {
+                    Thread.sleep(50);
+                    return page(6, 105);
+                });
+        Message<byte[]> subscribe = subscribe("s1", 5);
+        interceptor.preSend(subscribe, clientInbound);
+
+        // broker 登记订阅之后实时消息持续到达，覆盖读取补发、发送补发和放行暂存的整个过程
+        Thread live = new Thread(() -> {
+            for (long seq = 106; seq <= 405; seq++) {
+                clientOutbound.send(live("s1", seq));
+                LockSupport.parkNanos(200_000);
+            }
+        });
+        live.start();
+        interceptor.afterMessageHandled(subscribe, clientInbound, broker, null);
+        live.join();
+
+        await().atMost(10, TimeUnit.SECONDS).until(() -> delivered.get("s1").size() >= 400);
+        List<Long> seqs = delivered.get("s1");
+        assertThat(seqs.subList(0, 100)).containsExactlyElementsOf(range(6, 105));
+        assertThat(seqs).containsExactlyInAnyOrderElementsOf(range(6, 405));
+        assertThat((Map<?, ?>) ReflectionTestUtils.getField(interceptor, "replaying")).isEmpty();
+    }
+
+    @Test
+    void stalledSessionDoesNotHoldBackAnotherSessionsReplay() {
+        when(conversationService.getMessageHistory(any(), eq(7L), isNull(), eq(5L), anyInt()))
+                .thenReturn(page(6, 10));
+        stalled.put("slow", new CountDownLatch(1));
+        for (String session : List.of("slow", "fast")) {
+            Message<byte[]> subscribe = subscribe(session, 5);
+            interceptor.preSend(subscribe, clientInbound);
+            interceptor.afterMessageHandled(subscribe, clientInbound, broker, null);
+        }
+
+        // 慢会话的第一帧卡在通道线程里，另一个会话的补发照常完成
+        await().atMost(2, TimeUnit.SECONDS).until(() -> delivered.get("fast").size() == 5);
+        assertThat(delivered.get("slow")).isEmpty();
+
+        stalled.get("slow").countDown();
+        await().atMost(2, TimeUnit.SECONDS).until(() -> delivered.get("slow").size() == 5);
+        assertThat(delivered.get("slow")).containsExactlyElementsOf(range(6, 10));
+
+        // 每个会话的有序通道在断开时移除
+        @SuppressWarnings("unchecked")
+        Map<String, MessageChannel> ordered =
+                (Map<String, MessageChannel>) ReflectionTestUtils.getField(interceptor, "orderedOutbound");
+        assertThat(ordered).containsOnlyKeys("slow", "fast");
+        for (String session : List.of("slow", "fast")) {
+            interceptor.preSend(disconnect(session), clientInbound);
+        }
+        assertThat(ordered).isEmpty();
+    }
+
+    private Message<byte[]> subscribe(String sessionId, long lastSeenSeq) {
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.create(SimpMessageType.SUBSCRIBE);
+        accessor.setSessionId(sessionId);
+        accessor.setSubscriptionId("sub-0");
+        accessor.setDestination(DESTINATION);
+        accessor.setNativeHeader(SubscriptionReplayInterceptor.LAST_SEEN_SEQ_HEADER, String.valueOf(lastSeenSeq));
+        Map<String, Object> attributes = new HashMap<>();
+        attributes.put(JwtChannelInterceptor.SESSION_USER_ID_ATTRIBUTE, 1L);
+        accessor.setSessionAttributes(attributes);
+        return MessageBuilder.createMessage(new byte[0], accessor.getMessageHeaders());
+    }
+
+    private static Message<byte[]> disconnect(String sessionId) {
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.create(SimpMessageType.DISCONNECT);
+        accessor.setSessionId(sessionId);
+        return MessageBuilder.createMessage(new byte[0], accessor.getMessageHeaders());
+    }
+
+    // broker 推给订阅的实时消息
+    private Message<byte[]> live(String sessionId, long seq) {
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.create(SimpMessageType.MESSAGE);
+        accessor.setSessionId(sessionId);
+        accessor.setSubscriptionId("sub-0");
+        accessor.setDestination(DESTINATION);
+        try {
+            return MessageBuilder.createMessage(
+                    objectMapper.writeValueAsBytes(Map.of("seq", seq)), accessor.getMessageHeaders());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private long seq(Message<?> message) {
+        try {
+            return objectMapper.readTree((byte[]) message.getPayload()).get("seq").asLong();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static MessagePageDto page(long from, long to) {
+        List<MessageDto> messages = LongStream.rangeClosed(from, to)
+                .mapToObj(seq -> new MessageDto(1000 + seq, 7L, seq, "message " + seq, null, null, null, null, false))
+                .toList();
+        return new MessagePageDto(messages, from, to, false);
+    }
+
+    private static List<Long> range(long from, long to) {
+        return LongStream.rangeClosed(from, to).boxed().toList();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> ObjectProvider<T> provider(T bean) {
+        ObjectProvider<T> provider = mock(ObjectProvider.class);
+        when(provider.getObject()).thenReturn(bean);
+        return provider;
+    }
+}
@@ -0,0 +1,172 @@
+package com.chatroom.chatroombackend.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.messaging.simp.broker.SimpleBrokerMessageHandler;
+import org.springframework.messaging.support.ExecutorSubscribableChannel;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.awaitility.Awaitility.await;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+
+class BroadcastDispatcherTests {
+
+    private final BroadcastDispatcher dispatcher = new BroadcastDispatcher();
+    private final SimpMessagingTemplate messagingTemplate = mock(SimpMessagingTemplate.class);
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    // 实际发出的负载（JSON 文本）与发送线程
+    private final List<String> sent = new CopyOnWriteArrayList<>();
+    private final List<String> senderThreads = new CopyOnWriteArrayList<>();
+    private final CountDownLatch releaseLane = new CountDownLatch(1);
+
+    private void start(long enqueueTimeoutMs) {
+        configure(messagingTemplate, 1, 2, enqueueTimeoutMs);
+        // 第一条发送卡住通道线程，直到测试放行
+        doAnswer(invocation -> {
+            Message<?> message = invocation.getArgument(1);
+            sent.add(new String((byte[]) message.getPayload(), StandardCharsets.UTF_8));
+            senderThreads.add(Thread.currentThread().getName());
+            releaseLane.await(5, TimeUnit.SECONDS);
+            return null;
+        }).when(messagingTemplate).send(anyString(), any(Message.class));
+        dispatcher.init();
+    }
+
+    private void configure(SimpMessagingTemplate template, int lanes, int capacity, long enqueueTimeoutMs) {
+        ReflectionTestUtils.setField(dispatcher, "laneCount", lanes);
+        ReflectionTestUtils.setField(dispatcher, "queueCapacity", capacity);
+        ReflectionTestUtils.setField(dispatcher, "enqueueTimeoutMs", enqueueTimeoutMs);
+        ReflectionTestUtils.setField(dispatcher, "messagingTemplate", template);
+        ReflectionTestUtils.setField(dispatcher, "objectMapper", new ObjectMapper());
+        ReflectionTestUtils.setField(dispatcher, "cborPayloadEncoder", mock(CborPayloadEncoder.class));
+        ReflectionTestUtils.setField(dispatcher, "meterRegistry", meterRegistry);
+    }
+
+    @AfterEach
+    void tearDown() throws InterruptedException {
+        releaseLane.countDown();
+        dispatcher.shutdown();
+    }
+
+    @Test
+    void payloadIsEncodedOnceAndSharedAcrossThousandSubscriberSessions() {
+        // 真实的 SimpleBroker：所有通道同步执行，推给各会话的帧都落到 frames 里
+        List<Message<?>> frames = new CopyOnWriteArrayList<>();
+        ExecutorSubscribableChannel clientInbound = new ExecutorSubscribableChannel();
+        ExecutorSubscribableChannel clientOutbound = new ExecutorSubscribableChannel();
+        ExecutorSubscribableChannel brokerChannel = new ExecutorSubscribableChannel();
+        clientOutbound.subscribe(frames::add);
+        SimpleBrokerMessageHandler broker =
+                new SimpleBrokerMessageHandler(clientInbound, clientOutbound, brokerChannel, List.of("/topic"));
+        broker.start();
+        for (int i = 0; i < 1000; i++) {
+            subscribe(broker, "session-" + i, "/topic/conversations/1");
+        }
+        for (int user = 2; user <= 11; user++) {
+            subscribe(broker, "profile-" + user, "/topic/user/" + user + "/profile");
+        }
+        frames.clear();
+        configure(new SimpMessagingTemplate(brokerChannel), 4, 100, 1000);
+        dispatcher.init();
+
+        dispatcher.publish("/topic/conversations/1", Map.of("content", "hello", "seq", 1));
+        await().atMost(5, TimeUnit.SECONDS).until(() -> frames.size() == 1000);
+        // 1000 个会话拿到的是同一个 byte[]，没有逐会话复制或重新序列化
+        Object shared = frames.get(0).getPayload();
+        assertThat(frames).allSatisfy(frame -> assertThat(frame.getPayload()).isSameAs(shared));
+        assertThat(meterRegistry.counter("chat.broadcast.encodings").count()).isEqualTo(1);
+
+        // 与 UserService 的资料更新相同：同一事务里把同一个对象发往 10 个目的地，提交后只编码一次
+        frames.clear();
+        Map<String, Object> profile = Map.of("id", 1, "nickname", "Alice");
+        TransactionSynchronizationManager.initSynchronization();
+        try {
+            for (int user = 2; user <= 11; user++) {
+                dispatcher.publish("/topic/user/" + user + "/profile", profile);
+            }
+            List<TransactionSynchronization> synchronizations = TransactionSynchronizationManager.getSynchronizations();
+            synchronizations.forEach(TransactionSynchronization::afterCommit);
+            synchronizations.forEach(sync -> sync.afterCompletion(TransactionSynchronization.STATUS_COMMITTED));
+        } finally {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+        await().atMost(5, TimeUnit.SECONDS).until(() -> frames.size() == 10);
+        Object profileBytes = frames.get(0).getPayload();
+        assertThat(frames).allSatisfy(frame -> assertThat(frame.getPayload()).isSameAs(profileBytes));
+        assertThat(meterRegistry.counter("chat.broadcast.encodings").count()).isEqualTo(2);
+        broker.stop();
+    }
+
+    private static void subscribe(SimpleBrokerMessageHandler broker, String sessionId, String destination) {
+        SimpMessageHeaderAccessor connect = SimpMessageHeaderAccessor.create(SimpMessageType.CONNECT);
+        connect.setSessionId(sessionId);
+        broker.handleMessage(MessageBuilder.createMessage(new byte[0], connect.getMessageHeaders()));
+        SimpMessageHeaderAccessor subscribe = SimpMessageHeaderAccessor.create(SimpMessageType.SUBSCRIBE);
+        subscribe.setSessionId(sessionId);
+        subscribe.setSubscriptionId("sub-0");
+        subscribe.setDestination(destination);
+        broker.handleMessage(MessageBuilder.createMessage(new byte[0], subscribe.getMessageHeaders()));
+    }
+
+    @Test
+    void saturatedLaneBlocksPublisherAndKeepsPerDestinationOrder() throws Exception {
+        start(5_000);
+        // 通道卡住期间队列很快被填满，之后的发布都要等待
+        Thread releaser = new Thread(() -> {
+            await().atMost(5, TimeUnit.SECONDS)
+                    .until(() -> meterRegistry.counter("chat.broadcast.blocked").count() > 0);
+            releaseLane.countDown();
+        });
+        releaser.start();
+
+        for (int i = 0; i < 20; i++) {
+            dispatcher.publish("/topic/conversations/1", i);
+        }
+        releaser.join();
+
+        await().atMost(5, TimeUnit.SECONDS).until(() -> sent.size() == 20);
+        assertThat(sent).containsExactlyElementsOf(IntStream.range(0, 20).mapToObj(String::valueOf).toList());
+        // 发送全部发生在通道线程上，发布线程只等待、不代为发送
+        assertThat(senderThreads).allMatch(name -> name.startsWith("broadcast-"));
+        assertThat(meterRegistry.counter("chat.broadcast.dropped").count()).isZero();
+    }
+
+    @Test
+    void batchesThatCannotBeQueuedInTimeAreDroppedNotRunOnCaller() {
+        start(20);
+        for (int i = 0; i < 10; i++) {
+            dispatcher.publish("/topic/conversations/1", i);
+        }
+        releaseLane.countDown();
+
+        double dropped = meterRegistry.counter("chat.broadcast.dropped").count();
+        assertThat(dropped).isPositive();
+        await().atMost(5, TimeUnit.SECONDS).until(() -> sent.size() == 10 - (int) dropped);
+        // 没被丢弃的事件仍按发布顺序发出
+        List<Integer> delivered = sent.stream().map(Integer::valueOf).toList();
+        assertThat(delivered).isSorted();
+        assertThat(senderThreads).allMatch(name -> name.startsWith("broadcast-"));
+    }
+}
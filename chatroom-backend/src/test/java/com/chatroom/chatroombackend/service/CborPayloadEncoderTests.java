@@ -0,0 +1,134 @@
+package com.chatroom.chatroombackend.service;
+
+import com.chatroom.chatroombackend.dto.InboxUpdateDto;
+import com.chatroom.chatroombackend.dto.MessageDto;
+import com.chatroom.chatroombackend.dto.RecallNotificationDto;
+import com.chatroom.chatroombackend.enums.MessageType;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class CborPayloadEncoderTests {
+
+    private static final LocalDateTime SENT_AT = LocalDateTime.of(2025, 3, 14, 9, 26, 53, 589_000_000);
+
+    private final CborPayloadEncoder encoder = new CborPayloadEncoder();
+    private ObjectMapper json;
+
+    @BeforeEach
+    void setUp() {
+        // 与 Spring Boot 默认配置一致：JSON 里的时间是 ISO 字符串
+        json = bootBuilder().build();
+        ReflectionTestUtils.setField(encoder, "objectMapperBuilder", bootBuilder());
+        ReflectionTestUtils.setField(encoder, "objectMapper", json);
+        ReflectionTestUtils.setField(encoder, "meterRegistry", new SimpleMeterRegistry());
+        encoder.init();
+    }
+
+    private static Jackson2ObjectMapperBuilder bootBuilder() {
+        return Jackson2ObjectMapperBuilder.json().featuresToDisable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
+    }
+
+    @Test
+    void everyCorpusPayloadIsSmallerThanJson() throws Exception {
+        long jsonTotal = 0;
+        long cborTotal = 0;
+        for (Object payload : corpus()) {
+            int jsonSize = json.writeValueAsBytes(payload).length;
+            int cborSize = encoder.encode(payload).length;
+            assertThat(cborSize).as("%s", payload).isLessThan(jsonSize);
+            jsonTotal += jsonSize;
+            cborTotal += cborSize;
+        }
+        // 字段名和 ISO 时间串是主要开销，整体至少省下一成
+        assertThat(cborTotal).isLessThan(jsonTotal * 9 / 10);
+    }
+
+    @Test
+    void timestampsAreEpochMillisAndRoundTrip() throws Exception {
+        MessageDto message = textMessage(7L, "下午三点开会，别忘了带电脑");
+        byte[] cbor = encoder.encode(message);
+
+        JsonNode tree = encoder.getCborMapper().readTree(cbor);
+        long epochMillis = SENT_AT.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        assertThat(tree.get("timestamp").isIntegralNumber()).isTrue();
+        assertThat(tree.get("timestamp").asLong()).isEqualTo(epochMillis);
+        assertThat(encoder.getCborMapper().readValue(cbor, MessageDto.class)).isEqualTo(message);
+
+        InboxUpdateDto inbox = new InboxUpdateDto(3L, 7L, "下午三点开会", SENT_AT, 2);
+        JsonNode inboxTree = encoder.getCborMapper().readTree(encoder.encode(inbox));
+        assertThat(inboxTree.get("lastMessageTimestamp").asLong()).isEqualTo(epochMillis);
+    }
+
+    @Test
+    void transcodedJsonIsEncodedOncePerPayload() throws Exception {
+        byte[] payload = json.writeValueAsBytes(new RecallNotificationDto(3L, 1002L));
+
+        byte[] first = encoder.transcode(payload);
+        assertThat(encoder.transcode(payload)).isSameAs(first);
+        assertThat(encoder.getCborMapper().readTree(first)).isEqualTo(json.readTree(payload));
+    }
+
+    /** 按实际推送构造的负载：各类消息、撤回通知、会话列表变化和通知 Map。 */
+    private static List<Object> corpus() {
+        MessageDto reply = textMessage(12L, "收到，我这边改完再提交");
+        reply.setRepliedMessage(new MessageDto.RepliedMessageInfo(1011L, "Alice", "PR 里那个分页游标有问题吗？"));
+        MessageDto image = textMessage(13L, "https://cdn.example.com/chat/2025/03/14/3f9c2a.png");
+        image.setMessageType(MessageType.image);
+        MessageDto recalled = textMessage(14L, null);
+        recalled.setRecalled(true);
+
+        Map<String, Object> friendRequest = new LinkedHashMap<>();
+        friendRequest.put("type", "FRIEND_REQUEST");
+        friendRequest.put("friendshipId", 88L);
+        friendRequest.put("requesterId", 5L);
+        friendRequest.put("requesterName", "Bob");
+        friendRequest.put("requesterAvatarUrl", "https://cdn.example.com/avatars/5.png");
+        friendRequest.put("timestamp", 1_741_915_613_589L);
+        Map<String, Object> invitation = new LinkedHashMap<>();
+        invitation.put("type", "GROUP_INVITATION");
+        invitation.put("groupId", 3L);
+        invitation.put("groupUuid", "0b6f1c9e-6a51-4c1e-9f3e-2f1f6b0f7d21");
+        invitation.put("groupName", "后端小组");
+        invitation.put("inviterId", 1L);
+        invitation.put("inviterName", "Alice");
+        invitation.put("timestamp", 1_741_915_613_589L);
+
+        return List.of(
+                textMessage(10L, "ok"),
+                textMessage(11L, "The migration finished on staging, can someone double-check the inbox counts?"),
+                reply,
+                image,
+                recalled,
+                new RecallNotificationDto(3L, 1014L),
+                new InboxUpdateDto(3L, 14L, "收到，我这边改完再提交", SENT_AT, 4),
+                friendRequest,
+                invitation);
+    }
+
+    private static MessageDto textMessage(long seq, String content) {
+        return new MessageDto(
+                1000L + seq,
+                3L,
+                seq,
+                content,
+                SENT_AT,
+                new MessageDto.SenderDto(1L, "Alice", "https://cdn.example.com/avatars/1.png"),
+                MessageType.text,
+                null,
+                false);
+    }
+}
@@ -0,0 +1,278 @@
+package com.chatroom.chatroombackend.service;
+
+import com.chatroom.chatroombackend.dto.ConversationSummaryDto;
+import com.chatroom.chatroombackend.entity.Conversation;
+import com.chatroom.chatroombackend.entity.ConversationParticipant;
+import com.chatroom.chatroombackend.entity.ConversationParticipantId;
+import com.chatroom.chatroombackend.entity.Message;
+import com.chatroom.chatroombackend.entity.User;
+import com.chatroom.chatroombackend.enums.ConversationType;
+import com.chatroom.chatroombackend.enums.MessageType;
+import com.chatroom.chatroombackend.repository.ConversationJdbcRepository;
+import com.chatroom.chatroombackend.repository.ConversationParticipantJdbcRepository;
+import com.chatroom.chatroombackend.repository.MessageJdbcRepository;
+import jakarta.persistence.EntityManagerFactory;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.test.autoconfigure.orm.jpa.TestEntityManager;
+import org.springframework.context.annotation.Import;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+// 实体里有 MySQL 专用的列定义（ENUM、TINYINT(1)），H2 需要以 MySQL 兼容模式运行
+@DataJpaTest(
+        properties = {
+            "spring.datasource.url=jdbc:h2:mem:summaries;MODE=MySQL;DATABASE_TO_LOWER=TRUE",
+            "spring.datasource.driver-class-name=org.h2.Driver",
+            "spring.datasource.username=sa",
+            "spring.datasource.password=",
+            "spring.jpa.hibernate.ddl-auto=create-drop",
+            "spring.jpa.properties.hibernate.dialect=org.hibernate.dialect.H2Dialect",
+            "spring.jpa.properties.hibernate.generate_statistics=true",
+            "spring.jpa.show-sql=false"
+        })
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+@Import({
+        ConversationSummaryLoader.class,
+        MessageJdbcRepository.class,
+        ConversationParticipantJdbcRepository.class,
+        ConversationJdbcRepository.class
+})
+class ConversationSummaryLoaderTests {
+
+    @Autowired private ConversationSummaryLoader loader;
+    @Autowired private TestEntityManager entityManager;
+    @Autowired private EntityManagerFactory entityManagerFactory;
+    @Autowired private JdbcTemplate jdbcTemplate;
+    @Autowired private ConversationParticipantJdbcRepository participantJdbcRepo;
+    @Autowired private ConversationJdbcRepository conversationJdbcRepo;
+
+    @Test
+    void inboxQueryCountDoesNotGrowWithConversationCount() {
+        long small = countInboxQueries("small", 5);
+        long large = countInboxQueries("large", 500);
+
+        assertThat(small).isLessThanOrEqualTo(3);
+        assertThat(large).isEqualTo(small);
+    }
+
+    @Test
+    void inboxUsesPartnerNameAndLatestMessage() {
+        User me = user("alice");
+        User partner = user("bob");
+        Conversation chat = conversation(ConversationType.PRIVATE, null);
+        participant(chat, me);
+        participant(chat, partner);
+        message(chat, partner, 1, "hello");
+        message(chat, partner, 2, "world");
+        entityManager.flush();
+        entityManager.clear();
+
+        List<ConversationSummaryDto> inbox = loader.loadInbox(me);
+
+        assertThat(inbox).hasSize(1);
+        assertThat(inbox.get(0).getName()).isEqualTo("bob");
+        assertThat(inbox.get(0).getLastMessageContent()).isEqualTo("world");
+    }
+
+    @Test
+    void unreadCountFollowsCommittedHead() {
+        User me = user("carol");
+        User partner = user("dave");
+        Conversation chat = conversation(ConversationType.PRIVATE, null);
+        participant(chat, me);
+        participant(chat, partner);
+        message(chat, partner, 2, "second");
+        Message latest = message(chat, partner, 3, "third");
+        entityManager.flush();
+        // 序号 4、5 已分配但未提交：会话头仍停在 3，我的已读水位是 1
+        jdbcTemplate.update(
+                "UPDATE conversations SET last_message_id = ?, last_message_seq = 3,"
+                        + " last_message_preview = 'third', last_message_at = ? WHERE id = ?",
+                latest.getId(),
+                latest.getCreatedAt(),
+                chat.getId());
+        jdbcTemplate.update(
+                "UPDATE conversation_participants SET last_read_seq = 1 WHERE conversation_id = ? AND user_id = ?",
+                chat.getId(),
+                me.getId());
+        entityManager.clear();
+
+        assertThat(loader.loadInbox(me)).singleElement()
+                .satisfies(dto -> assertThat(dto.getUnreadCount()).isEqualTo(2));
+        assertThat(ConversationSummaryLoader.unreadCount(3L, 5L)).isZero();
+        assertThat(ConversationSummaryLoader.unreadCount(null, null)).isZero();
+    }
+
+    @Test
+    void unreadCountSkipsSeqHolesAndOwnMessages() {
+        User me = user("erin");
+        User partner = user("frank");
+        Conversation chat = conversation(ConversationType.PRIVATE, null);
+        participant(chat, me);
+        participant(chat, partner);
+        // 序号 3 回滚留下空洞；4 是我在 2 提交前发出的
+        message(chat, partner, 2, "second");
+        message(chat, me, 4, "fourth");
+        Message latest = message(chat, partner, 5, "fifth");
+        entityManager.flush();
+        head(chat, latest);
+        watermark(chat, me, 1);
+        entityManager.clear();
+
+        assertThat(loader.loadInbox(me)).singleElement()
+                .satisfies(dto -> assertThat(dto.getUnreadCount()).isEqualTo(2));
+
+        // 差距超过核对上限时按 head - watermark 估算
+        Object limit = ReflectionTestUtils.getField(loader, "exactCountLimit");
+        ReflectionTestUtils.setField(loader, "exactCountLimit", 3);
+        try {
+            assertThat(loader.loadInbox(me)).singleElement()
+                    .satisfies(dto -> assertThat(dto.getUnreadCount()).isEqualTo(4));
+        } finally {
+            ReflectionTestUtils.setField(loader, "exactCountLimit", limit);
+        }
+    }
+
+    @Test
+    void lowerSeqCommittedAfterTheSendersMessageIsUnreadForTheSender() {
+        User alice = user("grace");
+        User bob = user("heidi");
+        Conversation group = conversation(ConversationType.GROUP, "watermarks");
+        participant(group, alice);
+        participant(group, bob);
+        Message fourth = message(group, alice, 4, "fourth");
+        entityManager.flush();
+        head(group, fourth);
+        watermark(group, alice, 4);
+        watermark(group, bob, 4);
+
+        // alice 分到 5、bob 分到 6，bob 先提交：bob 的水位停在已提交的 4，自己的 6 不算未读
+        commit(message(group, bob, 6, "sixth"));
+        assertThat(unread(bob)).isZero();
+
+        // alice 的 5 随后提交，对 bob 是未读；alice 的水位推进到 5，bob 的 6 对她仍是未读
+        commit(message(group, alice, 5, "fifth"));
+        assertThat(unread(bob)).isEqualTo(1);
+        assertThat(unread(alice)).isEqualTo(1);
+
+        // 前面没有空缺时发送者的水位推进到自己的序号
+        commit(message(group, bob, 7, "seventh"));
+        assertThat(unread(bob)).isZero();
+        assertThat(unread(alice)).isEqualTo(2);
+    }
+
+    // 与发送路径相同的顺序：写入消息，推进发送者水位，再推进会话头
+    private void commit(Message message) {
+        entityManager.flush();
+        participantJdbcRepo.batchAdvanceSenderWatermarks(Map.of(
+                new ConversationParticipantId(message.getConversation().getId(), message.getSender().getId()),
+                message.getSeq()));
+        conversationJdbcRepo.advanceHeads(List.of(message));
+    }
+
+    private int unread(User user) {
+        entityManager.clear();
+        return loader.loadInbox(user).get(0).getUnreadCount();
+    }
+
+    private void head(Conversation conversation, Message latest) {
+        jdbcTemplate.update(
+                "UPDATE conversations SET last_message_id = ?, last_message_seq = ?,"
+                        + " last_message_preview = ?, last_message_at = ? WHERE id = ?",
+                latest.getId(),
+                latest.getSeq(),
+                latest.getContent(),
+                latest.getCreatedAt(),
+                conversation.getId());
+    }
+
+    private void watermark(Conversation conversation, User user, long seq) {
+        jdbcTemplate.update(
+                "UPDATE conversation_participants SET last_read_seq = ? WHERE conversation_id = ? AND user_id = ?",
+                seq,
+                conversation.getId(),
+                user.getId());
+    }
+
+    /** 为一个新用户建立 count 个会话（私聊、群聊各半，一半带最后一条消息冗余字段），返回加载首页时的语句数。 */
+    private long countInboxQueries(String prefix, int count) {
+        User me = user(prefix + "-me");
+        for (int i = 0; i < count; i++) {
+            boolean isPrivate = i % 2 == 0;
+            Conversation c =
+                    conversation(
+                            isPrivate ? ConversationType.PRIVATE : ConversationType.GROUP,
+                            isPrivate ? null : prefix + "-group-" + i);
+            participant(c, me);
+            User author = me;
+            if (isPrivate) {
+                author = user(prefix + "-partner-" + i);
+                participant(c, author);
+            }
+            Message m = message(c, author, 1, "message " + i);
+            if (i % 4 < 2) {
+                entityManager.flush();
+                jdbcTemplate.update(
+                        "UPDATE conversations SET last_message_id = ?, last_message_seq = 1,"
+                                + " last_message_preview = ?, last_message_at = ? WHERE id = ?",
+                        m.getId(),
+                        m.getContent(),
+                        m.getCreatedAt(),
+                        c.getId());
+            }
+        }
+        entityManager.flush();
+        entityManager.clear();
+
+        Statistics statistics =
+                entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+        statistics.clear();
+        List<ConversationSummaryDto> inbox = loader.loadInbox(me);
+        long statements = statistics.getPrepareStatementCount();
+
+        assertThat(inbox).hasSize(count);
+        assertThat(inbox).allSatisfy(dto -> assertThat(dto.getName()).isNotNull());
+        assertThat(inbox).allSatisfy(dto -> assertThat(dto.getLastMessageContent()).isNotNull());
+        return statements;
+    }
+
+    private User user(String username) {
+        User user = new User();
+        user.setUsername(username);
+        user.setNickname(username);
+        user.setEmail(username + "@example.com");
+        user.setPassword("secret");
+        return entityManager.persist(user);
+    }
+
+    private Conversation conversation(ConversationType type, String name) {
+        Conversation conversation = new Conversation();
+        conversation.setType(type);
+        conversation.setName(name);
+        return entityManager.persist(conversation);
+    }
+
+    private void participant(Conversation conversation, User user) {
+        entityManager.persist(new ConversationParticipant(conversation, user));
+    }
+
+    private Message message(Conversation conversation, User sender, long seq, String content) {
+        Message message = new Message();
+        message.setConversation(conversation);
+        message.setSender(sender);
+        message.setSeq(seq);
+        message.setContent(content);
+        message.setMessageType(MessageType.text);
+        return entityManager.persist(message);
+    }
+}
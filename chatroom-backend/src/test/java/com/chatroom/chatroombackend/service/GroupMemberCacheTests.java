@@ -0,0 +1,88 @@
+package com.chatroom.chatroombackend.service;
+
+import com.chatroom.chatroombackend.dto.GroupMemberPageDto;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.SimpleTransactionStatus;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class GroupMemberCacheTests {
+
+    private final GroupMemberCache cache = new GroupMemberCache();
+    private final PlatformTransactionManager transactionManager = mock(PlatformTransactionManager.class);
+    private final AtomicInteger loads = new AtomicInteger();
+
+    @BeforeEach
+    void setUp() {
+        ReflectionTestUtils.setField(cache, "maxConversations", 10);
+        ReflectionTestUtils.setField(cache, "meterRegistry", new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(cache, "transactionManager", transactionManager);
+        cache.init();
+        when(transactionManager.getTransaction(any())).thenReturn(new SimpleTransactionStatus());
+    }
+
+    @Test
+    void loadRunsInItsOwnReadOnlyTransactionAndIsCached() {
+        assertThat(cache.get(1L, this::load).memberCount()).isEqualTo(1);
+        assertThat(cache.get(1L, this::load).memberCount()).isEqualTo(1);
+        assertThat(loads).hasValue(1);
+
+        ArgumentCaptor<TransactionDefinition> definition = ArgumentCaptor.forClass(TransactionDefinition.class);
+        verify(transactionManager).getTransaction(definition.capture());
+        assertThat(definition.getValue().getPropagationBehavior())
+                .isEqualTo(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        assertThat(definition.getValue().isReadOnly()).isTrue();
+    }
+
+    @Test
+    void invalidationBeforeLoadTransactionStartsIsNotCachedOver() {
+        // 成员变化恰好在加载事务开始时提交并失效：代数已在事务开始前读取，结果不能写进缓存
+        when(transactionManager.getTransaction(any())).thenAnswer(invocation -> {
+            cache.invalidate(1L);
+            return new SimpleTransactionStatus();
+        });
+        cache.get(1L, this::load);
+        cache.get(1L, this::load);
+        assertThat(loads).hasValue(2);
+    }
+
+    @Test
+    void invalidationDuringLoadIsNotCachedOver() {
+        cache.get(1L, () -> {
+            cache.invalidate(2L);
+            return load();
+        });
+        cache.getAll(List.of(1L, 3L), ids -> {
+            cache.invalidate(2L);
+            return Map.of(1L, load(), 3L, load());
+        });
+        assertThat(loads).hasValue(3);
+
+        // 两次加载期间都发生了失效，缓存里仍然没有
+        Map<Long, GroupMemberCache.Preview> reloaded = cache.getAll(List.of(1L, 3L), ids -> {
+            loads.addAndGet(ids.size());
+            return Map.of();
+        });
+        assertThat(loads).hasValue(5);
+        assertThat(reloaded).containsOnlyKeys(1L, 3L);
+    }
+
+    private GroupMemberCache.Preview load() {
+        loads.incrementAndGet();
+        return new GroupMemberCache.Preview(new GroupMemberPageDto(List.of(), null), 1);
+    }
+}
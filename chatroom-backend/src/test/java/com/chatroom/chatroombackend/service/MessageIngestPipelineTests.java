@@ -0,0 +1,211 @@
+package com.chatroom.chatroombackend.service;
+
+import com.chatroom.chatroombackend.dto.MessageDto;
+import com.chatroom.chatroombackend.dto.MessageRequest;
+import com.chatroom.chatroombackend.entity.Conversation;
+import com.chatroom.chatroombackend.entity.Message;
+import com.chatroom.chatroombackend.entity.User;
+import com.chatroom.chatroombackend.repository.ConversationJdbcRepository;
+import com.chatroom.chatroombackend.repository.ConversationParticipantJdbcRepository;
+import com.chatroom.chatroombackend.repository.MessageJdbcRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.SimpleTransactionStatus;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class MessageIngestPipelineTests {
+
+    private static final long ACK_TIMEOUT_MS = 100;
+
+    private final MessageIngestPipeline pipeline = new MessageIngestPipeline();
+    private final ConversationService conversationService = mock(ConversationService.class);
+    private final MessageJdbcRepository messageJdbcRepo = mock(MessageJdbcRepository.class);
+    private final PlatformTransactionManager transactionManager = mock(PlatformTransactionManager.class);
+    private final BroadcastDispatcher broadcastDispatcher = mock(BroadcastDispatcher.class);
+    private final RecentMessageCache recentMessageCache = mock(RecentMessageCache.class);
+
+    // 每次 batchInsert 写入的消息内容，按调用顺序
+    private final List<List<String>> inserted = new CopyOnWriteArrayList<>();
+    private final CountDownLatch releaseWriter = new CountDownLatch(1);
+    private final CountDownLatch writerBlocked = new CountDownLatch(1);
+
+    @BeforeEach
+    void setUp() {
+        ReflectionTestUtils.setField(pipeline, "mode", "batched");
+        ReflectionTestUtils.setField(pipeline, "batchSize", 10);
+        ReflectionTestUtils.setField(pipeline, "flushIntervalMs", 5L);
+        ReflectionTestUtils.setField(pipeline, "queueCapacity", 10);
+        ReflectionTestUtils.setField(pipeline, "ackTimeoutMs", ACK_TIMEOUT_MS);
+        ReflectionTestUtils.setField(pipeline, "conversationService", conversationService);
+        ReflectionTestUtils.setField(pipeline, "messageJdbcRepo", messageJdbcRepo);
+        ReflectionTestUtils.setField(pipeline, "participantJdbcRepo", mock(ConversationParticipantJdbcRepository.class));
+        ReflectionTestUtils.setField(pipeline, "conversationJdbcRepo", mock(ConversationJdbcRepository.class));
+        ReflectionTestUtils.setField(pipeline, "broadcastDispatcher", broadcastDispatcher);
+        ReflectionTestUtils.setField(pipeline, "recentMessageCache", recentMessageCache);
+        ReflectionTestUtils.setField(pipeline, "inboxDeltaPusher", mock(InboxDeltaPusher.class));
+        ReflectionTestUtils.setField(pipeline, "transactionManager", transactionManager);
+
+        when(transactionManager.getTransaction(any())).thenReturn(new SimpleTransactionStatus());
+        when(conversationService.prepareMessage(any(), anyLong(), any()))
+                .thenAnswer(invocation -> message(invocation.getArgument(2, MessageRequest.class).getContent()));
+        // 第一批写入时阻塞写线程，直到测试放行
+        doAnswer(invocation -> {
+            List<Message> batch = invocation.getArgument(0);
+            inserted.add(batch.stream().map(Message::getContent).toList());
+            writerBlocked.countDown();
+            releaseWriter.await(5, TimeUnit.SECONDS);
+            return null;
+        }).when(messageJdbcRepo).batchInsert(any());
+
+        pipeline.start();
+    }
+
+    @AfterEach
+    void tearDown() throws InterruptedException {
+        releaseWriter.countDown();
+        pipeline.stop();
+    }
+
+    @Test
+    void timedOutQueuedMessageIsWithdrawnAndNeverStored() throws Exception {
+        CompletableFuture<MessageDto> first = CompletableFuture.supplyAsync(() -> send("first"));
+        assertThat(writerBlocked.await(5, TimeUnit.SECONDS)).isTrue();
+
+        // 写线程卡在第一批上，第二条只能在队列里等到超时
+        assertThatThrownBy(() -> send("second"))
+                .isInstanceOf(IllegalStateException.class)
+                .hasMessageContaining("Timed out");
+
+        releaseWriter.countDown();
+        assertThat(first.get(5, TimeUnit.SECONDS).getContent()).isEqualTo("first");
+        assertThat(send("third").getContent()).isEqualTo("third");
+
+        // 超时撤回的消息不会在之后被补写
+        assertThat(inserted).containsExactly(List.of("first"), List.of("third"));
+    }
+
+    @Test
+    void claimedMessageWaitsForCommitInsteadOfTimingOut() throws Exception {
+        CompletableFuture<MessageDto> first = CompletableFuture.supplyAsync(() -> send("first"));
+        assertThat(writerBlocked.await(5, TimeUnit.SECONDS)).isTrue();
+
+        // 已被写线程取走的消息超过 ackTimeout 仍在落库中，发送方应拿到结果而不是超时
+        Thread.sleep(ACK_TIMEOUT_MS * 2);
+        assertThat(first).isNotDone();
+        releaseWriter.countDown();
+
+        assertThat(first.get(5, TimeUnit.SECONDS).getContent()).isEqualTo("first");
+        assertThat(inserted).containsExactly(List.of("first"));
+    }
+
+    @Test
+    void asyncSubmitReturnsImmediatelyAndCompletesOnCommitOrTimeout() throws Exception {
+        CompletableFuture<MessageDto> first = pipeline.submitAsync(new User(), 1L, request("first"));
+        assertThat(writerBlocked.await(5, TimeUnit.SECONDS)).isTrue();
+
+        // 调用线程不等待：排在卡住的批次后面的消息立即拿到未完成的 future，到点后以超时失败
+        CompletableFuture<MessageDto> second = pipeline.submitAsync(new User(), 1L, request("second"));
+        assertThat(second).isNotDone();
+        assertThatThrownBy(() -> second.get(5, TimeUnit.SECONDS))
+                .isInstanceOf(ExecutionException.class)
+                .hasCauseInstanceOf(IllegalStateException.class)
+                .hasMessageContaining("Timed out");
+
+        // 已被取走的第一条不受超时影响，提交后完成
+        assertThat(first).isNotDone();
+        releaseWriter.countDown();
+        assertThat(first.get(5, TimeUnit.SECONDS).getContent()).isEqualTo("first");
+        assertThat(inserted).containsExactly(List.of("first"));
+    }
+
+    @Test
+    void asyncSubmitFailsFastWhenQueueIsFull() throws Exception {
+        pipeline.submitAsync(new User(), 1L, request("first"));
+        assertThat(writerBlocked.await(5, TimeUnit.SECONDS)).isTrue();
+        List<CompletableFuture<MessageDto>> queued = IntStream.range(0, 10)
+                .mapToObj(i -> pipeline.submitAsync(new User(), 1L, request("queued " + i)))
+                .toList();
+        assertThat(queued).noneMatch(CompletableFuture::isDone);
+
+        CompletableFuture<MessageDto> rejected = pipeline.submitAsync(new User(), 1L, request("overflow"));
+        assertThat(rejected).isCompletedExceptionally();
+        assertThatThrownBy(rejected::join).hasCauseInstanceOf(IllegalStateException.class)
+                .hasMessageContaining("busy");
+    }
+
+    @Test
+    void failingPostCommitStepDoesNotRetryTheCommittedBatch() throws Exception {
+        releaseWriter.countDown();
+        doThrow(new IllegalStateException("cache down")).when(recentMessageCache).append(any());
+        doThrow(new IllegalStateException("broker down")).when(broadcastDispatcher).publish(anyString(), any());
+
+        // 提交之后的步骤失败不影响发送结果，也不会把已提交的消息再写一遍
+        assertThat(send("first").getContent()).isEqualTo("first");
+        assertThat(send("second").getContent()).isEqualTo("second");
+        assertThat(inserted).containsExactly(List.of("first"), List.of("second"));
+    }
+
+    @Test
+    void blockedBroadcastDoesNotHoldBackTheWriter() throws Exception {
+        releaseWriter.countDown();
+        CountDownLatch releaseBroadcast = new CountDownLatch(1);
+        doAnswer(invocation -> releaseBroadcast.await(5, TimeUnit.SECONDS))
+                .when(broadcastDispatcher).publish(anyString(), any());
+
+        // 广播通道满时 publish 会阻塞，后续批次照常提交
+        try {
+            for (int i = 0; i < 5; i++) {
+                assertThat(send("message " + i).getContent()).isEqualTo("message " + i);
+            }
+            assertThat(inserted).hasSize(5);
+        } finally {
+            releaseBroadcast.countDown();
+        }
+        verify(broadcastDispatcher, timeout(2000).times(5)).publish(anyString(), any());
+    }
+
+    private MessageDto send(String content) {
+        return pipeline.submit(new User(), 1L, request(content));
+    }
+
+    private static MessageRequest request(String content) {
+        MessageRequest request = new MessageRequest();
+        request.setContent(content);
+        return request;
+    }
+
+    private static Message message(String content) {
+        Conversation conversation = new Conversation();
+        conversation.setId(1L);
+        User sender = new User();
+        sender.setId(2L);
+        Message message = new Message();
+        message.setConversation(conversation);
+        message.setSender(sender);
+        message.setSeq(1L);
+        message.setContent(content);
+        return message;
+    }
+}
@@ -0,0 +1,188 @@
+package com.chatroom.chatroombackend.service;
+
+import com.chatroom.chatroombackend.entity.Conversation;
+import com.chatroom.chatroombackend.entity.ConversationParticipant;
+import com.chatroom.chatroombackend.entity.Message;
+import com.chatroom.chatroombackend.entity.User;
+import com.chatroom.chatroombackend.enums.ConversationType;
+import com.chatroom.chatroombackend.enums.MessageType;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.test.autoconfigure.orm.jpa.TestEntityManager;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@DataJpaTest(
+        properties = {
+            "spring.datasource.url=jdbc:h2:mem:sequences;MODE=MySQL;DATABASE_TO_LOWER=TRUE",
+            "spring.datasource.driver-class-name=org.h2.Driver",
+            "spring.datasource.username=sa",
+            "spring.datasource.password=",
+            "spring.jpa.hibernate.ddl-auto=create-drop",
+            "spring.jpa.properties.hibernate.dialect=org.hibernate.dialect.H2Dialect",
+            "spring.jpa.show-sql=false"
+        })
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+class MessageSequenceAllocatorTests {
+
+    @Autowired private TestEntityManager entityManager;
+    @Autowired private JdbcTemplate jdbcTemplate;
+    @Autowired private PlatformTransactionManager transactionManager;
+
+    @Test
+    void restartSeedsFromHighestOfMessagesWatermarksAndHead() {
+        User alice = user("alice");
+        User bob = user("bob");
+
+        // 只有消息
+        Conversation plain = conversation();
+        message(plain, alice, 1);
+        message(plain, alice, 2);
+
+        // 最高的几条消息已回滚/删除，但 bob 的已读水位停在 5
+        Conversation rolledBack = conversation();
+        message(rolledBack, alice, 1);
+        participant(rolledBack, bob, 5L);
+
+        // 会话头记录的序号高于现存消息
+        Conversation deletedTail = conversation();
+        message(deletedTail, alice, 3);
+        entityManager.flush();
+        jdbcTemplate.update("UPDATE conversations SET last_message_seq = 9 WHERE id = ?", deletedTail.getId());
+
+        MessageSequenceAllocator allocator = restartedAllocator();
+
+        assertThat(allocator.next(plain.getId())).isEqualTo(3);
+        assertThat(allocator.next(rolledBack.getId())).isEqualTo(6);
+        assertThat(allocator.next(deletedTail.getId())).isEqualTo(10);
+        assertThat(allocator.current(-1L)).isZero();
+        assertThat(allocator.next(-1L)).isEqualTo(1);
+    }
+
+    @Test
+    void concurrentAllocationsAreUniqueAndGapFree() throws Exception {
+        MessageSequenceAllocator allocator = restartedAllocator();
+        Set<Long> allocated = ConcurrentHashMap.newKeySet();
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                futures.add(executor.submit(() -> {
+                    for (int n = 0; n < 1000; n++) {
+                        allocated.add(allocator.next(42L));
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        // 8000 个互不相同且都落在 1..8000 内，即没有重复也没有空洞
+        assertThat(allocated).hasSize(8000).allMatch(seq -> seq >= 1 && seq <= 8000);
+        assertThat(allocator.current(42L)).isEqualTo(8000);
+    }
+
+    @Test
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    void relayNodesShareOneDatabaseCounterSeededFromTheHead() throws Exception {
+        // 计数器在独立事务里提交，会话也要先提交才能被它读到
+        Long conversationId = new TransactionTemplate(transactionManager).execute(status -> {
+            Long id = conversation().getId();
+            entityManager.flush();
+            jdbcTemplate.update("UPDATE conversations SET last_message_seq = 7 WHERE id = ?", id);
+            return id;
+        });
+        List<MessageSequenceAllocator> relayNodes = List.of(allocator("relay"), allocator("relay"));
+
+        Set<Long> allocated = ConcurrentHashMap.newKeySet();
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                MessageSequenceAllocator node = relayNodes.get(i % 2);
+                futures.add(executor.submit(() -> {
+                    for (int n = 0; n < 250; n++) {
+                        allocated.add(node.next(conversationId));
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        // 两个节点共 2000 个序号，接在会话头 7 之后，互不重复
+        assertThat(allocated).hasSize(2000).allMatch(seq -> seq >= 8 && seq <= 2007);
+        assertThat(relayNodes.get(1).current(conversationId)).isEqualTo(2007);
+        // 切回单节点模式重启时，计数器也参与恢复
+        assertThat(allocator("simple").next(conversationId)).isEqualTo(2008);
+    }
+
+    /** 模拟重启：新建一个分配器并执行启动恢复。 */
+    private MessageSequenceAllocator restartedAllocator() {
+        entityManager.flush();
+        return allocator("simple");
+    }
+
+    private MessageSequenceAllocator allocator(String brokerMode) {
+        MessageSequenceAllocator allocator = new MessageSequenceAllocator();
+        ReflectionTestUtils.setField(allocator, "brokerMode", brokerMode);
+        ReflectionTestUtils.setField(allocator, "jdbcTemplate", jdbcTemplate);
+        ReflectionTestUtils.setField(allocator, "transactionManager", transactionManager);
+        allocator.init();
+        return allocator;
+    }
+
+    private User user(String username) {
+        User user = new User();
+        user.setUsername(username);
+        user.setNickname(username);
+        user.setEmail(username + "@example.com");
+        user.setPassword("secret");
+        return entityManager.persist(user);
+    }
+
+    private Conversation conversation() {
+        Conversation conversation = new Conversation();
+        conversation.setType(ConversationType.GROUP);
+        conversation.setName("group");
+        return entityManager.persist(conversation);
+    }
+
+    private void participant(Conversation conversation, User user, Long lastReadSeq) {
+        ConversationParticipant participant = new ConversationParticipant(conversation, user);
+        participant.setLastReadSeq(lastReadSeq);
+        entityManager.persist(participant);
+    }
+
+    private void message(Conversation conversation, User sender, long seq) {
+        Message message = new Message();
+        message.setConversation(conversation);
+        message.setSender(sender);
+        message.setSeq(seq);
+        message.setContent("message " + seq);
+        message.setMessageType(MessageType.text);
+        entityManager.persist(message);
+    }
+}
@@ -0,0 +1,134 @@
+package com.chatroom.chatroombackend.service;
+
+import com.chatroom.chatroombackend.dto.MessageDto;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.LongStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class RecentMessageCacheTests {
+
+    private final RecentMessageCache cache = new RecentMessageCache();
+
+    @BeforeEach
+    void setUp() {
+        ReflectionTestUtils.setField(cache, "perConversation", 5);
+        ReflectionTestUtils.setField(cache, "maxConversations", 2);
+        ReflectionTestUtils.setField(cache, "meterRegistry", new SimpleMeterRegistry());
+        cache.init();
+    }
+
+    @Test
+    void unseededConversationMissesButKeepsMessagesArrivingDuringSeed() {
+        cache.append(message(1L, 3));
+        assertThat(cache.get(1L)).isNull();
+
+        // 数据库加载结果里还没有 seq 3，合并后不能丢
+        RecentMessageCache.Snapshot snapshot = cache.seed(1L, List.of(message(1L, 2), message(1L, 1)), true);
+
+        assertThat(seqs(snapshot)).containsExactly(1L, 2L, 3L);
+        assertThat(snapshot.complete()).isTrue();
+        assertThat(seqs(cache.get(1L))).containsExactly(1L, 2L, 3L);
+    }
+
+    @Test
+    void outOfOrderAppendsAreServedInSeqOrderAndTrimmedToNewest() {
+        cache.seed(1L, List.of(), true);
+        for (long seq : new long[] {4, 2, 7, 1, 6, 3, 5}) {
+            cache.append(message(1L, seq));
+        }
+
+        RecentMessageCache.Snapshot snapshot = cache.get(1L);
+        assertThat(seqs(snapshot)).containsExactly(3L, 4L, 5L, 6L, 7L);
+        // 裁掉过更早的消息后不再是完整历史，更早的页要查数据库
+        assertThat(snapshot.complete()).isFalse();
+    }
+
+    @Test
+    void leastRecentlyUsedConversationIsEvicted() {
+        cache.seed(1L, List.of(message(1L, 1)), true);
+        cache.seed(2L, List.of(message(2L, 1)), true);
+        // 访问会话 1，使会话 2 成为最久未使用
+        assertThat(cache.get(1L)).isNotNull();
+
+        cache.seed(3L, List.of(message(3L, 1)), true);
+
+        assertThat(cache.get(1L)).isNotNull();
+        assertThat(cache.get(2L)).isNull();
+        assertThat(cache.get(3L)).isNotNull();
+    }
+
+    @Test
+    void recallAndInvalidateUpdateTheTail() {
+        cache.seed(1L, List.of(message(1L, 1), message(1L, 2)), true);
+
+        cache.markRecalled(1L, 1002L);
+        List<MessageDto> messages = cache.get(1L).messages();
+        assertThat(messages.get(1).isRecalled()).isTrue();
+        assertThat(messages.get(1).getContent()).isNull();
+        assertThat(messages.get(0).isRecalled()).isFalse();
+
+        cache.invalidate(1L);
+        assertThat(cache.get(1L)).isNull();
+    }
+
+    @Test
+    void invalidationInsideATransactionWaitsForCommit() {
+        cache.seed(1L, List.of(message(1L, 1)), true);
+        TransactionSynchronizationManager.initSynchronization();
+        try {
+            cache.invalidateAfterCommit(1L);
+            // 事务还没提交：回滚时缓存仍然对应数据库里的消息
+            assertThat(cache.get(1L)).isNotNull();
+
+            TransactionSynchronizationManager.getSynchronizations().forEach(TransactionSynchronization::afterCommit);
+        } finally {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+        assertThat(cache.get(1L)).isNull();
+    }
+
+    @Test
+    void concurrentAppendsKeepTheNewestMessagesInOrder() throws Exception {
+        cache.seed(1L, List.of(), true);
+        List<Long> seqs = new ArrayList<>(LongStream.rangeClosed(1, 4000).boxed().toList());
+        Collections.shuffle(seqs);
+
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                List<Long> slice = seqs.subList(i * 500, (i + 1) * 500);
+                futures.add(executor.submit(() -> slice.forEach(seq -> cache.append(message(1L, seq)))));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertThat(seqs(cache.get(1L))).containsExactly(3996L, 3997L, 3998L, 3999L, 4000L);
+    }
+
+    private static List<Long> seqs(RecentMessageCache.Snapshot snapshot) {
+        return snapshot.messages().stream().map(MessageDto::getSeq).toList();
+    }
+
+    private static MessageDto message(Long conversationId, long seq) {
+        return new MessageDto(
+                conversationId * 1000 + seq, conversationId, seq, "message " + seq, null, null, null, null, false);
+    }
+}
@@ -0,0 +1,103 @@
+package com.chatroom.chatroombackend.service;
+
+import com.chatroom.chatroombackend.dto.TypingSnapshotDto;
+import com.chatroom.chatroombackend.entity.User;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.mockito.ArgumentCaptor;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.clearInvocations;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+class TypingIndicatorServiceTests {
+
+    private final TypingIndicatorService service = new TypingIndicatorService();
+    private final BroadcastDispatcher broadcastDispatcher = mock(BroadcastDispatcher.class);
+
+    @BeforeEach
+    void setUp() {
+        ReflectionTestUtils.setField(service, "ttlMs", 60_000L);
+        ReflectionTestUtils.setField(service, "maxListed", 5);
+        ReflectionTestUtils.setField(service, "broadcastDispatcher", broadcastDispatcher);
+        ReflectionTestUtils.setField(service, "meterRegistry", new SimpleMeterRegistry());
+        service.init();
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {1, 10, 1000})
+    void oneBroadcastPerConversationPerWindowRegardlessOfTypists(int typists) {
+        for (long userId = 1; userId <= typists; userId++) {
+            service.start(1L, user(userId));
+            service.start(2L, user(userId));
+            // 同一窗口内的续期不额外触发广播
+            service.start(1L, user(userId));
+        }
+
+        service.flush();
+
+        ArgumentCaptor<String> destinations = ArgumentCaptor.forClass(String.class);
+        ArgumentCaptor<Object> snapshots = ArgumentCaptor.forClass(Object.class);
+        verify(broadcastDispatcher, times(2)).publish(destinations.capture(), snapshots.capture());
+        assertThat(destinations.getAllValues())
+                .containsExactlyInAnyOrder("/topic/conversations/1/typing", "/topic/conversations/2/typing");
+        for (Object captured : snapshots.getAllValues()) {
+            TypingSnapshotDto snapshot = (TypingSnapshotDto) captured;
+            assertThat(snapshot.getCount()).isEqualTo(typists);
+            assertThat(snapshot.getTypists()).hasSize(Math.min(typists, 5));
+        }
+
+        // 没有变化的窗口不广播，续期也不算变化
+        clearInvocations(broadcastDispatcher);
+        for (long userId = 1; userId <= typists; userId++) {
+            service.start(1L, user(userId));
+        }
+        service.flush();
+        verify(broadcastDispatcher, never()).publish(anyString(), any());
+    }
+
+    @Test
+    void stoppingAndExpiryEachProduceOneSnapshotThenRoomIsDropped() {
+        service.start(1L, user(1L));
+        service.start(1L, user(2L));
+        service.flush();
+        clearInvocations(broadcastDispatcher);
+
+        service.stop(1L, 1L);
+        service.stop(1L, 2L);
+        service.flush();
+        ArgumentCaptor<Object> snapshot = ArgumentCaptor.forClass(Object.class);
+        verify(broadcastDispatcher).publish(anyString(), snapshot.capture());
+        assertThat(((TypingSnapshotDto) snapshot.getValue()).getTypists()).isEmpty();
+
+        // 空会话已移除，之后的窗口不再广播
+        clearInvocations(broadcastDispatcher);
+        service.flush();
+        verify(broadcastDispatcher, never()).publish(anyString(), any());
+
+        ReflectionTestUtils.setField(service, "ttlMs", 0L);
+        service.start(1L, user(3L));
+        service.flush();
+        verify(broadcastDispatcher, times(1)).publish(anyString(), snapshot.capture());
+        assertThat(((TypingSnapshotDto) snapshot.getValue()).getTypists()).isEmpty();
+        assertThat((Map<?, ?>) ReflectionTestUtils.getField(service, "rooms")).isEmpty();
+    }
+
+    private static User user(Long id) {
+        User user = new User();
+        user.setId(id);
+        user.setNickname("user " + id);
+        return user;
+    }
+}
@@ -0,0 +1,34 @@
+import apiClient from './apiClient';
+import type { GroupMemberPage, GroupUserInfo } from '@/types/api';
+
+// 服务端单页上限
+const MAX_PAGE_SIZE = 200;
+
+/**
+ * 获取一页群成员（群主、管理员在前）。群详情里只内嵌第一页，其余成员都走这个接口。
+ * @param cursor 上一页返回的 nextCursor，传 null 从第一页开始
+ */
+export const fetchGroupMemberPage = async (
+  uuid: string,
+  cursor: string | null,
+  limit = 50
+): Promise<GroupMemberPage> => {
+  const response = await apiClient.get<GroupMemberPage>(`/api/conversations/${uuid}/members`, {
+    params: { cursor, limit }
+  });
+  return response.data;
+};
+
+/**
+ * 按游标取完一个群的全部成员，供需要完整名单的管理、邀请界面使用。
+ */
+export const fetchAllGroupMembers = async (uuid: string): Promise<GroupUserInfo[]> => {
+  const members: GroupUserInfo[] = [];
+  let cursor: string | null = null;
+  do {
+    const page: GroupMemberPage = await fetchGroupMemberPage(uuid, cursor, MAX_PAGE_SIZE);
+    members.push(...page.members);
+    cursor = page.nextCursor;
+  } while (cursor);
+  return members;
+};
@@ -6,10 +6,24 @@ import { useAuthStore } from '@/stores/auth';
 // 定义消息处理器回调函数的类型
 export type MessageCallback = (message: any) => void;
 
+// 一个会话已收到的消息序号：contiguous 及以下全部收到过或已确认跳过，ahead 是高于 contiguous、已收到但前面还有缺口的序号，
+// skipped 是 contiguous 越过时还没收到的序号（多半是空洞，也可能是之后才提交的消息），晚到时照常接受
+interface SeenSeqs {
+  contiguous: number;
+  ahead: Set<number>;
+  skipped: Set<number>;
+}
+
+// 超过这么多个序号仍补不上的缺口多半是服务端事务回滚留下的空洞，不再等待；skipped 也只保留这么多个
+const MAX_AHEAD_SEQS = 500;
+
 class WebSocketService {
   private stompClient: Client;
   private subscriptions: Map<string, any> = new Map();
-  private pendingSubscriptions: Map<string, MessageCallback[]> = new Map();
+  private pendingSubscriptions: Map<
+    string,
+    { callback: (message: IMessage) => void; headers: () => Record<string, string> }[]
+  > = new Map();
   
   // 分开存储两种不同类型的回调
   private friendRequestCallbacks: MessageCallback[] = [];
@@ -20,6 +34,14 @@ class WebSocketService {
   private isConnecting: boolean = false;
   private connectionCallbacks: (() => void)[] = [];
 
+  // 优先使用原生 WebSocket 端点（浏览器会自动协商 permessage-deflate），连不上时退回 SockJS
+  private useNativeWebSocket: boolean = typeof WebSocket !== 'undefined';
+  private nativeEverConnected: boolean = false;
+
+  private conversationCallbacks: Map<number, MessageCallback> = new Map();
+  // 每个会话已收到的消息序号；重连后重新订阅时把 contiguous 作为 last-seen-seq，服务端从第一个缺口开始补发
+  private seenSeqs: Map<number, SeenSeqs> = new Map();
+
   private getUserId(): number | null {
     try {
       const authStore = useAuthStore();
@@ -32,7 +54,10 @@ class WebSocketService {
 
   constructor() {
     this.stompClient = new Client({
-      webSocketFactory: () => new SockJS('http://localhost:8080/ws'),
+      webSocketFactory: () =>
+        this.useNativeWebSocket
+          ? new WebSocket('ws://localhost:8080/ws-native', ['v12.stomp', 'v11.stomp', 'v10.stomp'])
+          : new SockJS('http://localhost:8080/ws'),
       debug: (str) => {
         console.log('STOMP: ' + str);
       },
@@ -48,6 +73,9 @@ class WebSocketService {
       console.log('Connected to WebSocket:', frame);
       this.isConnected = true;
       this.isConnecting = false;
+      if (this.useNativeWebSocket) {
+        this.nativeEverConnected = true;
+      }
       
       this.connectionCallbacks.forEach(callback => callback());
       this.connectionCallbacks = [];
@@ -78,6 +106,11 @@ class WebSocketService {
       console.log('WebSocket closed:', event);
       this.isConnected = false;
       this.isConnecting = false;
+      // 原生端点从未连通过（例如被代理拦截），之后的重连改走 SockJS
+      if (this.useNativeWebSocket && !this.nativeEverConnected) {
+        console.warn('Native WebSocket unavailable, falling back to SockJS.');
+        this.useNativeWebSocket = false;
+      }
     };
   }
 
@@ -121,6 +154,8 @@ class WebSocketService {
       console.log('Disconnected from WebSocket.');
     }
     this.subscriptions.clear();
+    this.conversationCallbacks.clear();
+    this.seenSeqs.clear();
     this.isConnected = false;
   }
 
@@ -130,10 +165,19 @@ class WebSocketService {
     if (this.friendRequestCallbacks.length > 0 || this.groupInvitationCallbacks.length > 0) {
       this.subscribeToUserNotifications();
     }
+    // 重新订阅会话消息，服务端会先补发断线期间错过的消息
+    this.conversationCallbacks.forEach((callback, conversationId) => {
+      this.subscriptions.delete(`/topic/conversations/${conversationId}`);
+      this.subscribe(conversationId, callback);
+    });
   }
 
   // 安全的订阅方法，确保连接建立后再订阅
-  private safeSubscribe(topic: string, callback: (message: IMessage) => void): void {
+  private safeSubscribe(
+    topic: string,
+    callback: (message: IMessage) => void,
+    headers: () => Record<string, string> = () => ({})
+  ): void {
     if (!this.isConnected) {
       console.warn(`STOMP client not connected. Queuing subscription for ${topic}`);
       
@@ -141,7 +185,7 @@ class WebSocketService {
       if (!this.pendingSubscriptions.has(topic)) {
         this.pendingSubscriptions.set(topic, []);
       }
-      this.pendingSubscriptions.get(topic)?.push(callback);
+      this.pendingSubscriptions.get(topic)?.push({ callback, headers });
       
       // 2. 确保连接正在进行 (如果未连接，connect会自动处理)
       this.connect();
@@ -154,7 +198,7 @@ class WebSocketService {
     }
 
     try {
-      const subscription = this.stompClient.subscribe(topic, callback);
+      const subscription = this.stompClient.subscribe(topic, callback, headers());
       this.subscriptions.set(topic, subscription);
       console.log(`Subscribed to ${topic}`);
     } catch (error) {
@@ -165,8 +209,8 @@ class WebSocketService {
   // 处理待处理的订阅请求
   private processPendingSubscriptions(): void {
     this.pendingSubscriptions.forEach((callbacks, topic) => {
-      callbacks.forEach(callback => {
-        this.safeSubscribe(topic, callback);
+      callbacks.forEach(({ callback, headers }) => {
+        this.safeSubscribe(topic, callback, headers);
       });
     });
     this.pendingSubscriptions.clear();
@@ -175,17 +219,87 @@ class WebSocketService {
   // 其他订阅方法
   public subscribe(conversationId: number, callback: MessageCallback): void {
     const topic = `/topic/conversations/${conversationId}`;
-    
-    this.safeSubscribe(topic, (message: IMessage) => {
-      try {
-        const parsedMessage = JSON.parse(message.body);
-        callback(parsedMessage);
-      } catch (error) {
-        console.error('Could not parse JSON:', message.body);
+    this.conversationCallbacks.set(conversationId, callback);
+
+    this.safeSubscribe(
+      topic,
+      (message: IMessage) => {
+        try {
+          const parsedMessage = JSON.parse(message.body);
+          // 补发与实时推送可能重叠也可能乱序，只丢弃真正收到过的 seq
+          const seq = parsedMessage?.seq;
+          const replayed = message.headers['replay'] === 'true';
+          if (typeof seq === 'number' && !this.markSeen(conversationId, seq, replayed)) {
+            return;
+          }
+          callback(parsedMessage);
+        } catch (error) {
+          console.error('Could not parse JSON:', message.body);
+        }
+      },
+      () => {
+        const seen = this.seenSeqs.get(conversationId);
+        return seen !== undefined ? { 'last-seen-seq': String(seen.contiguous) } : {};
+      }
+    );
+  }
+
+  // 记录收到的 seq，已经收到过时返回 false。
+  // 补发帧按 seq 升序列出 last-seen-seq 之后全部已提交的消息，收到补发的 seq 说明它之前没收到的都是空洞，
+  // contiguous 直接越过，下次重新订阅不会再从同一个空洞开始重复补发
+  private markSeen(conversationId: number, seq: number, replayed: boolean): boolean {
+    const seen = this.seenSeqs.get(conversationId);
+    if (seen === undefined) {
+      // 订阅后的第一条消息，更早的消息由历史接口加载
+      this.seenSeqs.set(conversationId, { contiguous: seq, ahead: new Set(), skipped: new Set() });
+      return true;
+    }
+    if (seen.skipped.delete(seq)) {
+      return true;
+    }
+    // 补发帧即使是收到过的也要推进，否则缺口后面的消息每次重新订阅都会被重复补发
+    if (replayed) {
+      this.skipTo(seen, seq - 1);
+    }
+    const duplicate = seq <= seen.contiguous || seen.ahead.has(seq);
+    if (!duplicate) {
+      seen.ahead.add(seq);
+    }
+    if (seen.ahead.size > MAX_AHEAD_SEQS) {
+      // 跳过最早的缺口
+      this.skipTo(seen, Math.min(...seen.ahead) - 1);
+    }
+    while (seen.ahead.delete(seen.contiguous + 1)) {
+      seen.contiguous++;
+    }
+    return !duplicate;
+  }
+
+  // 把 contiguous 推进到 target，中间没收到的序号记入 skipped
+  private skipTo(seen: SeenSeqs, target: number): void {
+    if (target <= seen.contiguous) {
+      return;
+    }
+    for (let s = Math.max(seen.contiguous + 1, target - MAX_AHEAD_SEQS + 1); s <= target; s++) {
+      if (!seen.ahead.delete(s)) {
+        seen.skipped.add(s);
+      }
+    }
+    seen.ahead.forEach(s => {
+      if (s <= target) {
+        seen.ahead.delete(s);
       }
     });
+    seen.contiguous = target;
+    // Set 按插入顺序迭代，先丢最早跳过的
+    for (const s of seen.skipped) {
+      if (seen.skipped.size <= MAX_AHEAD_SEQS) {
+        break;
+      }
+      seen.skipped.delete(s);
+    }
   }
-  
+
   public subscribeToRecalls(conversationId: number, callback: MessageCallback): void {
     const topic = `/topic/conversations/${conversationId}/recalls`;
     
@@ -200,6 +314,8 @@ class WebSocketService {
   }
   
   public unsubscribe(conversationId: number): void {
+    this.conversationCallbacks.delete(conversationId);
+    this.seenSeqs.delete(conversationId);
     const topics = [
       `/topic/conversations/${conversationId}`,
       `/topic/conversations/${conversationId}/recalls`
@@ -284,6 +400,18 @@ class WebSocketService {
     }
   }
 
+  // 通过 STOMP 发送已读回执；未连接时返回 false，由调用方改走 REST
+  public sendReadReceipt(conversationId: number, seq?: number): boolean {
+    if (!this.stompClient.connected) {
+      return false;
+    }
+    this.stompClient.publish({
+      destination: `/app/conversations/${conversationId}/read`,
+      body: JSON.stringify(seq !== undefined ? { seq } : {}),
+    });
+    return true;
+  }
+
   public isActive(): boolean {
     return this.stompClient.active;
   }
@@ -1,6 +1,7 @@
 import { defineStore } from 'pinia';
 import type { ConversationSummary } from '@/types/api';
 import apiClient from '@/api/apiClient';
+import { webSocketService } from '@/service/WebSocketService';
 import { parseFileContent, isImageFile } from '@/utils/fileUtils'; 
 import type { MessageDto } from '@/types/api';
 
@@ -94,6 +95,10 @@ export const useChatStore = defineStore('chat', {
       const index = this.conversations.findIndex(c => c.conversationId === conversationId);
       if (index !== -1 && this.conversations[index].unreadCount > 0) {
         this.conversations[index].unreadCount = 0;
+        // 已连接时走 WebSocket 已读回执，由服务端合并后批量写入
+        if (webSocketService.sendReadReceipt(conversationId)) {
+          return;
+        }
         try {
           // 同时通知后端，将该会话标记为已读
           await apiClient.post(`/api/conversations/${conversationId}/read`);
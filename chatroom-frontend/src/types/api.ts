@@ -59,10 +59,16 @@ export interface GroupDetailsDto {
   avatarUrl: string;
   description: string;
   memberCount: number;
-  members: GroupUserInfo[]; // 成员列表
+  members: GroupUserInfo[]; // 第一页成员（群主、管理员在前）
+  membersNextCursor: string | null; // 其余成员通过 /members 分页接口获取
   currentUserRole: 'owner' | 'admin' | 'member';
 }
 
+export interface GroupMemberPage {
+  members: GroupUserInfo[];
+  nextCursor: string | null;
+}
+
 export interface Sender {
   id: number;
   nickname: string;